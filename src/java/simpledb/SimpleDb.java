@@ -41,6 +41,8 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varstring"))
+                                ts[index++] = Type.VAR_STRING_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
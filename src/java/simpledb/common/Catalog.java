@@ -59,8 +59,19 @@ public class Catalog {
     public void addTable(DbFile file, String name, String pkeyField) {
         // some code goes here
         int tableID =  file.getId();
-        this.tables.put(tableID,new Table(name,pkeyField,file));
+        Table old = this.tables.put(tableID,new Table(name,pkeyField,file));
         this.tableInfo.put(name,tableID);
+        if (old != null && old.file != file) {
+            closeFile(old.file);
+        }
+    }
+
+    private static void closeFile(DbFile file) {
+        try {
+            file.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -131,6 +142,9 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        for (Table t : this.tables.values()) {
+            closeFile(t.file);
+        }
         this.tables = new HashMap<>();
         this.tableInfo = new HashMap<>();
     }
@@ -161,6 +175,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varstring"))
+                        types.add(Type.VAR_STRING_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -1,8 +1,10 @@
 package simpledb.common;
 
+import simpledb.execution.Predicate;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.VarStringField;
 
 import java.text.ParseException;
 import java.io.*;
@@ -28,6 +30,33 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(byte[] data, int offset) {
+            return new IntField(readInt(data, offset));
+        }
+
+        @Override
+        public boolean compare(byte[] data, int offset, Predicate.Op op, Field operand) {
+            int value = readInt(data, offset);
+            int other = ((IntField) operand).getValue();
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return value == other;
+                case NOT_EQUALS:
+                    return value != other;
+                case GREATER_THAN:
+                    return value > other;
+                case GREATER_THAN_OR_EQ:
+                    return value >= other;
+                case LESS_THAN:
+                    return value < other;
+                case LESS_THAN_OR_EQ:
+                    return value <= other;
+            }
+            return false;
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +75,78 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = stringLength(data, offset);
+            return new StringField(new String(data, offset + 4, strLen), STRING_LEN);
+        }
+
+        @Override
+        public boolean compare(byte[] data, int offset, Predicate.Op op, Field operand) {
+            return compareString(this, data, offset, offset + 4, stringLength(data, offset), op, operand);
+        }
+
+        private int stringLength(byte[] data, int offset) {
+            return Math.max(0, Math.min(readInt(data, offset), STRING_LEN));
+        }
+    }, VAR_STRING_TYPE() {
+        @Override
+        public int getLen() {
+            return STRING_LEN+2;
+        }
+
+        @Override
+        public int getMinLen() {
+            return 2;
+        }
+
+        @Override
+        public int getLen(byte[] data, int offset) {
+            return 2 + stringLength(data, offset);
+        }
+
+        @Override
+        public int getLen(Field f) {
+            return 2 + Math.min(((StringField) f).getValue().length(), STRING_LEN);
+        }
+
+        @Override
+        public void serialize(Field f, DataOutputStream dos) throws IOException {
+            String s = ((StringField) f).getValue();
+            if (s.length() > STRING_LEN) {
+                s = s.substring(0, STRING_LEN);
+            }
+            dos.writeShort(s.length());
+            dos.writeBytes(s);
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readUnsignedShort();
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new VarStringField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(byte[] data, int offset) {
+            int strLen = stringLength(data, offset);
+            return new VarStringField(new String(data, offset + 2, strLen), STRING_LEN);
+        }
+
+        @Override
+        public boolean compare(byte[] data, int offset, Predicate.Op op, Field operand) {
+            return compareString(this, data, offset, offset + 2, stringLength(data, offset), op, operand);
+        }
+
+        private int stringLength(byte[] data, int offset) {
+            return Math.min(((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -55,6 +156,51 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return the smallest number of bytes a field of this type can be stored
+   *   in; less than {@link #getLen()} only for variable-length types.
+   */
+    public int getMinLen() {
+        return getLen();
+    }
+
+  /**
+   * @return false if fields of this type are stored in fewer than
+   *   {@link #getLen()} bytes when their value is short
+   */
+    public boolean isFixedLength() {
+        return getMinLen() == getLen();
+    }
+
+  /**
+   * @return the number of bytes taken by the serialized field of this type
+   *   that starts at the given offset of data
+   * @param data the serialized bytes, e.g. the contents of a page
+   * @param offset the offset of the field within data
+   */
+    public int getLen(byte[] data, int offset) {
+        return getLen();
+    }
+
+  /**
+   * @return the number of bytes needed to store the given field of this type
+   * @param f the field; must be of this type
+   */
+    public int getLen(Field f) {
+        return getLen();
+    }
+
+  /**
+   * Write a field in the format of this type; the format of a
+   * variable-length type does not depend on which Field class holds the
+   * value.
+   * @param f the field to write; must hold a value of this type
+   * @param dos the stream to write to
+   */
+    public void serialize(Field f, DataOutputStream dos) throws IOException {
+        f.serialize(dos);
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -64,4 +210,68 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object whose contents
+   *   are read from data, starting at the given offset.
+   * @param data the serialized bytes, e.g. the contents of a page
+   * @param offset the offset of the field within data
+   */
+    public abstract Field parse(byte[] data, int offset);
+
+  /**
+   * Compare the serialized field at the given offset of data to operand,
+   * without creating a Field for it. Semantics are those of
+   * {@link Field#compare}.
+   * @param data the serialized bytes, e.g. the contents of a page
+   * @param offset the offset of the field within data
+   * @param op the comparison operator
+   * @param operand the value to compare against; must be of this type
+   */
+    public abstract boolean compare(byte[] data, int offset, Predicate.Op op, Field operand);
+
+    /**
+     * Compare a serialized string of strLen bytes, starting at data[start],
+     * to a StringField operand, the way StringField.compare would.
+     */
+    private static boolean compareString(Type type, byte[] data, int offset, int start, int strLen,
+                                         Predicate.Op op, Field operand) {
+        if (op == Predicate.Op.LIKE) {
+            return type.parse(data, offset).compare(op, operand);
+        }
+        String other = ((StringField) operand).getValue();
+        int n = Math.min(strLen, other.length());
+        int cmpVal = strLen - other.length();
+        for (int i = 0; i < n; i++) {
+            byte b = data[start + i];
+            if (b < 0) {
+                // not plain ASCII; let the decoded string decide
+                return type.parse(data, offset).compare(op, operand);
+            }
+            if (b != other.charAt(i)) {
+                cmpVal = b - other.charAt(i);
+                break;
+            }
+        }
+        switch (op) {
+            case EQUALS:
+                return cmpVal == 0;
+            case NOT_EQUALS:
+                return cmpVal != 0;
+            case GREATER_THAN:
+                return cmpVal > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmpVal >= 0;
+            case LESS_THAN:
+                return cmpVal < 0;
+            case LESS_THAN_OR_EQ:
+                return cmpVal <= 0;
+        }
+        return false;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
 }
@@ -1,13 +1,15 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
-import simpledb.storage.Field;
-import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import static simpledb.execution.Aggregator.NO_GROUPING;
@@ -15,8 +17,9 @@ import static simpledb.execution.Aggregator.NO_GROUPING;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). It computes any number of aggregates, grouped by any number of
+ * columns, in a single pass over its child. Over a {@link ParallelSeqScan}
+ * the groups are aggregated on the scan's workers.
  */
 public class Aggregate extends Operator {
 
@@ -25,7 +28,11 @@ public class Aggregate extends Operator {
     private int afield;
     private int gfield;
     private Aggregator.Op aop;
-    private OpIterator[] children;
+    private final int[] afields;
+    private final int[] gfields;
+    private final Aggregator.Op[] aops;
+    private TupleDesc td;
+    private long memoryBudget = -1;
 
     /**
      * Constructor.
@@ -42,10 +49,46 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
         // some code goes here
+        this(child, new int[]{afield},
+                gfield == NO_GROUPING ? new int[0] : new int[]{gfield},
+                new Aggregator.Op[]{aop});
+    }
+
+    /**
+     * Constructor for several aggregates over a composite grouping key.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The column of each aggregate.
+     * @param gfields The columns over which we are grouping the result;
+     *                empty if there is no grouping
+     * @param aops    The aggregation operator of each aggregate
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need an operator for each aggregate field");
+        }
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.afield = afields[0];
+        this.gfield = gfields.length == 0 ? NO_GROUPING : gfields[0];
+        this.aop = aops[0];
+    }
+
+    /** @return the group by field indices in the <b>INPUT</b> tuples; empty without grouping */
+    public int[] getGroupFields() {
+        return gfields.clone();
+    }
+
+    /** @return the field index in the <b>INPUT</b> tuples of each aggregate */
+    public int[] getAggregateFields() {
+        return afields.clone();
+    }
+
+    /** @return the operator of each aggregate */
+    public Aggregator.Op[] getAggregateOps() {
+        return aops.clone();
     }
 
     /**
@@ -69,7 +112,7 @@ public class Aggregate extends Operator {
     public String groupFieldName() {
         // some code goes here
         if (this.gfield != -1) {
-            return this.getTupleDesc().getFieldName(this.gfield);
+            return this.child.getTupleDesc().getFieldName(this.gfield);
         }
         return null;
     }
@@ -88,7 +131,14 @@ public class Aggregate extends Operator {
      */
     public String aggregateFieldName() {
         // some code goes here
-        return this.getTupleDesc().getFieldName(this.afield);
+        return aggregateFieldName(0);
+    }
+
+    /**
+     * @return the name in the <b>OUTPUT</b> tuples of the i-th aggregate
+     */
+    public String aggregateFieldName(int i) {
+        return nameOfAggregatorOp(this.aops[i]) + "(" + this.child.getTupleDesc().getFieldName(this.afields[i]) + ")";
     }
 
     /**
@@ -103,25 +153,104 @@ public class Aggregate extends Operator {
         return aop.toString();
     }
 
+    /**
+     * Set how many bytes the groups may take in memory before they are
+     * spilled to disk. By default this is the memory the buffer pool
+     * grants an operator.
+     *
+     * @param bytes the memory budget
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    private Aggregator agg;
     private OpIterator aggIterator;
 
+    private MultiAggregator newMultiAggregator(TupleDesc childTd) {
+        Type[] gtypes = new Type[this.gfields.length];
+        for (int i = 0; i < gtypes.length; i++) {
+            gtypes[i] = childTd.getFieldType(this.gfields[i]);
+        }
+        Type[] atypes = new Type[this.afields.length];
+        for (int i = 0; i < atypes.length; i++) {
+            atypes[i] = childTd.getFieldType(this.afields[i]);
+        }
+        return new MultiAggregator(this.gfields, gtypes, this.afields, atypes, this.aops);
+    }
+
+    /**
+     * Aggregate a parallel scan on its workers: each worker aggregates the
+     * batches it reads into its own partial groups, with its share of the
+     * memory budget, and the partial groups are merged at the end.
+     *
+     * @return the aggregator holding the merged groups
+     */
+    private Aggregator aggregateParallel(ParallelSeqScan scan, TupleDesc childTd)
+            throws DbException, TransactionAbortedException {
+        long budget = this.memoryBudget >= 0 ? this.memoryBudget : Database.getBufferPool().getOperatorMemory();
+        MultiAggregator[] partials = new MultiAggregator[Math.max(1, scan.numWorkers())];
+        for (int i = 0; i < partials.length; i++) {
+            partials[i] = newMultiAggregator(childTd);
+            partials[i].setMemoryBudget(budget / partials.length);
+        }
+        MultiAggregator merged = newMultiAggregator(childTd);
+        merged.setMemoryBudget(budget);
+        try {
+            scan.consume((worker, batch) -> {
+                partials[worker].mergeBatch(batch);
+                return true;
+            });
+            for (MultiAggregator partial : partials) {
+                merged.merge(partial);
+            }
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            merged.close();
+            throw e;
+        } finally {
+            for (MultiAggregator partial : partials) {
+                partial.close();
+            }
+        }
+        return merged;
+    }
+
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         // some code goes here
         super.open();
-        this.child.open();
-        IntegerAggregator agg = new IntegerAggregator(this.gfield,Type.INT_TYPE,this.afield,this.aop);
-        if (this.child.getTupleDesc().getFieldType(this.afield) == Type.INT_TYPE) {
-            while (this.child.hasNext()) {
-                Tuple tup = this.child.next();
-                agg.mergeTupleIntoGroup(tup);
+        TupleDesc childTd = this.child.getTupleDesc();
+        if (this.child instanceof ParallelSeqScan) {
+            // the scan's workers run without opening it
+            agg = aggregateParallel((ParallelSeqScan) this.child, childTd);
+        } else {
+            this.child.open();
+            Type gtype = this.gfield == NO_GROUPING ? null : childTd.getFieldType(this.gfield);
+            if (this.gfields.length > 1 || this.afields.length > 1) {
+                agg = newMultiAggregator(childTd);
+            } else if (childTd.getFieldType(this.afield) == Type.INT_TYPE) {
+                agg = new IntegerAggregator(this.gfield, gtype, this.afield, this.aop);
+            } else {
+                agg = new StringAggregator(this.gfield, gtype, this.afield, this.aop);
+            }
+            if (this.memoryBudget >= 0) {
+                agg.setMemoryBudget(this.memoryBudget);
+            }
+            if (this.child instanceof BatchOpIterator) {
+                // let the child hand over whole batches
+                BatchOpIterator batches = (BatchOpIterator) this.child;
+                TupleBatch batch;
+                while ((batch = batches.nextBatch()) != null) {
+                    agg.mergeBatch(batch);
+                }
+            } else {
+                while (this.child.hasNext()) {
+                    agg.mergeTupleIntoGroup(this.child.next());
+                }
             }
-
-            this.aggIterator = agg.iterator();
-            this.aggIterator.open();
-
-
         }
+        this.aggIterator = agg.iterator();
+        this.aggIterator.open();
     }
 
     /**
@@ -129,59 +258,26 @@ public class Aggregate extends Operator {
      * field is the field by which we are grouping, and the second field is the
      * result of computing the aggregate. If there is no group by field, then
      * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * aggregate. With several group by fields or aggregates, the group by
+     * fields come first, followed by the aggregates in order. Should return
+     * null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.aggIterator.hasNext()) {
-            Tuple retTup  = this.aggIterator.next();
-
-
-            Type[] types = new Type[2];
-            String[] names = new String[2];
-
-            gfield = this.gfield;
-            if (gfield == NO_GROUPING) {
-//                Field f0 = retTup.getField(gfield);
-//                types[0] = f0.getType();
-//                names[0] = "group by "+gfield;
-                types = new Type[1];
-                names = new String[1];
-                Field f1 = retTup.getField(0);
-                types[0] = f1.getType();
-                names[0] = this.aop+" "+this.afield;
-
-                Tuple  tp= new Tuple(new TupleDesc(types,names));
-//                tp.setField(gfield,f0);
-                tp.setField(0,f1);
-                return tp;
-            }else {
-                Field f0 = retTup.getField(gfield);
-                types[0] = f0.getType();
-                names[0] = "group by "+gfield;
-
-                Field f1 = retTup.getField(this.afield);
-                types[1] = f1.getType();
-                names[1] = this.aop+" "+this.afield;
-
-                Tuple  tp= new Tuple(new TupleDesc(types,names));
-                tp.setField(gfield,f0);
-                tp.setField(this.afield,f1);
-                return tp;
-            }
-
+        if (!this.aggIterator.hasNext()) {
+            return null;
         }
-
-
-        return null;
+        Tuple agg = this.aggIterator.next();
+        TupleDesc td = this.getTupleDesc();
+        Tuple tp = new Tuple(td);
+        for (int i = 0; i < td.numFields(); i++) {
+            tp.setField(i, agg.getField(i));
+        }
+        return tp;
     }
 
-
-
-
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.child.rewind();
         this.aggIterator.rewind();
     }
 
@@ -189,7 +285,7 @@ public class Aggregate extends Operator {
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. SUM_COUNT adds a count column after its sum.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -198,25 +294,55 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return this.child.getTupleDesc();
+        if (this.td == null) {
+            TupleDesc childTd = this.child.getTupleDesc();
+            List<Type> types = new ArrayList<>();
+            List<String> names = new ArrayList<>();
+            for (int g : this.gfields) {
+                types.add(childTd.getFieldType(g));
+                names.add(childTd.getFieldName(g));
+            }
+            for (int i = 0; i < this.afields.length; i++) {
+                types.add(Type.INT_TYPE);
+                names.add(aggregateFieldName(i));
+                if (this.aops[i] == Aggregator.Op.SUM_COUNT) {
+                    types.add(Type.INT_TYPE);
+                    names.add(nameOfAggregatorOp(Aggregator.Op.COUNT) + "("
+                            + childTd.getFieldName(this.afields[i]) + ")");
+                }
+            }
+            this.td = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+        }
+        return this.td;
     }
 
     public void close() {
         // some code goes here
+        super.close();
         this.child.close();
-        this.aggIterator.close();
+        if (this.aggIterator != null) {
+            this.aggIterator.close();
+            this.aggIterator = null;
+        }
+        if (this.agg != null) {
+            this.agg.close();
+            this.agg = null;
+        }
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return this.children;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
-        this.children = children;
+        if (this.child != children[0]) {
+            this.child = children[0];
+            this.td = null;
+        }
     }
 
 }
@@ -1,6 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -77,12 +79,40 @@ public interface Aggregator extends Serializable {
      *
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
-    void mergeTupleIntoGroup(Tuple tup);
+    void mergeTupleIntoGroup(Tuple tup) throws DbException;
+
+    /**
+     * Merge every tuple of a batch into the aggregate. Aggregators that can
+     * work on the batch's columns directly should override this.
+     *
+     * @param batch the tuples to merge
+     */
+    default void mergeBatch(TupleBatch batch) throws DbException {
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(i));
+        }
+    }
 
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
      */
     OpIterator iterator();
-    
+
+    /**
+     * Set how many bytes of memory the groups may take before they are
+     * spilled to disk. Aggregators that keep everything in memory ignore it.
+     *
+     * @param bytes the memory budget
+     */
+    default void setMemoryBudget(long bytes) {
+    }
+
+    /**
+     * Release what the aggregator holds, such as spill files. Its
+     * iterators must not be used afterwards.
+     */
+    default void close() {
+    }
+
 }
@@ -0,0 +1,25 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is an OpIterator that can also produce its output a
+ * {@link TupleBatch} at a time. Operators that implement it pass whole
+ * batches up the plan; any other operator is fed row by row. A consumer
+ * should use either next/hasNext or nextBatch between an open and a close
+ * or rewind, not both.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of tuples. The batch is never empty, and it is
+     * only valid until the next call to nextBatch, rewind or close; the
+     * caller may change it in place.
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
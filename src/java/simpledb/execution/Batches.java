@@ -0,0 +1,34 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Helpers for operators that consume their children a batch at a time.
+ */
+final class Batches {
+
+    private Batches() {
+    }
+
+    /**
+     * Returns the next batch of child: its own if it is a BatchOpIterator,
+     * otherwise up to a batch worth of its rows gathered into buffer.
+     *
+     * @param child the operator to read from
+     * @param buffer the batch to gather rows into; its schema must be child's
+     * @return the next batch, or null if child has no more tuples
+     */
+    static TupleBatch next(OpIterator child, TupleBatch buffer)
+            throws DbException, TransactionAbortedException {
+        if (child instanceof BatchOpIterator) {
+            return ((BatchOpIterator) child).nextBatch();
+        }
+        buffer.clear();
+        while (!buffer.isFull() && child.hasNext()) {
+            buffer.add(child.next());
+        }
+        return buffer.size() == 0 ? null : buffer;
+    }
+}
@@ -20,6 +20,12 @@ public class Delete extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    private static final TupleDesc COUNT_TD = new TupleDesc(new Type[]{Type.INT_TYPE});
+
+    private final TransactionId tid;
+    private OpIterator child;
+    private boolean done = false;
+
     /**
      * Constructor specifying the transaction that this delete belongs to as
      * well as the child to read from.
@@ -31,23 +37,32 @@ public class Delete extends Operator {
      */
     public Delete(TransactionId t, OpIterator child) {
         // some code goes here
+        this.tid = t;
+        this.child = child;
     }
 
     public TupleDesc getTupleDesc() {
         // some code goes here
-        return null;
+        return COUNT_TD;
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.open();
+        done = false;
+        super.open();
     }
 
     public void close() {
         // some code goes here
+        super.close();
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
+        child.rewind();
+        done = false;
     }
 
     /**
@@ -61,18 +76,34 @@ public class Delete extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return null;
+        if (done) {
+            return null;
+        }
+        done = true;
+        int count = 0;
+        while (child.hasNext()) {
+            try {
+                Database.getBufferPool().deleteTuple(tid, child.next());
+            } catch (IOException e) {
+                throw new DbException("could not delete tuple: " + e.getMessage());
+            }
+            count++;
+        }
+        Tuple result = new Tuple(COUNT_TD);
+        result.setField(0, new IntField(count));
+        return result;
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
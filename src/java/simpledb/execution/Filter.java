@@ -4,6 +4,7 @@ import simpledb.storage.Field;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -11,12 +12,13 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private Predicate p;
     private OpIterator child;
     private OpIterator[] children;
+    private transient TupleBatch buffer;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -84,6 +86,25 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child with the tuples that fail the
+     * predicate removed from it in place. Batches that end up empty are
+     * skipped.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (this.buffer == null) {
+            this.buffer = new TupleBatch(this.child.getTupleDesc());
+        }
+        TupleBatch batch;
+        while ((batch = Batches.next(this.child, this.buffer)) != null) {
+            batch.filter(this.p.getField(), this.p.getOp(), this.p.getOperand());
+            if (batch.size() > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
@@ -0,0 +1,466 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * GroupTable holds the running count, sum, min and max of every group of a
+ * hash aggregation, once for each aggregate the groups are computed for. A
+ * group is identified by its group value, by a List of them if the
+ * grouping key has several fields, or by null if there is no grouping.
+ * When the groups take more memory than the budget, they are written out
+ * as partial aggregates to one of {@link #FANOUT} spill files chosen by
+ * the hash of the group value, and aggregation carries on with an empty
+ * table. A group may thus end up with several partial aggregates in its
+ * partition; {@link #results} merges each partition on its own, so only
+ * the groups of one partition have to fit in memory at a time. A partition
+ * that still does not fit is split again with the next depth's hash
+ * function.
+ * <p>
+ * Once the results of a spilled table have been read, no more values can
+ * be added to it.
+ */
+final class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // indices into the state of a group
+    static final int COUNT = 0;
+    static final int SUM = 1;
+    static final int MIN = 2;
+    static final int MAX = 3;
+    /** Number of longs of state per aggregate; aggregate i starts at i * STATE_SIZE. */
+    static final int STATE_SIZE = 4;
+
+    /** Number of partitions the groups are split into once they do not fit in memory. */
+    static final int FANOUT = 16;
+
+    /** How many times a partition is split again before it is merged regardless of the budget. */
+    static final int MAX_DEPTH = 8;
+
+    /** Estimated bytes a group takes in memory besides its group value: map entry, key and state. */
+    private static final int GROUP_OVERHEAD = 112;
+
+    private final Type[] keyTypes;
+    private final int aggregates;
+    private final TupleDesc partialTd;
+    private long budget;
+    private LinkedHashMap<Object, long[]> groups = new LinkedHashMap<>();
+
+    // the top level partitions, null until the table first spills, and
+    // whether they are complete because results were read
+    private transient SpillFile[] parts;
+    private boolean complete = false;
+    private long spilledGroups = 0;
+
+    /**
+     * @param keyType the type of the group value, or null if there is no
+     *   grouping and all values go to the group with key null
+     */
+    GroupTable(Type keyType) {
+        this(keyType == null ? new Type[0] : new Type[]{keyType}, 1);
+    }
+
+    /**
+     * @param keyTypes the types of the fields of the grouping key, empty if
+     *   there is no grouping
+     * @param aggregates the number of aggregates kept for each group
+     */
+    GroupTable(Type[] keyTypes, int aggregates) {
+        this.keyTypes = keyTypes.clone();
+        this.aggregates = aggregates;
+        this.budget = Database.getBufferPool().getOperatorMemory();
+        // a partial aggregate: group values, then for each aggregate count
+        // and sum as two ints each, then min and max
+        List<Type> types = new ArrayList<>(Arrays.asList(keyTypes));
+        for (int i = 0; i < 6 * aggregates; i++) {
+            types.add(Type.INT_TYPE);
+        }
+        this.partialTd = new TupleDesc(types.toArray(new Type[0]));
+    }
+
+    void setMemoryBudget(long bytes) {
+        this.budget = bytes;
+    }
+
+    /** @return the number of partial aggregates written to spill files so far */
+    long getSpilledGroups() {
+        return spilledGroups;
+    }
+
+    /** @return the number of groups that fit in memory, at least one */
+    private int maxGroups() {
+        long groupBytes = GROUP_OVERHEAD + 8L * STATE_SIZE * (aggregates - 1);
+        for (Type t : keyTypes) {
+            groupBytes += t.getLen();
+        }
+        if (keyTypes.length > 1) {
+            groupBytes += 16 + 8 * keyTypes.length;
+        }
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / groupBytes));
+    }
+
+    /** @return the state of a group that has not seen any value */
+    private long[] newState() {
+        long[] state = new long[STATE_SIZE * aggregates];
+        for (int i = 0; i < state.length; i += STATE_SIZE) {
+            state[i + MIN] = Integer.MAX_VALUE;
+            state[i + MAX] = Integer.MIN_VALUE;
+        }
+        return state;
+    }
+
+    /** Add one value to the state of a group with a single aggregate. */
+    static void add(long[] state, int value) {
+        add(state, 0, value);
+    }
+
+    /** Add one value to the aggregate of a group's state that starts at offset. */
+    static void add(long[] state, int offset, int value) {
+        state[offset + COUNT]++;
+        state[offset + SUM] += value;
+        if (value < state[offset + MIN]) state[offset + MIN] = value;
+        if (value > state[offset + MAX]) state[offset + MAX] = value;
+    }
+
+    /** Merge the partial aggregates from into the state of a group. */
+    static void combine(long[] state, long[] from) {
+        for (int i = 0; i < state.length; i += STATE_SIZE) {
+            state[i + COUNT] += from[i + COUNT];
+            state[i + SUM] += from[i + SUM];
+            state[i + MIN] = Math.min(state[i + MIN], from[i + MIN]);
+            state[i + MAX] = Math.max(state[i + MAX], from[i + MAX]);
+        }
+    }
+
+    /**
+     * @return the value of an aggregate over a group, given the group's
+     *   state and the offset of the aggregate in it; for SUM_COUNT this is
+     *   the sum
+     */
+    static int result(Aggregator.Op what, long[] state, int offset) {
+        switch (what) {
+            case MIN:
+                return (int) state[offset + MIN];
+            case MAX:
+                return (int) state[offset + MAX];
+            case SUM:
+            case SUM_COUNT:
+                return (int) state[offset + SUM];
+            case AVG:
+            case SC_AVG:
+                return (int) (state[offset + SUM] / state[offset + COUNT]);
+            case COUNT:
+                return (int) state[offset + COUNT];
+            default:
+                throw new UnsupportedOperationException("unsupported aggregate " + what);
+        }
+    }
+
+    /**
+     * @return the state of the group with the given key, created if needed;
+     *   the groups in memory are spilled first if there is no room for a
+     *   new one, so the state returned is only valid until the next call
+     */
+    long[] group(Object key) throws DbException {
+        long[] state = groups.get(key);
+        if (state == null) {
+            if (complete) {
+                throw new IllegalStateException("cannot add groups to a spilled table after reading its results");
+            }
+            if (groups.size() >= maxGroups()) {
+                if (parts == null) {
+                    parts = newPartitions();
+                }
+                spill(groups, parts, 0);
+                groups.clear();
+            }
+            state = newState();
+            groups.put(key, state);
+        }
+        return state;
+    }
+
+    /**
+     * Merge the groups of another table with the same layout into this one,
+     * e.g. the partial aggregates computed by one worker of a parallel
+     * aggregation. Reads the results of other, which is complete afterwards.
+     */
+    void mergeFrom(GroupTable other) throws DbException {
+        Results r = other.results();
+        try {
+            while (r.hasNext()) {
+                Map.Entry<Object, long[]> e = r.next();
+                combine(group(e.getKey()), e.getValue());
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    private SpillFile[] newPartitions() throws DbException {
+        SpillFile[] files = new SpillFile[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            files[i] = new SpillFile(partialTd);
+        }
+        return files;
+    }
+
+    private void spill(Map<Object, long[]> from, SpillFile[] to, int depth) throws DbException {
+        for (Map.Entry<Object, long[]> e : from.entrySet()) {
+            to[HashEquiJoin.partition(e.getKey(), depth)].add(toPartial(e.getKey(), e.getValue()));
+            spilledGroups++;
+        }
+    }
+
+    private Tuple toPartial(Object key, long[] state) {
+        Tuple t = new Tuple(partialTd);
+        int i = 0;
+        if (keyTypes.length == 1) {
+            t.setField(i++, (Field) key);
+        } else if (keyTypes.length > 1) {
+            for (Object f : (List<?>) key) {
+                t.setField(i++, (Field) f);
+            }
+        }
+        for (int a = 0; a < state.length; a += STATE_SIZE) {
+            t.setField(i++, new IntField((int) (state[a + COUNT] >>> 32)));
+            t.setField(i++, new IntField((int) state[a + COUNT]));
+            t.setField(i++, new IntField((int) (state[a + SUM] >>> 32)));
+            t.setField(i++, new IntField((int) state[a + SUM]));
+            t.setField(i++, new IntField((int) state[a + MIN]));
+            t.setField(i++, new IntField((int) state[a + MAX]));
+        }
+        return t;
+    }
+
+    private Object keyOf(Tuple partial) {
+        if (keyTypes.length == 1) {
+            return partial.getField(0);
+        }
+        Field[] key = new Field[keyTypes.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = partial.getField(i);
+        }
+        return Arrays.asList(key);
+    }
+
+    private long[] stateOf(Tuple partial) {
+        int i = keyTypes.length;
+        long[] state = new long[STATE_SIZE * aggregates];
+        for (int a = 0; a < state.length; a += STATE_SIZE, i += 6) {
+            state[a + COUNT] = ((long) intAt(partial, i) << 32) | (intAt(partial, i + 1) & 0xFFFFFFFFL);
+            state[a + SUM] = ((long) intAt(partial, i + 2) << 32) | (intAt(partial, i + 3) & 0xFFFFFFFFL);
+            state[a + MIN] = intAt(partial, i + 4);
+            state[a + MAX] = intAt(partial, i + 5);
+        }
+        return state;
+    }
+
+    private static int intAt(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    /**
+     * @return an iterator over the final state of every group. For a table
+     *   that has spilled, the groups still in memory are spilled as well,
+     *   and the table is complete afterwards.
+     */
+    Results results() throws DbException {
+        if (parts == null) {
+            return new Results(groups.entrySet().iterator(), new ArrayDeque<>());
+        }
+        if (!complete) {
+            spill(groups, parts, 0);
+            groups.clear();
+            for (SpillFile f : parts) {
+                f.finish();
+            }
+            complete = true;
+        }
+        Deque<Pending> pending = new ArrayDeque<>();
+        for (SpillFile f : parts) {
+            if (f.numTuples() > 0) {
+                pending.add(new Pending(f, 0, false));
+            }
+        }
+        return new Results(Collections.emptyIterator(), pending);
+    }
+
+    /** Turns the final state of a group into an output tuple. */
+    interface ResultMapper {
+        Tuple toTuple(Object key, long[] state);
+    }
+
+    /**
+     * @return an iterator over one output tuple per group; the groups are
+     *   read with {@link #results} each time it is opened or rewound
+     */
+    OpIterator iterator(TupleDesc td, ResultMapper mapper) {
+        return new Operator() {
+            private static final long serialVersionUID = 1L;
+            private Results results;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                results = results();
+                super.open();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                if (results != null) {
+                    results.close();
+                    results = null;
+                }
+            }
+
+            @Override
+            public void rewind() throws DbException {
+                results.close();
+                results = results();
+            }
+
+            @Override
+            protected Tuple fetchNext() throws DbException {
+                if (results == null || !results.hasNext()) {
+                    return null;
+                }
+                Map.Entry<Object, long[]> e = results.next();
+                return mapper.toTuple(e.getKey(), e.getValue());
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return td;
+            }
+
+            @Override
+            public OpIterator[] getChildren() {
+                return new OpIterator[0];
+            }
+
+            @Override
+            public void setChildren(OpIterator[] children) {
+            }
+        };
+    }
+
+    /** Delete the spill files and drop all groups. */
+    void clear() {
+        if (parts != null) {
+            for (SpillFile f : parts) {
+                f.delete();
+            }
+            parts = null;
+        }
+        groups = new LinkedHashMap<>();
+        complete = false;
+    }
+
+    /** A partition whose partial aggregates remain to be merged. */
+    private static class Pending {
+        final SpillFile file;
+        final int depth;
+        final boolean temporary;
+
+        Pending(SpillFile file, int depth, boolean temporary) {
+            this.file = file;
+            this.depth = depth;
+            this.temporary = temporary;
+        }
+    }
+
+    /** Iterates over the groups of a table, merging one partition at a time. */
+    final class Results {
+        private Iterator<Map.Entry<Object, long[]>> current;
+        private final Deque<Pending> pending;
+
+        private Results(Iterator<Map.Entry<Object, long[]>> current, Deque<Pending> pending) {
+            this.current = current;
+            this.pending = pending;
+        }
+
+        boolean hasNext() throws DbException {
+            while (!current.hasNext() && !pending.isEmpty()) {
+                current = merge(pending.poll());
+            }
+            return current.hasNext();
+        }
+
+        Map.Entry<Object, long[]> next() throws DbException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        /** Drop the partitions that were split while reading. */
+        void close() {
+            for (Pending p : pending) {
+                if (p.temporary) {
+                    p.file.delete();
+                }
+            }
+            pending.clear();
+            current = Collections.emptyIterator();
+        }
+
+        /**
+         * Merge the partial aggregates of a partition. If its groups do not
+         * fit in memory, split it again and queue the parts instead.
+         */
+        private Iterator<Map.Entry<Object, long[]>> merge(Pending p) throws DbException {
+            LinkedHashMap<Object, long[]> merged = new LinkedHashMap<>();
+            SpillFile[] split = null;
+            // past MAX_DEPTH the groups are merged in memory whatever it takes
+            int limit = p.depth >= MAX_DEPTH ? Integer.MAX_VALUE : maxGroups();
+            try (SpillFile.Reader r = p.file.iterator()) {
+                while (r.hasNext()) {
+                    Tuple t = r.next();
+                    Object key = keyOf(t);
+                    long[] state = merged.get(key);
+                    if (state == null) {
+                        if (merged.size() >= limit) {
+                            if (split == null) {
+                                split = newPartitions();
+                            }
+                            spill(merged, split, p.depth + 1);
+                            merged.clear();
+                        }
+                        merged.put(key, stateOf(t));
+                    } else {
+                        combine(state, stateOf(t));
+                    }
+                }
+            }
+            if (p.temporary) {
+                p.file.delete();
+            }
+            if (split == null) {
+                return merged.entrySet().iterator();
+            }
+            spill(merged, split, p.depth + 1);
+            for (SpillFile f : split) {
+                f.finish();
+                if (f.numTuples() > 0) {
+                    pending.push(new Pending(f, p.depth + 1, true));
+                } else {
+                    f.delete();
+                }
+            }
+            return Collections.emptyIterator();
+        }
+    }
+}
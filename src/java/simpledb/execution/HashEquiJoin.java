@@ -1,5 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.SpillFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
@@ -55,28 +58,340 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
+    /** Number of partitions an input is split into once it does not fit in memory. */
+    static final int FANOUT = 16;
+
+    /**
+     * How many times a partition is split again before it is joined a chunk
+     * at a time instead, e.g. because all of its tuples share one key.
+     */
+    static final int MAX_DEPTH = 4;
+
+    /** A pair of spilled partitions of the two inputs that join only with each other. */
+    private static class Partition {
+        final SpillFile left;
+        final SpillFile right;
+        final int depth;
+
+        Partition(SpillFile left, SpillFile right, int depth) {
+            this.left = left;
+            this.right = right;
+            this.depth = depth;
+        }
+    }
+
     final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
+    private long memoryBudget = 0;
+    transient private long mapBytes = 0;
+    transient private long spilledTuples = 0;
+
+    // while child2 is read: the spilled partitions of both inputs, null if
+    // child1 fit in memory, and whether partition 0 of child1 is still in map
+    transient private SpillFile[] leftParts = null;
+    transient private SpillFile[] rightParts = null;
+    transient private boolean memoryPartition = false;
+    transient private boolean probingChild2 = false;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    // afterwards: the partitions left to join, the one being joined, and
+    // the readers over its inputs
+    transient private Deque<Partition> pending = null;
+    transient private Partition current = null;
+    transient private SpillFile.Reader probe = null;
+    transient private SpillFile.Reader chunk = null;
+
+    /**
+     * Limit the memory the join's hash table may use, instead of the
+     * default of {@link BufferPool#getOperatorMemory()}. Takes effect
+     * on the next open or rewind.
+     *
+     * @param bytes the budget in bytes, or 0 for the default
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /** @return the number of tuples written to spill files since the last open */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    private long budget() {
+        long bytes = memoryBudget > 0 ? memoryBudget : Database.getBufferPool().getOperatorMemory();
+        return Math.max(bytes, child1.getTupleDesc().getSize());
+    }
+
+    /**
+     * @return the partition of the given join key when splitting for the
+     *   given depth; each depth uses a different hash function, so that a
+     *   partition split again spreads over all FANOUT partitions
+     */
+    static int partition(Object key, int depth) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, FANOUT);
+    }
+
+    private void addToMap(Tuple t) {
+        map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+        mapBytes += child1.getTupleDesc().getSize();
+    }
+
+    private void spill(SpillFile f, Tuple t) throws DbException {
+        f.add(t);
+        spilledTuples++;
+    }
+
+    private static SpillFile[] newPartitions(TupleDesc td) throws DbException {
+        SpillFile[] parts = new SpillFile[FANOUT];
+        for (int i = 0; i < FANOUT; i++) {
+            parts[i] = new SpillFile(td);
+        }
+        return parts;
+    }
+
+    /**
+     * Read child1 into the hash table. If it does not fit, switch to a
+     * hybrid hash join: partition 0 of child1 stays in memory while it
+     * fits, and all other tuples are written to one spill file per
+     * partition.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        long budget = budget();
         map.clear();
+        mapBytes = 0;
+        spilledTuples = 0;
+        pending = new ArrayDeque<>();
         while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            Tuple t = child1.next();
+            if (leftParts == null) {
+                addToMap(t);
+                if (mapBytes > budget) {
+                    startPartitioning(budget);
+                }
+                continue;
+            }
+            int p = partition(t.getField(pred.getField1()), 0);
+            if (p == 0 && memoryPartition) {
+                addToMap(t);
+                if (mapBytes > budget) {
+                    spillMemoryPartition();
+                }
+            } else {
+                spill(leftParts[p], t);
+            }
+        }
+        probingChild2 = true;
+    }
+
+    private void startPartitioning(long budget) throws DbException {
+        leftParts = newPartitions(child1.getTupleDesc());
+        rightParts = newPartitions(child2.getTupleDesc());
+        memoryPartition = true;
+        Iterator<Map.Entry<Object, List<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, List<Tuple>> e = it.next();
+            int p = partition(e.getKey(), 0);
+            if (p != 0) {
+                for (Tuple t : e.getValue()) {
+                    spill(leftParts[p], t);
+                }
+                mapBytes -= (long) e.getValue().size() * child1.getTupleDesc().getSize();
+                it.remove();
+            }
+        }
+        if (mapBytes > budget) {
+            spillMemoryPartition();
         }
-        return cnt > 0;
+    }
 
+    private void spillMemoryPartition() throws DbException {
+        for (List<Tuple> l : map.values()) {
+            for (Tuple t : l) {
+                spill(leftParts[0], t);
+            }
+        }
+        map.clear();
+        mapBytes = 0;
+        memoryPartition = false;
+    }
+
+    /** Queue a pair of partitions for joining, or drop it if it cannot produce any tuples. */
+    private void enqueue(SpillFile left, SpillFile right, int depth) throws DbException {
+        if (left.numTuples() == 0 || right.numTuples() == 0) {
+            left.delete();
+            right.delete();
+            return;
+        }
+        left.finish();
+        right.finish();
+        pending.push(new Partition(left, right, depth));
+    }
+
+    /** Split both inputs of a partition that is too large with the next depth's hash function. */
+    private void repartition(Partition p) throws DbException {
+        int depth = p.depth + 1;
+        SpillFile[] left = newPartitions(p.left.getTupleDesc());
+        SpillFile[] right = newPartitions(p.right.getTupleDesc());
+        try (SpillFile.Reader r = p.left.iterator()) {
+            while (r.hasNext()) {
+                Tuple t = r.next();
+                spill(left[partition(t.getField(pred.getField1()), depth)], t);
+            }
+        }
+        try (SpillFile.Reader r = p.right.iterator()) {
+            while (r.hasNext()) {
+                Tuple t = r.next();
+                spill(right[partition(t.getField(pred.getField2()), depth)], t);
+            }
+        }
+        p.left.delete();
+        p.right.delete();
+        for (int i = 0; i < FANOUT; i++) {
+            // a partition that did not split at all will not split at any depth
+            boolean unsplit = left[i].numTuples() == p.left.numTuples();
+            enqueue(left[i], right[i], unsplit ? MAX_DEPTH : depth);
+        }
+    }
+
+    /** Load the next budget's worth of the current partition's child1 tuples. */
+    private void loadChunk(long budget) throws DbException {
+        map.clear();
+        mapBytes = 0;
+        while (chunk.hasNext() && mapBytes < budget) {
+            addToMap(chunk.next());
+        }
+    }
+
+    private void closeCurrent() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        if (chunk != null) {
+            chunk.close();
+            chunk = null;
+        }
+        if (current != null) {
+            current.left.delete();
+            current.right.delete();
+            current = null;
+        }
+        map.clear();
+        mapBytes = 0;
+        listIt = null;
+    }
+
+    /**
+     * Move on to the next set of tuples to probe the hash table with, once
+     * the current one is exhausted.
+     *
+     * @return false if the join is done
+     */
+    private boolean nextPartition() throws DbException {
+        long budget = budget();
+        if (probingChild2) {
+            probingChild2 = false;
+            map.clear();
+            listIt = null;
+            if (leftParts == null) {
+                return false;
+            }
+            for (int i = 0; i < FANOUT; i++) {
+                if (i == 0 && memoryPartition) {
+                    // already joined while child2 was read
+                    leftParts[i].delete();
+                    rightParts[i].delete();
+                } else {
+                    enqueue(leftParts[i], rightParts[i], 0);
+                }
+            }
+            leftParts = null;
+            rightParts = null;
+        } else if (chunk != null && chunk.hasNext()) {
+            // the next chunk of a partition that is joined a chunk at a time
+            loadChunk(budget);
+            probe.close();
+            probe = current.right.iterator();
+            return true;
+        }
+
+        closeCurrent();
+        while (!pending.isEmpty()) {
+            Partition p = pending.pop();
+            long bytes = p.left.numTuples() * child1.getTupleDesc().getSize();
+            if (bytes > budget && p.depth < MAX_DEPTH) {
+                repartition(p);
+                continue;
+            }
+            current = p;
+            chunk = p.left.iterator();
+            loadChunk(budget);
+            probe = p.right.iterator();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the next tuple to probe the hash table with, or null if the
+     *   current probe input is exhausted. While child2 is read, tuples of
+     *   partitions that are not in memory are spilled instead.
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (probingChild2) {
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                if (rightParts == null) {
+                    return t;
+                }
+                int p = partition(t.getField(pred.getField2()), 0);
+                if (p == 0 && memoryPartition) {
+                    return t;
+                }
+                spill(rightParts[p], t);
+            }
+            return null;
+        }
+        if (probe != null && probe.hasNext()) {
+            return probe.next();
+        }
+        return null;
+    }
+
+    /** Delete all spill files and forget the join's progress. */
+    private void cleanup() {
+        closeCurrent();
+        for (SpillFile[] parts : Arrays.asList(leftParts, rightParts)) {
+            if (parts != null) {
+                for (SpillFile f : parts) {
+                    f.delete();
+                }
+            }
+        }
+        leftParts = null;
+        rightParts = null;
+        memoryPartition = false;
+        probingChild2 = false;
+        if (pending != null) {
+            for (Partition p : pending) {
+                p.left.delete();
+                p.right.delete();
+            }
+            pending.clear();
+        }
+        this.t1 = null;
+        this.t2 = null;
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        build();
         super.open();
     }
 
@@ -84,15 +399,14 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
-        this.t2=null;
-        this.listIt=null;
-        this.map.clear();
+        cleanup();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        cleanup();
         child1.rewind();
         child2.rewind();
+        build();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -111,53 +425,40 @@ public class HashEquiJoin extends Operator {
      * <p>
      * For example, if one tuple is {1,2,3} and the other tuple is {1,5,6},
      * joined on equality of the first column, then this returns {1,2,3,1,5,6}.
-     * 
+     * <p>
+     * If child1 does not fit in the memory budget, both children are
+     * partitioned by hash into spill files, and each pair of partitions is
+     * joined on its own, after partition 0 which is joined while child2 is
+     * read.
+     *
      * @return The next matching tuple.
      * @see JoinPredicate#filter
      */
     private Tuple processList() {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        // combined tuple: the fields of t1 followed by those of t2
+        return new Tuple(comboTD, t1, t2);
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
-
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            t2 = nextProbe();
+            if (t2 != null) {
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                List<Tuple> l = map.get(t2.getField(pred.getField2()));
+                listIt = l == null ? null : l.iterator();
                 continue;
-            listIt = l.iterator();
-
-            return processList();
-
+            }
+            if (!nextPartition()) {
+                return null;
+            }
         }
-
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
-
-        return null;
     }
 
     @Override
@@ -3,7 +3,6 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.*;
-import simpledb.transaction.TransactionAbortedException;
 
 import java.util.*;
 
@@ -18,12 +17,13 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private HashMap<Integer,Integer> count;
-    private HashMap<Integer,ArrayList<Integer>> historyData;
+
+    /** Running count, sum, min and max of each group; the key is null without grouping. */
+    private final GroupTable groups;
 
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -33,134 +33,139 @@ public class IntegerAggregator implements Aggregator {
      * @param afield
      *            the 0-based index of the aggregate field in the tuple
      * @param what
-     *            the aggregation operator
+     *            the aggregation operator. SUM_COUNT outputs the sum and
+     *            the count of each group; SC_AVG averages tuples that hold
+     *            a sum in afield and a count in afield + 1, such as the
+     *            output of SUM_COUNT.
      */
-    private HashMap<Integer,Tuple> tupData;
-
-    private HashMap<Integer,Integer> valueMap;
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
         this.afield = afield;
         this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
+        this.gbfieldtype = gbfield == NO_GROUPING ? null : gbfieldtype;
         this.what = what;
-        this.valueMap = new HashMap<>();
-        this.tupData = new HashMap<>();
-        this.count = new HashMap<>();
-        this.historyData = new HashMap<>();
+        this.groups = new GroupTable(this.gbfieldtype);
+    }
+
+    @Override
+    public void setMemoryBudget(long bytes) {
+        groups.setMemoryBudget(bytes);
+    }
+
+    /** @return the number of partial aggregates spilled to disk so far */
+    public long getSpilledGroups() {
+        return groups.getSpilledGroups();
+    }
+
+    private long[] group(Field key) throws DbException {
+        return groups.group(key);
+    }
+
+    private static void merge(long[] state, int value) {
+        GroupTable.add(state, value);
+    }
+
+    /** Merge a partial sum and count, as produced by SUM_COUNT, into a group. */
+    private static void mergeSumCount(long[] state, int sum, int count) {
+        state[GroupTable.SUM] += sum;
+        state[GroupTable.COUNT] += count;
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        int gbVal = NO_GROUPING;
-        int gbfield = this.gbfield;
-        if (this.gbfield == NO_GROUPING) {
-            this.gbfieldtype = null;
-        }else {
-            gbVal = ((IntField)tup.getField(gbfield)).getValue();
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        // some code goes here
+        Field key = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        int value = ((IntField) tup.getField(afield)).getValue();
+        if (what == Op.SC_AVG) {
+            mergeSumCount(group(key), value, ((IntField) tup.getField(afield + 1)).getValue());
+        } else {
+            merge(group(key), value);
         }
+    }
 
-        int cnt = this.count.getOrDefault(gbVal,0);
-        int aggVal = ((IntField)tup.getField(this.afield)).getValue();
-        int newAggVal= 0;
-
-        ArrayList<Integer> list = this.historyData.getOrDefault(gbVal,new ArrayList<>());
-        list.add(aggVal);
-        this.historyData.put(gbVal,list);
-
-
-        switch (this.what){
-            case SUM : newAggVal = this.valueMap.getOrDefault(gbVal,0)+aggVal;break;
-            case MIN : newAggVal = Math.min(this.valueMap.getOrDefault(gbVal,Integer.MAX_VALUE),aggVal) ;break;
-            case MAX : newAggVal = Math.max(this.valueMap.getOrDefault(gbVal,Integer.MIN_VALUE),aggVal) ;break;
-            case AVG :
-
-                for (Integer item :list) {
-                    newAggVal+= item;
-                }
-                newAggVal = newAggVal/list.size();
-                break;
-            case COUNT:newAggVal = list.size();break;
+    /**
+     * Merge a batch of tuples, working on its columns directly. A group
+     * lookup is only made when the group value changes from one tuple to
+     * the next.
+     */
+    @Override
+    public void mergeBatch(TupleBatch batch) throws DbException {
+        if (what == Op.SC_AVG) {
+            Aggregator.super.mergeBatch(batch);
+            return;
         }
-
-        this.valueMap.put(gbVal,newAggVal);
-        TupleDesc td = tup.getTupleDesc();
-        Tuple newTup = new Tuple(td);
+        int[] values = batch.getIntColumn(afield);
+        int n = batch.size();
         if (gbfield == NO_GROUPING) {
-            newTup.setField(0, new IntField(newAggVal));
-        }else  {
-            newTup.setField(gbfield, new IntField(gbVal));
-            newTup.setField(this.afield, new IntField(newAggVal));
+            long[] state = group(null);
+            for (int i = 0; i < n; i++) {
+                merge(state, values[i]);
+            }
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            int[] keys = batch.getIntColumn(gbfield);
+            long[] state = null;
+            for (int i = 0; i < n; i++) {
+                if (state == null || keys[i] != keys[i - 1]) {
+                    state = group(batch.getField(gbfield, i));
+                }
+                merge(state, values[i]);
+            }
+        } else {
+            String[] keys = batch.getStringColumn(gbfield);
+            long[] state = null;
+            for (int i = 0; i < n; i++) {
+                if (state == null || !keys[i].equals(keys[i - 1])) {
+                    state = group(batch.getField(gbfield, i));
+                }
+                merge(state, values[i]);
+            }
         }
-
-        this.tupData.put(gbVal,newTup);
-        this.count.put(gbVal,cnt+1);
-
-
     }
 
     /**
-     * Create a OpIterator over group aggregate results.
-     * 
+     * Create a OpIterator over group aggregate results. Groups that were
+     * spilled to disk are merged one partition at a time as the iterator
+     * is read.
+     *
      * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
      *         if using group, or a single (aggregateVal) if no grouping. The
      *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *         the constructor; SUM_COUNT adds the count after the sum.
      */
     public OpIterator iterator() {
         // some code goes here
-        return new IntegerAggregatorOpIterator(tupData) ;
-    }
-
-}
-
-class IntegerAggregatorOpIterator implements OpIterator {
-
-    private HashMap<Integer,Tuple> tupData;
-    private Iterator<Tuple> iterator;
-    public IntegerAggregatorOpIterator(HashMap<Integer,Tuple> data) {
-        this.tupData = data;
-    }
-
-    @Override
-    public void open() throws DbException, TransactionAbortedException {
-
-        iterator = this.tupData.values().iterator();
-    }
-
-    @Override
-    public boolean hasNext() throws DbException, TransactionAbortedException {
-        return iterator.hasNext();
-    }
-
-    @Override
-    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-        if (this.iterator.hasNext()){
-            return this.iterator.next();
+        List<Type> types = new ArrayList<>();
+        if (gbfield != NO_GROUPING) {
+            types.add(gbfieldtype);
         }
-
-        throw  new NoSuchElementException();
-    }
-
-    @Override
-    public void rewind() throws DbException, TransactionAbortedException {
-        close();
-        open();
-    }
-
-    @Override
-    public TupleDesc getTupleDesc() {
-        return null;
+        types.add(Type.INT_TYPE);
+        if (what == Op.SUM_COUNT) {
+            types.add(Type.INT_TYPE);
+        }
+        TupleDesc td = new TupleDesc(types.toArray(new Type[0]));
+        return groups.iterator(td, (key, state) -> {
+            Tuple t = new Tuple(td);
+            int i = 0;
+            if (gbfield != NO_GROUPING) {
+                t.setField(i++, (Field) key);
+            }
+            t.setField(i++, new IntField(GroupTable.result(what, state, 0)));
+            if (what == Op.SUM_COUNT) {
+                t.setField(i, new IntField((int) state[GroupTable.COUNT]));
+            }
+            return t;
+        });
     }
 
     @Override
     public void close() {
-        this.iterator = null;
+        groups.clear();
     }
+
 }
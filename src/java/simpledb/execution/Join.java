@@ -78,6 +78,7 @@ public class Join extends Operator {
 
         ArrayList<Tuple> list = new ArrayList<>();
 
+        TupleDesc td = this.getTupleDesc();
         while (this.child1.hasNext()) {
             Tuple tup1 = this.child1.next();
             while (this.child2.hasNext()) {
@@ -85,15 +86,7 @@ public class Join extends Operator {
 
                 if (this.joinPredicate.filter(tup1, tup2)) {
 
-                    TupleDesc tupleDesc1 = tup1.getTupleDesc();
-                    TupleDesc tupleDesc2 = tup2.getTupleDesc();
-                    Tuple tup = new Tuple(TupleDesc.merge(tupleDesc1, tupleDesc2));
-                    for (int i = 0; i < tupleDesc1.numFields(); i++) {
-                        tup.setField(i,tup1.getField(i));
-                    }
-                    for (int i = 0; i < tupleDesc2.numFields(); i++) {
-                        tup.setField(i+tupleDesc1.numFields(),tup2.getField(i));
-                    }
+                    Tuple tup = new Tuple(td, tup1, tup2);
                     list.add(tup);
                 }
 
@@ -0,0 +1,104 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * LoserTree merges k sorted runs of tuples into one sorted stream. Each
+ * internal node of the tree remembers the run that lost the comparison
+ * there, so replacing the smallest tuple costs exactly log2(k) comparisons
+ * along one leaf-to-root path, instead of the two per level a binary heap
+ * needs. Runs that compare equal are merged in run order, so the merge is
+ * stable.
+ */
+final class LoserTree {
+
+    /** A sorted input of the merge. */
+    interface Run {
+        boolean hasNext();
+
+        Tuple next() throws DbException;
+    }
+
+    private final List<Run> runs;
+    private final Comparator<Tuple> cmp;
+    /** The current tuple of each run, or null if the run is exhausted. */
+    private final Tuple[] heads;
+    /** tree[0] is the winning run, tree[1..k-1] the losers at each node. */
+    private final int[] tree;
+
+    LoserTree(List<Run> runs, Comparator<Tuple> cmp) throws DbException {
+        this.runs = runs;
+        this.cmp = cmp;
+        int k = runs.size();
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++) {
+            heads[i] = runs.get(i).hasNext() ? runs.get(i).next() : null;
+        }
+        tree[0] = k == 0 ? -1 : build(1);
+    }
+
+    /**
+     * Play the matches below the given node; nodes 1..k-1 are internal and
+     * nodes k..2k-1 are the leaves of runs 0..k-1.
+     *
+     * @return the winner below the node
+     */
+    private int build(int node) {
+        int k = heads.length;
+        if (node >= k) {
+            return node - k;
+        }
+        int a = build(2 * node);
+        int b = build(2 * node + 1);
+        if (beats(a, b)) {
+            tree[node] = b;
+            return a;
+        }
+        tree[node] = a;
+        return b;
+    }
+
+    /** @return true if the head of run a comes before the head of run b */
+    private boolean beats(int a, int b) {
+        if (heads[a] == null) {
+            return false;
+        }
+        if (heads[b] == null) {
+            return true;
+        }
+        int c = cmp.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    boolean hasNext() {
+        return tree[0] >= 0 && heads[tree[0]] != null;
+    }
+
+    Tuple next() throws DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int winner = tree[0];
+        Tuple result = heads[winner];
+        Run run = runs.get(winner);
+        heads[winner] = run.hasNext() ? run.next() : null;
+
+        // replay the matches on the path from the winner's leaf to the root
+        int s = winner;
+        for (int node = (winner + heads.length) / 2; node > 0; node /= 2) {
+            if (beats(tree[node], s)) {
+                int loser = s;
+                s = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = s;
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Knows how to compute several aggregates at once over groups of tuples
+ * that share the values of any number of group-by fields. Every aggregate
+ * of a group is kept in the same entry of one hash table, so all of them
+ * are computed in a single pass over the input. IntFields support every
+ * {@link Aggregator.Op}; StringFields only support COUNT.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Type[] afieldtypes;
+    private final Op[] what;
+
+    /** The state of every aggregate of each group, keyed as described in {@link GroupTable}. */
+    private final GroupTable groups;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indices of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based index in the tuple of the field of each aggregate
+     * @param afieldtypes
+     *            the type of the field of each aggregate
+     * @param what
+     *            the aggregation operator of each aggregate
+     * @throws IllegalArgumentException
+     *            if the arrays do not match up, or an aggregate over a
+     *            StringField is not a COUNT
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields, Type[] afieldtypes, Op[] what) {
+        if (gbfields.length != gbfieldtypes.length || afields.length != afieldtypes.length
+                || afields.length != what.length || afields.length == 0) {
+            throw new IllegalArgumentException("need a type for each field and an op for each aggregate");
+        }
+        for (int i = 0; i < afields.length; i++) {
+            if (afieldtypes[i] != Type.INT_TYPE && what[i] != Op.COUNT) {
+                throw new IllegalArgumentException("string fields only support COUNT, not " + what[i]);
+            }
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.afieldtypes = afieldtypes.clone();
+        this.what = what.clone();
+        this.groups = new GroupTable(gbfieldtypes, afields.length);
+    }
+
+    @Override
+    public void setMemoryBudget(long bytes) {
+        groups.setMemoryBudget(bytes);
+    }
+
+    /** @return the group key of a tuple */
+    private Object keyOf(Tuple tup) {
+        if (gbfields.length == 0) {
+            return null;
+        }
+        if (gbfields.length == 1) {
+            return tup.getField(gbfields[0]);
+        }
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = tup.getField(gbfields[i]);
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * Merge a new tuple into every aggregate of its group.
+     *
+     * @param tup
+     *            the Tuple containing the aggregate fields and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        long[] state = groups.group(keyOf(tup));
+        for (int i = 0; i < afields.length; i++) {
+            int offset = i * GroupTable.STATE_SIZE;
+            if (afieldtypes[i] != Type.INT_TYPE) {
+                state[offset + GroupTable.COUNT]++;
+            } else if (what[i] == Op.SC_AVG) {
+                state[offset + GroupTable.SUM] += ((IntField) tup.getField(afields[i])).getValue();
+                state[offset + GroupTable.COUNT] += ((IntField) tup.getField(afields[i] + 1)).getValue();
+            } else {
+                GroupTable.add(state, offset, ((IntField) tup.getField(afields[i])).getValue());
+            }
+        }
+    }
+
+    /**
+     * Merge the groups of another aggregator for the same aggregates into
+     * this one, e.g. one that aggregated a different part of the input.
+     *
+     * @param other the aggregator to merge; its results are read
+     */
+    void merge(MultiAggregator other) throws DbException {
+        groups.mergeFrom(other.groups);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples hold the group-by fields followed by
+     *         the value of each aggregate, in the order given to the
+     *         constructor; SUM_COUNT adds the count after the sum.
+     */
+    public OpIterator iterator() {
+        List<Type> types = new ArrayList<>(Arrays.asList(gbfieldtypes));
+        for (Op op : what) {
+            types.add(Type.INT_TYPE);
+            if (op == Op.SUM_COUNT) {
+                types.add(Type.INT_TYPE);
+            }
+        }
+        TupleDesc td = new TupleDesc(types.toArray(new Type[0]));
+        return groups.iterator(td, (key, state) -> {
+            Tuple t = new Tuple(td);
+            int f = 0;
+            if (gbfields.length == 1) {
+                t.setField(f++, (Field) key);
+            } else if (gbfields.length > 1) {
+                for (Object k : (List<?>) key) {
+                    t.setField(f++, (Field) k);
+                }
+            }
+            for (int i = 0; i < what.length; i++) {
+                int offset = i * GroupTable.STATE_SIZE;
+                t.setField(f++, new IntField(GroupTable.result(what[i], state, offset)));
+                if (what[i] == Op.SUM_COUNT) {
+                    t.setField(f++, new IntField((int) state[offset + GroupTable.COUNT]));
+                }
+            }
+            return t;
+        });
+    }
+
+    @Override
+    public void close() {
+        groups.clear();
+    }
+
+}
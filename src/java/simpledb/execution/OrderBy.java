@@ -1,8 +1,10 @@
 package simpledb.execution;
 
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.SpillFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -10,6 +12,12 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * If the child's tuples fit in the memory budget they are sorted in
+ * memory. Otherwise OrderBy performs an external merge sort: it writes
+ * sorted runs of a budget's worth of tuples each to spill files, merges
+ * them as many at a time as the budget has pages until few enough are
+ * left, and merges the rest on the fly with a {@link LoserTree}.
  */
 public class OrderBy extends Operator {
 
@@ -17,14 +25,23 @@ public class OrderBy extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
+    private final int[] orderByFields;
+    private final boolean[] ascending;
     private final int orderByField;
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private long memoryBudget = 0;
+
+    // the runs written to disk, if the child did not fit in memory; the
+    // tuples of the last run stay in childTups
+    transient private List<SpillFile> runs = new ArrayList<>();
+    transient private List<SpillFile.Reader> readers = new ArrayList<>();
+    transient private LoserTree merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
-     * 
+     *
      * @param orderbyField
      *            the field to which the sort is applied.
      * @param asc
@@ -33,60 +50,231 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: tuples are
+     * ordered by the first field, ties by the second, and so on.
+     *
+     * @param orderByFields
+     *            the fields to which the sort is applied, most significant first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderByFields, boolean[] asc, OpIterator child) {
+        if (orderByFields.length == 0 || orderByFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort direction per sort field");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderByFields.clone();
+        this.ascending = asc.clone();
+        this.orderByField = orderByFields[0];
+        this.orderByFieldName = td.getFieldName(orderByFields[0]);
+        this.asc = asc[0];
     }
-    
+
     public boolean isASC()
     {
 	return this.asc;
     }
-    
+
     public int getOrderByField()
     {
         return this.orderByField;
     }
-    
+
     public String getOrderFieldName()
     {
 	return this.orderByFieldName;
     }
-    
+
+    /** @return the fields to sort on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted in ascending order */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    /**
+     * Limit the memory the sort may use, instead of the default of
+     * {@link BufferPool#getOperatorMemory()}. Takes effect on the next open.
+     *
+     * @param bytes the budget in bytes, or 0 for the default
+     */
+    public void setMemoryBudget(long bytes) {
+        this.memoryBudget = bytes;
+    }
+
+    /** @return the number of sorted runs written to disk by the last open */
+    public int getNumRuns() {
+        return runs.size();
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    private long budget() {
+        long bytes = memoryBudget > 0 ? memoryBudget : Database.getBufferPool().getOperatorMemory();
+        return Math.max(bytes, td.getSize());
+    }
+
+    /** @return how many runs a merge may read at once: one page of budget each */
+    private int fanIn() {
+        return (int) Math.max(2, budget() / BufferPool.getPageSize());
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        deleteRuns();
+        childTups.clear();
+        TupleComparator cmp = new TupleComparator(orderByFields, ascending);
+
+        // sort a budget's worth of tuples at a time, spilling all but the last
+        long maxTuples = Math.max(1, budget() / td.getSize());
+        while (child.hasNext()) {
+            if (childTups.size() == maxTuples) {
+                childTups.sort(cmp);
+                SpillFile run = new SpillFile(td);
+                for (Tuple t : childTups) {
+                    run.add(t);
+                }
+                run.finish();
+                runs.add(run);
+                childTups.clear();
+            }
             childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        }
+        childTups.sort(cmp);
+
+        // merge runs until the remaining ones and the in-memory run can be
+        // merged in one pass
+        int fanIn = fanIn();
+        while (runs.size() + 1 > fanIn) {
+            // one pass: merge each group of fanIn consecutive runs
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                merged.add(group.size() == 1 ? group.get(0) : mergeRuns(new ArrayList<>(group), cmp));
+            }
+            runs = merged;
+        }
+        startMerge();
         super.open();
     }
 
+    /** Merge sorted runs into a new one, deleting them. */
+    private SpillFile mergeRuns(List<SpillFile> inputs, Comparator<Tuple> cmp) throws DbException {
+        List<LoserTree.Run> sources = new ArrayList<>();
+        List<SpillFile.Reader> inputReaders = new ArrayList<>();
+        for (SpillFile f : inputs) {
+            SpillFile.Reader r = f.iterator();
+            inputReaders.add(r);
+            sources.add(run(r));
+        }
+        LoserTree tree = new LoserTree(sources, cmp);
+        SpillFile out = new SpillFile(td);
+        while (tree.hasNext()) {
+            out.add(tree.next());
+        }
+        out.finish();
+        for (SpillFile.Reader r : inputReaders) {
+            r.close();
+        }
+        for (SpillFile f : inputs) {
+            f.delete();
+        }
+        return out;
+    }
+
+    private static LoserTree.Run run(SpillFile.Reader r) {
+        return new LoserTree.Run() {
+            public boolean hasNext() {
+                return r.hasNext();
+            }
+
+            public Tuple next() throws DbException {
+                return r.next();
+            }
+        };
+    }
+
+    /** Start reading the sorted output from the beginning. */
+    private void startMerge() throws DbException {
+        closeReaders();
+        it = childTups.iterator();
+        if (runs.isEmpty()) {
+            merge = null;
+            return;
+        }
+        List<LoserTree.Run> sources = new ArrayList<>();
+        for (SpillFile f : runs) {
+            SpillFile.Reader r = f.iterator();
+            readers.add(r);
+            sources.add(run(r));
+        }
+        // the last run never left memory; it holds the latest tuples of the
+        // child, so it goes last to keep the sort stable
+        final Iterator<Tuple> memory = it;
+        sources.add(new LoserTree.Run() {
+            public boolean hasNext() {
+                return memory.hasNext();
+            }
+
+            public Tuple next() {
+                return memory.next();
+            }
+        });
+        merge = new LoserTree(sources, new TupleComparator(orderByFields, ascending));
+    }
+
+    private void closeReaders() {
+        for (SpillFile.Reader r : readers) {
+            r.close();
+        }
+        readers.clear();
+    }
+
+    private void deleteRuns() {
+        closeReaders();
+        for (SpillFile f : runs) {
+            f.delete();
+        }
+        runs.clear();
+        merge = null;
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        deleteRuns();
+        childTups.clear();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException {
+        startMerge();
     }
 
     /**
      * Operator.fetchNext implementation. Returns tuples from the child operator
      * in order
-     * 
+     *
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException {
+        if (merge != null) {
+            return merge.hasNext() ? merge.next() : null;
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -104,25 +292,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
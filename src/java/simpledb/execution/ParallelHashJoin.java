@@ -0,0 +1,242 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ParallelHashJoin is an equi-join whose probe side is read by a
+ * {@link ParallelSeqScan}. One child, the build side, is loaded into a hash
+ * table shared by all workers; if it is itself a parallel scan, its workers
+ * insert into the table concurrently. The probe runs as a stage of the
+ * other child's scan, so every worker looks up the tuples it read and hands
+ * back joined tuples.
+ * <p>
+ * Unlike {@link HashEquiJoin}, the build side is never spilled: the
+ * optimizer only picks this join when the build side is expected to fit in
+ * memory. The output has the fields of child1 followed by those of child2,
+ * whichever side is probed, and comes out in no particular order.
+ */
+public class ParallelHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final boolean probeLeft;
+    private final TupleDesc comboTD;
+
+    /** The build side, by join key; the lists are synchronized. */
+    transient private ConcurrentHashMap<Field, List<Tuple>> map = null;
+
+    // for a probe side that is not a parallel scan: the probe tuple and its matches
+    transient private Tuple probeTuple = null;
+    transient private Iterator<Tuple> matches = null;
+
+    /**
+     * Constructor. Probes child2 if it is a parallel scan, otherwise child1
+     * if that is one.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public ParallelHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, !(child2 instanceof ParallelSeqScan) && child1 instanceof ParallelSeqScan);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param probeLeft
+     *            whether child1 is probed and child2 built, rather than the
+     *            other way around
+     */
+    public ParallelHashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, boolean probeLeft) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a hash join needs an equality predicate, not " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.probeLeft = probeLeft;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /** @return whether child1 is the probe side */
+    public boolean isProbeLeft() {
+        return probeLeft;
+    }
+
+    /** @return whether the probe runs on the workers of a parallel scan */
+    public boolean isParallelProbe() {
+        return probeSide() instanceof ParallelSeqScan;
+    }
+
+    private OpIterator probeSide() {
+        return probeLeft ? child1 : child2;
+    }
+
+    private OpIterator buildSide() {
+        return probeLeft ? child2 : child1;
+    }
+
+    private int probeField() {
+        return probeLeft ? pred.getField1() : pred.getField2();
+    }
+
+    private int buildField() {
+        return probeLeft ? pred.getField2() : pred.getField1();
+    }
+
+    private void insert(Tuple t) {
+        map.computeIfAbsent(t.getField(buildField()), k -> Collections.synchronizedList(new ArrayList<>())).add(t);
+    }
+
+    /** Load the build side into the shared table, on the workers if it is a parallel scan. */
+    private void build() throws DbException, TransactionAbortedException {
+        map = new ConcurrentHashMap<>();
+        OpIterator build = buildSide();
+        if (build instanceof ParallelSeqScan) {
+            ((ParallelSeqScan) build).consume((worker, batch) -> {
+                for (int row = 0; row < batch.size(); row++) {
+                    insert(batch.getTuple(row));
+                }
+                return true;
+            });
+        } else {
+            build.open();
+            while (build.hasNext()) {
+                insert(build.next());
+            }
+            build.close();
+        }
+    }
+
+    /** @return the joined tuple of a probe tuple and a build tuple */
+    private Tuple join(Tuple probe, Tuple build) {
+        return probeLeft ? new Tuple(comboTD, probe, build) : new Tuple(comboTD, build, probe);
+    }
+
+    /**
+     * The probe stage: look up every tuple of a batch in the shared table
+     * and hand the joined tuples on in batches of their own.
+     */
+    private boolean probe(int worker, TupleBatch batch, ParallelSeqScan.BatchSink out) throws DbException {
+        TupleBatch joined = new TupleBatch(comboTD);
+        int field = probeField();
+        for (int row = 0; row < batch.size(); row++) {
+            List<Tuple> l = map.get(batch.getField(field, row));
+            if (l == null) {
+                continue;
+            }
+            Tuple t = batch.getTuple(row);
+            // the build is done, so the lists no longer change
+            for (Tuple b : l) {
+                joined.add(join(t, b));
+                if (joined.isFull()) {
+                    if (!out.accept(worker, joined)) {
+                        return false;
+                    }
+                    joined = new TupleBatch(comboTD);
+                }
+            }
+        }
+        return joined.size() == 0 || out.accept(worker, joined);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        build();
+        OpIterator probe = probeSide();
+        if (probe instanceof ParallelSeqScan) {
+            ((ParallelSeqScan) probe).setStage(this::probe, comboTD);
+        }
+        probe.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        OpIterator probe = probeSide();
+        probe.close();
+        if (probe instanceof ParallelSeqScan) {
+            ((ParallelSeqScan) probe).setStage(null, null);
+        }
+        map = null;
+        probeTuple = null;
+        matches = null;
+    }
+
+    /** Probe again; the build side is kept, since it cannot change within a transaction. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        probeTuple = null;
+        matches = null;
+        probeSide().rewind();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. A parallel probe side already returns joined tuples;
+     * any other probe side is looked up here, one tuple at a time.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        OpIterator probe = probeSide();
+        if (probe instanceof ParallelSeqScan) {
+            return probe.hasNext() ? probe.next() : null;
+        }
+        while (matches == null || !matches.hasNext()) {
+            if (!probe.hasNext()) {
+                return null;
+            }
+            probeTuple = probe.next();
+            List<Tuple> l = map.get(probeTuple.getField(probeField()));
+            matches = l == null ? null : l.iterator();
+        }
+        return join(probeTuple, matches.next());
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
@@ -0,0 +1,519 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan is a sequential scan of a {@link HeapFile} that reads the
+ * file on several worker threads. The pages of the file are handed out in
+ * morsels of {@link #MORSEL_PAGES} consecutive pages; a worker that is done
+ * with its morsel claims the next one, so fast workers take over the work of
+ * slow ones. Each worker decodes its pages into {@link TupleBatch}es,
+ * applies the filters and the projection pushed into the scan, and hands the
+ * batches to the consuming thread through a bounded queue, which acts as
+ * the exchange between the workers and the rest of the plan.
+ * <p>
+ * Operators above the scan can run part of their work on the workers too:
+ * a {@link Stage} turns each batch into the operator's output before it is
+ * queued, e.g. by probing a shared hash table, and {@link #consume} hands
+ * every batch to a {@link BatchSink} on the workers instead of queueing it,
+ * e.g. to build a hash table or to aggregate.
+ * <p>
+ * The tuples come out in no particular order, which is all a SeqScan
+ * promises anyway.
+ */
+public class ParallelSeqScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker claims at a time. */
+    public static final int MORSEL_PAGES = 16;
+
+    /** Number of batches per worker the queue holds before workers wait for the consumer. */
+    private static final int QUEUE_BATCHES = 4;
+
+    /** How long a worker waits for room in the queue before it checks whether the scan was closed. */
+    private static final long OFFER_TIMEOUT_MS = 50;
+
+    /**
+     * The workers of all parallel scans; its threads are daemons. Workers
+     * wait for room in a queue through {@link ForkJoinPool#managedBlock}, so
+     * that the pool starts other threads meanwhile: the workers of one scan
+     * waiting for its consumer must not keep those of another scan, which
+     * the consumer may be waiting for, from running, e.g. under a nested
+     * loops join of two parallel scans.
+     */
+    private static final ForkJoinPool WORKERS =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    private final TransactionId tid;
+    private int tableid;
+    private final int parallelism;
+    private final List<Predicate> filters = new ArrayList<>();
+    private int[] projection = null;
+    private TupleDesc td;
+    private transient Stage stage = null;
+    private TupleDesc stageTd = null;
+
+    // state of the current scan: the workers hand batches, and an end
+    // marker each when they are done, to the consumer through queue
+    private transient BlockingQueue<TupleBatch> queue;
+    private transient TupleBatch end;
+    private transient AtomicInteger nextPage;
+    private transient AtomicReference<Throwable> failure;
+    private transient volatile boolean cancelled;
+    private transient int workersLeft = 0;
+    private transient TupleBatch current;
+    private transient int row;
+
+    /** Receives the batches the workers produce, on the worker threads. */
+    public interface BatchSink {
+        /**
+         * Take a batch; the sink may keep it.
+         *
+         * @param worker the index of the worker, from 0 to the number of workers - 1
+         * @param batch the batch
+         * @return false if no more batches are wanted
+         */
+        boolean accept(int worker, TupleBatch batch) throws DbException;
+    }
+
+    /** Work the workers do on each batch before the result is queued for the consumer. */
+    public interface Stage {
+        /**
+         * Turn a filtered and projected batch into any number of output
+         * batches, handed to out. The input batch must not be kept.
+         *
+         * @param worker the index of the worker, from 0 to the number of workers - 1
+         * @param batch the batch read by the worker
+         * @param out where the output batches go
+         * @return false if out wants no more batches
+         */
+        boolean apply(int worker, TupleBatch batch, BatchSink out) throws DbException;
+    }
+
+    /**
+     * Creates a parallel scan over the specified table as a part of the
+     * specified transaction, using one worker per available processor.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, getDefaultParallelism());
+    }
+
+    /**
+     * Creates a parallel scan with the given number of workers.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; must be a HeapFile.
+     * @param tableAlias
+     *            the alias of this table, as for {@link SeqScan}.
+     * @param parallelism
+     *            the number of workers that read the table at most.
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int parallelism) {
+        super(tid, tableid, tableAlias);
+        if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+            throw new IllegalArgumentException("a parallel scan needs a HeapFile");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("need at least one worker");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.parallelism = parallelism;
+    }
+
+    /** @return the number of workers a parallel scan uses by default: one per processor */
+    public static int getDefaultParallelism() {
+        return WORKERS.getParallelism();
+    }
+
+    /** @return the number of workers this scan uses at most */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    @Override
+    public void reset(int tableid, String tableAlias) {
+        super.reset(tableid, tableAlias);
+        this.tableid = tableid;
+        this.td = null;
+    }
+
+    /**
+     * Push a filter into the scan: only tuples that pass every filter are
+     * returned. Filters must be added before the scan is opened.
+     *
+     * @param p a predicate over the fields of the table, numbered as in
+     *   the table rather than as in a projection
+     */
+    public void addFilter(Predicate p) {
+        filters.add(p);
+    }
+
+    /** @return the filters pushed into the scan */
+    public List<Predicate> getFilters() {
+        return new ArrayList<>(filters);
+    }
+
+    /**
+     * Push a projection into the scan: it returns only the given fields of
+     * the table, in the given order.
+     *
+     * @param fields the fields of the table to return, or null for all
+     */
+    public void setProjection(int[] fields) {
+        this.projection = fields == null ? null : fields.clone();
+        this.td = null;
+    }
+
+    /** @return the fields of the table the scan returns, or null if it returns all of them */
+    public int[] getProjection() {
+        return projection == null ? null : projection.clone();
+    }
+
+    /**
+     * Let the workers run a stage over every batch before it is queued; the
+     * scan then returns the stage's output. Must be set before the scan is
+     * opened.
+     *
+     * @param stage the stage, or null to return the table's tuples again
+     * @param outTd the schema of the stage's output
+     */
+    public void setStage(Stage stage, TupleDesc outTd) {
+        this.stage = stage;
+        this.stageTd = outTd;
+    }
+
+    /**
+     * @return the number of workers the scan starts, which may be less than
+     *   the parallelism for a small table
+     */
+    public int numWorkers() {
+        int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        return Math.min(parallelism, (numPages + MORSEL_PAGES - 1) / MORSEL_PAGES);
+    }
+
+    /** @return the TupleDesc of the stage's output, or of the table prefixed with the alias and projected */
+    @Override
+    public TupleDesc getTupleDesc() {
+        if (stage != null) {
+            return stageTd;
+        }
+        return getScanTupleDesc();
+    }
+
+    /** @return the TupleDesc of the table, prefixed with the alias, and projected */
+    private TupleDesc getScanTupleDesc() {
+        if (td == null) {
+            TupleDesc full = super.getTupleDesc();
+            if (projection == null) {
+                td = full;
+            } else {
+                Type[] types = new Type[projection.length];
+                String[] names = new String[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    types[i] = full.getFieldType(projection[i]);
+                    names[i] = full.getFieldName(projection[i]);
+                }
+                td = new TupleDesc(types, names);
+            }
+        }
+        return td;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        int workers = numWorkers();
+        queue = new ArrayBlockingQueue<>(Math.max(1, workers) * (QUEUE_BATCHES + 1));
+        end = new TupleBatch(getTupleDesc(), 1);
+        current = null;
+        row = 0;
+        start(workers, (worker, batch) -> {
+            try {
+                return put(batch, true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for the consumer");
+            }
+        });
+    }
+
+    /**
+     * Put a batch on the queue, waiting for room as a managed blocker of
+     * the pool.
+     *
+     * @param untilCancelled whether to give up once the scan is closed
+     * @return whether the batch was queued
+     */
+    private boolean put(TupleBatch batch, boolean untilCancelled) throws InterruptedException {
+        Put put = new Put(queue, batch, untilCancelled);
+        ForkJoinPool.managedBlock(put);
+        return put.done;
+    }
+
+    private final class Put implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<TupleBatch> queue;
+        private final TupleBatch batch;
+        private final boolean untilCancelled;
+        boolean done = false;
+
+        Put(BlockingQueue<TupleBatch> queue, TupleBatch batch, boolean untilCancelled) {
+            this.queue = queue;
+            this.batch = batch;
+            this.untilCancelled = untilCancelled;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            if (!done) {
+                done = queue.offer(batch);
+            }
+            return done || (untilCancelled && cancelled);
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            while (!isReleasable()) {
+                // wake up now and then to see whether the scan was closed
+                done = queue.offer(batch, OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Read the whole table on the workers and hand every batch, after the
+     * stage if there is one, to sink on the worker that read it, instead of
+     * returning the tuples. Returns once all workers are done.
+     *
+     * @param sink receives the batches; called by several threads at once
+     */
+    public void consume(BatchSink sink) throws DbException, TransactionAbortedException {
+        int workers = numWorkers();
+        // only the end markers go through the queue
+        queue = new ArrayBlockingQueue<>(Math.max(1, workers));
+        end = new TupleBatch(getTupleDesc(), 1);
+        start(workers, sink);
+        try {
+            while (workersLeft > 0) {
+                if (queue.take() == end) {
+                    workersLeft--;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new DbException("interrupted while waiting for scan workers");
+        }
+        queue = null;
+        checkFailure();
+    }
+
+    private void start(int workers, BatchSink out) {
+        int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableid)).numPages();
+        TupleDesc fullTd = super.getTupleDesc();
+        TupleDesc scanTd = getScanTupleDesc();
+        nextPage = new AtomicInteger(0);
+        failure = new AtomicReference<>();
+        cancelled = false;
+        workersLeft = workers;
+        for (int i = 0; i < workers; i++) {
+            final int worker = i;
+            WORKERS.execute(() -> work(worker, numPages, fullTd, scanTd, out));
+        }
+    }
+
+    /** Read morsels until there are none left, then put an end marker. */
+    private void work(int worker, int numPages, TupleDesc fullTd, TupleDesc scanTd, BatchSink out) {
+        try {
+            BufferPool pool = Database.getBufferPool();
+            ScanRing ring = pool.newScanRing(numPages);
+            TupleBatch batch = new TupleBatch(fullTd);
+            int start;
+            while (!cancelled && (start = nextPage.getAndAdd(MORSEL_PAGES)) < numPages) {
+                int stop = Math.min(start + MORSEL_PAGES, numPages);
+                for (int p = start; p < stop && !cancelled; p++) {
+                    HeapPage page = (HeapPage) pool.getPage(tid, new HeapPageId(tableid, p),
+                            Permissions.READ_ONLY, ring);
+                    int slot = 0;
+                    while (true) {
+                        slot = page.fillBatch(batch, slot);
+                        if (!batch.isFull()) {
+                            break;
+                        }
+                        if (emit(worker, batch, scanTd, out)) {
+                            batch = new TupleBatch(fullTd);
+                        }
+                    }
+                }
+            }
+            if (!cancelled && batch.size() > 0) {
+                emit(worker, batch, scanTd, out);
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            // the consumer keeps taking from the queue until every worker is done
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    put(end, false);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Filter and project a full batch, run the stage over it, and hand the
+     * result to out. Stops the scan if out wants no more batches.
+     *
+     * @return true if out may have kept the batch, false if it can be reused
+     */
+    private boolean emit(int worker, TupleBatch batch, TupleDesc scanTd, BatchSink out) throws DbException {
+        for (Predicate p : filters) {
+            batch.filter(p.getField(), p.getOp(), p.getOperand());
+        }
+        if (batch.size() == 0 || cancelled) {
+            batch.clear();
+            return false;
+        }
+        TupleBatch projected = projection == null ? batch : batch.project(projection, scanTd);
+        if (stage != null) {
+            if (!stage.apply(worker, projected, out)) {
+                cancelled = true;
+            }
+            batch.clear();
+            return false;
+        }
+        if (!out.accept(worker, projected)) {
+            cancelled = true;
+        }
+        return true;
+    }
+
+    /** Rethrow the first failure of a worker on the consuming thread. */
+    private void checkFailure() throws DbException, TransactionAbortedException {
+        Throwable e = failure.get();
+        if (e == null) {
+            return;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        DbException wrapped = new DbException("parallel scan worker failed: " + e);
+        wrapped.initCause(e);
+        throw wrapped;
+    }
+
+    /** Returns the next batch any worker produced. */
+    @Override
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (queue == null) {
+            throw new IllegalStateException("scan is not open");
+        }
+        while (workersLeft > 0) {
+            TupleBatch b;
+            try {
+                b = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for scan workers");
+            }
+            if (b == end) {
+                workersLeft--;
+                checkFailure();
+            } else {
+                return b;
+            }
+        }
+        checkFailure();
+        return null;
+    }
+
+    @Override
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (queue == null) {
+            return false;
+        }
+        while (current == null || row >= current.size()) {
+            current = nextBatch();
+            row = 0;
+            if (current == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no next tuple");
+        }
+        return current.getTuple(row++);
+    }
+
+    /** Stop the workers and wait until all of them are done. */
+    @Override
+    public void close() {
+        if (queue == null) {
+            return;
+        }
+        cancelled = true;
+        boolean interrupted = false;
+        while (workersLeft > 0) {
+            try {
+                if (queue.take() == end) {
+                    workersLeft--;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        queue = null;
+        current = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        close();
+        open();
+    }
+}
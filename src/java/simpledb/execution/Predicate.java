@@ -99,7 +99,8 @@ public class Predicate implements Serializable {
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method. Tuples read straight from a page are compared on their
+     * serialized bytes, without creating a Field.
      * 
      * @param t
      *            The tuple to compare against
@@ -108,7 +109,7 @@ public class Predicate implements Serializable {
     public boolean filter(Tuple t) {
         // some code goes here
 
-        return t.getField(this.field).compare(this.op,this.operand) ;
+        return t.compareField(this.field, this.op, this.operand);
     }
 
     /**
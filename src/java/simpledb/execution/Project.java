@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -11,12 +12,13 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private transient TupleBatch buffer;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -81,6 +83,23 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Returns the next batch of the child, projected. The result shares the
+     * child batch's columns, so no values are copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (buffer == null) {
+            buffer = new TupleBatch(child.getTupleDesc());
+        }
+        TupleBatch batch = Batches.next(child, buffer);
+        if (batch == null) return null;
+        int[] columns = new int[outFieldIds.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = outFieldIds.get(i);
+        }
+        return batch.project(columns, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
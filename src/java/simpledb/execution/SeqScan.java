@@ -15,7 +15,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -24,6 +24,7 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator it = null;
+    private transient TupleBatch batch = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -90,7 +91,7 @@ public class SeqScan implements OpIterator {
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
         it.open();
-
+        batch = null;
     }
 
     /**
@@ -137,9 +138,32 @@ public class SeqScan implements OpIterator {
         return t;
     }
 
+    /**
+     * Returns the next batch of tuples. Files whose iterators are
+     * {@link BatchDbFileIterator}s decode their pages straight into the
+     * batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (it == null) {
+            return null;
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        if (it instanceof BatchDbFileIterator) {
+            return ((BatchDbFileIterator) it).nextBatch(batch) ? batch : null;
+        }
+        batch.clear();
+        while (!batch.isFull() && it.hasNext()) {
+            batch.add(it.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
     public void close() {
         // some code goes here
         it.close();
+        batch = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
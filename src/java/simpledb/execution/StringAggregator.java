@@ -2,16 +2,10 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.Field;
 import simpledb.storage.IntField;
-import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
-import simpledb.transaction.TransactionAbortedException;
-
-import javax.swing.*;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -24,9 +18,9 @@ public class StringAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private HashMap<Integer,Integer> count;
-    private HashMap<Integer,Tuple> tupData;
-    private HashMap<Integer,Integer> valueMap;
+
+    /** The count of each group; the key is null without grouping. */
+    private final GroupTable groups;
 
     /**
      * Aggregate constructor
@@ -39,40 +33,28 @@ public class StringAggregator implements Aggregator {
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
         // some code goes here
+        if (what != Op.COUNT) {
+            throw new IllegalArgumentException("string fields only support COUNT, not " + what);
+        }
         this.afield = afield;
         this.gbfield = gbfield;
-        this.gbfieldtype = gbfieldtype;
+        this.gbfieldtype = gbfield == NO_GROUPING ? null : gbfieldtype;
         this.what = what;
+        this.groups = new GroupTable(this.gbfieldtype);
+    }
 
-        this.valueMap = new HashMap<>();
-        this.tupData = new HashMap<>();
-        this.count = new HashMap<>();
+    @Override
+    public void setMemoryBudget(long bytes) {
+        groups.setMemoryBudget(bytes);
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the constructor
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
-    public void mergeTupleIntoGroup(Tuple tup) {
-        int gbVal = ((IntField)tup.getField(this.gbfield)).getValue();
-        String agVal = ((StringField)tup.getField(this.afield)).getValue();
-        if (this.gbfield == NO_GROUPING) {
-            this.gbfieldtype = null;
-        }
-        int newAggVal = this.count.getOrDefault(gbVal,0);
-        if (this.what == Op.COUNT) {
-            newAggVal = newAggVal + 1;
-        }
-
-        this.valueMap.put(gbVal,newAggVal);
-        TupleDesc td = tup.getTupleDesc();
-        Tuple newTup = new Tuple(td);
-        newTup.setField(this.gbfield, new IntField(gbVal));
-        newTup.setField(this.afield, new IntField(newAggVal));
-
-
-        this.tupData.put(gbVal,newTup);
-        this.count.put(gbVal,newAggVal);
+    public void mergeTupleIntoGroup(Tuple tup) throws DbException {
+        Field key = gbfield == NO_GROUPING ? null : tup.getField(gbfield);
+        groups.group(key)[GroupTable.COUNT]++;
     }
 
     /**
@@ -85,54 +67,24 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        return new StringAggregatorOpIterator(tupData) ;
-    }
-
-}
-
-
-class StringAggregatorOpIterator implements OpIterator {
-
-    private HashMap<Integer,Tuple> tupData;
-    private Iterator<Tuple> iterator;
-    public StringAggregatorOpIterator(HashMap<Integer,Tuple> data) {
-        this.tupData = data;
-    }
-
-    @Override
-    public void open() throws DbException, TransactionAbortedException {
-
-        iterator = this.tupData.values().iterator();
-    }
-
-    @Override
-    public boolean hasNext() throws DbException, TransactionAbortedException {
-        return iterator.hasNext();
-    }
-
-    @Override
-    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-        if (this.iterator.hasNext()){
-            return this.iterator.next();
-        }
-
-        throw  new NoSuchElementException();
-    }
-
-    @Override
-    public void rewind() throws DbException, TransactionAbortedException {
-        close();
-        open();
-    }
-
-    @Override
-    public TupleDesc getTupleDesc() {
-        return null;
+        TupleDesc td = gbfield == NO_GROUPING
+                ? new TupleDesc(new Type[]{Type.INT_TYPE})
+                : new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+        return groups.iterator(td, (key, state) -> {
+            Tuple t = new Tuple(td);
+            if (gbfield == NO_GROUPING) {
+                t.setField(0, new IntField((int) state[GroupTable.COUNT]));
+            } else {
+                t.setField(0, (Field) key);
+                t.setField(1, new IntField((int) state[GroupTable.COUNT]));
+            }
+            return t;
+        });
     }
 
     @Override
     public void close() {
-        this.iterator = null;
+        groups.clear();
     }
-}
 
+}
@@ -0,0 +1,169 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n: it returns the
+ * first n tuples of its child in sort order. Unlike {@link OrderBy}, which
+ * sorts its whole input, TopN keeps only the best n tuples seen so far in a
+ * bounded heap, so it needs O(n) memory and O(input * log n) time.
+ * Tuples that compare equal come out in the order the child produced them,
+ * just as from OrderBy.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] ascending;
+    private final int limit;
+    private final List<Tuple> result = new ArrayList<>();
+    private Iterator<Tuple> it;
+
+    /** A candidate result; seq breaks ties in favor of earlier tuples. */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderByFields
+     *            the fields to which the sort is applied, most significant first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderByFields, boolean[] asc, int limit, OpIterator child) {
+        if (orderByFields.length == 0 || orderByFields.length != asc.length) {
+            throw new IllegalArgumentException("need one sort direction per sort field");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderByFields.clone();
+        this.ascending = asc.clone();
+        this.limit = limit;
+    }
+
+    /**
+     * Creates a new TopN node that sorts on a single field.
+     *
+     * @param orderByField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderByField, boolean asc, int limit, OpIterator child) {
+        this(new int[]{orderByField}, new boolean[]{asc}, limit, child);
+    }
+
+    /** @return the fields to sort on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted in ascending order */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    /** @return the number of tuples this operator returns at most */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        result.clear();
+        if (limit > 0) {
+            TupleComparator cmp = new TupleComparator(orderByFields, ascending);
+            Comparator<Entry> order = (a, b) -> {
+                int c = cmp.compare(a.tuple, b.tuple);
+                return c != 0 ? c : Long.compare(a.seq, b.seq);
+            };
+            // the worst of the best tuples so far is at the head
+            PriorityQueue<Entry> heap = new PriorityQueue<>(limit, order.reversed());
+            long seq = 0;
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < limit) {
+                    heap.add(new Entry(t, seq));
+                } else if (cmp.compare(t, heap.peek().tuple) < 0) {
+                    // a tie with the head loses, since t came later
+                    heap.poll();
+                    heap.add(new Entry(t, seq));
+                }
+                seq++;
+            }
+            List<Entry> entries = new ArrayList<>(heap);
+            entries.sort(order);
+            for (Entry e : entries) {
+                result.add(e.tuple);
+            }
+        }
+        it = result.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+        result.clear();
+    }
+
+    public void rewind() {
+        it = result.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the top tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
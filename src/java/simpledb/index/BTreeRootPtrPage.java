@@ -19,6 +19,7 @@ public class BTreeRootPtrPage implements Page {
 
 	private boolean dirty = false;
 	private TransactionId dirtier = null;
+	private volatile long lsn = -1;
 
 	private final BTreePageId pid;
 
@@ -140,6 +141,16 @@ public class BTreeRootPtrPage implements Page {
 			return null;
 	}
 
+	// see Page.java for javadocs
+	public long getLsn() {
+		return lsn;
+	}
+
+	// see Page.java for javadocs
+	public void setLsn(long lsn) {
+		this.lsn = lsn;
+	}
+
 	/** Return a view of this page before it was modified
         -- used by recovery */
 	public BTreeRootPtrPage getBeforeImage(){
@@ -93,6 +93,90 @@ public class JoinOptimizer {
 
     }
 
+    /**
+     * Smallest number of tuples a parallel scan is expected to return for
+     * its join to be probed on the scan's workers.
+     */
+    public static final int PARALLEL_JOIN_MIN_TUPLES = 10000;
+
+    /**
+     * Return the best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)},
+     * but using the statistics of the base tables to run an equi-join in
+     * parallel: when one side is a {@link ParallelSeqScan} that the stats
+     * predict to be large, and the other side is a scan that fits in the
+     * memory the buffer pool grants an operator, a {@link ParallelHashJoin}
+     * builds the small side and probes the large one on the workers.
+     *
+     * @param lj
+     *            the logical join to instantiate
+     * @param plan1
+     *            the plan for the left side of the join
+     * @param plan2
+     *            the plan for the right side of the join
+     * @param stats
+     *            the statistics of the base tables, by table name
+     * @param filterSelectivities
+     *            the selectivity of the filters over each table, by alias
+     * @return the physical join
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj, OpIterator plan1, OpIterator plan2,
+                                             Map<String, TableStats> stats,
+                                             Map<String, Double> filterSelectivities) throws ParsingException {
+        OpIterator j = instantiateJoin(lj, plan1, plan2);
+        if (!(j instanceof HashEquiJoin)) {
+            return j;
+        }
+        JoinPredicate p = ((HashEquiJoin) j).getJoinPredicate();
+        long memory = Database.getBufferPool().getOperatorMemory();
+        if (plan2 instanceof ParallelSeqScan
+                && estimateCardinality(plan2, stats, filterSelectivities) >= PARALLEL_JOIN_MIN_TUPLES
+                && estimateBytes(plan1, stats, filterSelectivities) <= memory) {
+            return new ParallelHashJoin(p, plan1, plan2, false);
+        }
+        if (plan1 instanceof ParallelSeqScan
+                && estimateCardinality(plan1, stats, filterSelectivities) >= PARALLEL_JOIN_MIN_TUPLES
+                && estimateBytes(plan2, stats, filterSelectivities) <= memory) {
+            return new ParallelHashJoin(p, plan1, plan2, true);
+        }
+        return j;
+    }
+
+    /**
+     * @return the estimated number of tuples of a plan that scans a base
+     *   table, possibly through filters, or -1 if it is any other plan or
+     *   there are no stats for the table
+     */
+    private static long estimateCardinality(OpIterator plan, Map<String, TableStats> stats,
+                                            Map<String, Double> filterSelectivities) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (!(plan instanceof SeqScan)) {
+            return -1;
+        }
+        SeqScan scan = (SeqScan) plan;
+        TableStats s = stats.get(scan.getTableName());
+        Double selectivity = filterSelectivities.get(scan.getAlias());
+        if (s == null) {
+            return -1;
+        }
+        return s.estimateTableCardinality(selectivity == null ? 1.0 : selectivity);
+    }
+
+    /**
+     * @return the estimated bytes the tuples of a plan that scans a base
+     *   table take, or Long.MAX_VALUE if they cannot be estimated
+     */
+    private static long estimateBytes(OpIterator plan, Map<String, TableStats> stats,
+                                      Map<String, Double> filterSelectivities) {
+        long card = estimateCardinality(plan, stats, filterSelectivities);
+        if (card < 0) {
+            return Long.MAX_VALUE;
+        }
+        return card * plan.getTupleDesc().getSize();
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -15,9 +15,9 @@ import java.io.File;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and group by fields.
+ * LogicalPlans can represent any number of aggregates over any
+ * number of group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -32,15 +32,22 @@ public class LogicalPlan {
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
-    private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> groupByFields = new ArrayList<>();
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAsc = new ArrayList<>();
+    private int limit = NO_LIMIT;
+    private int scanParallelism = ParallelSeqScan.getDefaultParallelism();
     private String query;
 //    private Query owner;
 
+    /** Value of {@link #getLimit()} for a query without a LIMIT clause. */
+    public static final int NO_LIMIT = -1;
+
+    /** Tables of at least this many pages are read with a {@link ParallelSeqScan}. */
+    public static final int PARALLEL_SCAN_MIN_PAGES = 64;
+
     /** Constructor -- generate an empty logical plan */
     public LogicalPlan() {
         joins = new ArrayList<>();
@@ -189,34 +196,75 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Each call adds another aggregate expression; all of
+        them are computed over the same groups.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or * for COUNT(*)
+        @param gfield a field to group by, or null to add no grouping field
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.add(op);
+            aggFields.add(afield);
+        }
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
-        hasAgg = true;
+            addGroupByField(gfield);
+    }
+
+    /** Add a field to group the aggregates of the query by.  Each call adds
+        another field to the grouping key.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** @return the index of the aggregate of op over field, or -1 if it was not added */
+    private int aggregateIndex(String op, String field) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equalsIgnoreCase(op) && aggFields.get(i).equals(field))
+                return i;
+        }
+        return -1;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds
+        a less significant field to sort on.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.add(field);
+        oByAsc.add(asc);
+    }
+
+    /** Return at most the given number of result tuples, as in a LIMIT clause.
+        @param limit the number of tuples, or NO_LIMIT
+    */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /** @return the number of result tuples to return at most, or NO_LIMIT */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Set the number of workers that scan each large table; 1 scans every
+        table on the calling thread.
+        @param workers the number of workers per table scan
+    */
+    public void setScanParallelism(int workers) {
+        this.scanParallelism = workers;
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -297,7 +345,13 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                if (scanParallelism > 1 && file instanceof HeapFile
+                        && ((HeapFile) file).numPages() >= PARALLEL_SCAN_MIN_PAGES) {
+                    ss = new ParallelSeqScan(t, file.getId(), table.alias, scanParallelism);
+                } else {
+                    ss = new SeqScan(t, file.getId(), table.alias);
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -335,7 +389,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof ParallelSeqScan) {
+                // let the workers filter
+                ((ParallelSeqScan) subplan).addFilter(p);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -381,7 +440,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, statsMap, filterSelectivities);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -413,28 +472,33 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = aggregateIndex(si.aggOp, si.fname);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
+                }
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                if (!si.fname.equals("null.*")) {
+                    try {
+                        td.fieldNameToIndex(si.fname);
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                    }
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
-            } else if (hasAgg) {
-                    if (groupByField == null) {
+            } else if (!aggOps.isEmpty()) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(groupByFields.get(g));
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  groupByFields.get(g) + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -457,22 +521,64 @@ public class LogicalPlan {
                 }
         }
 
-        if (hasAgg) {
+        if (node instanceof ParallelSeqScan && aggOps.isEmpty() && oByFields.isEmpty()) {
+            // a plain scan of one table: let the workers project too
+            List<Integer> needed = new ArrayList<>(new LinkedHashSet<>(outFields));
+            int[] projection = new int[needed.size()];
+            for (int j = 0; j < projection.length; j++) {
+                projection[j] = needed.get(j);
+            }
+            ((ParallelSeqScan) node).setProjection(projection);
+            outFields.replaceAll(needed::indexOf);
+        }
+
+        if (!aggOps.isEmpty()) {
             TupleDesc td = node.getTupleDesc();
+            int[] afields = new int[aggOps.size()];
+            Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+            int[] gfields = new int[groupByFields.size()];
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (int j = 0; j < afields.length; j++) {
+                    ops[j] = getAggOp(aggOps.get(j));
+                    if (aggFields.get(j).equals("null.*")) {
+                        // COUNT(*) counts rows, so any field will do
+                        if (ops[j] != Aggregator.Op.COUNT)
+                            throw new ParsingException(aggOps.get(j) + "(*) is not supported");
+                        afields[j] = 0;
+                    } else {
+                        afields[j] = td.fieldNameToIndex(aggFields.get(j));
+                    }
+                }
+                for (int j = 0; j < gfields.length; j++) {
+                    gfields[j] = td.fieldNameToIndex(groupByFields.get(j));
+                }
+                aggNode = new Aggregate(node, afields, gfields, ops);
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = node.getTupleDesc().fieldNameToIndex(oByFields.get(j));
+                asc[j] = oByAsc.get(j);
+            }
+            // a bounded heap beats a full sort as long as the top tuples fit in memory
+            long topBytes = (long) limit * node.getTupleDesc().getSize();
+            if (limit != NO_LIMIT && topBytes <= Database.getBufferPool().getOperatorMemory()) {
+                node = new TopN(fields, asc, limit, node);
+            } else {
+                node = new OrderBy(fields, asc, node);
+                if (limit != NO_LIMIT) {
+                    node = new Limit(limit, node);
+                }
+            }
+        } else if (limit != NO_LIMIT) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
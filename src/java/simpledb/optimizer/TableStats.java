@@ -1,12 +1,15 @@
 package simpledb.optimizer;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -68,6 +71,10 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    private final int ioCostPerPage;
+    private final int numTuples;
+    private final int numPages;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -87,6 +94,35 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        Transaction t = new Transaction();
+        t.start();
+        DbFileIterator it = file.iterator(t.getId());
+        int count = 0;
+        try {
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                count++;
+            }
+        } catch (DbException | TransactionAbortedException e) {
+            throw new RuntimeException("cannot scan table " + tableid, e);
+        } finally {
+            it.close();
+            try {
+                t.commit();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.numTuples = count;
+        if (file instanceof HeapFile) {
+            this.numPages = ((HeapFile) file).numPages();
+        } else {
+            long bytes = (long) count * file.getTupleDesc().getSize();
+            this.numPages = (int) ((bytes + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+        }
     }
 
     /**
@@ -103,7 +139,7 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
     }
 
     /**
@@ -117,7 +153,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) Math.round(numTuples * selectivityFactor);
     }
 
     /**
@@ -158,7 +194,7 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
     }
 
 }
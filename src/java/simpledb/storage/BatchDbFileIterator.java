@@ -0,0 +1,21 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchDbFileIterator is a DbFileIterator that can also hand out its tuples
+ * a {@link TupleBatch} at a time. A single scan should use either the tuple
+ * methods or nextBatch, not both.
+ */
+public interface BatchDbFileIterator extends DbFileIterator {
+
+    /**
+     * Clear batch and fill it with the next tuples of the file.
+     *
+     * @param batch the batch to fill; its schema must be the file's
+     * @return false if there were no more tuples, in which case batch is empty
+     */
+    boolean nextBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException;
+}
@@ -1,12 +1,24 @@
 package simpledb.storage;
 
 import simpledb.common.*;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -15,7 +27,17 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. The locks are kept by a {@link LockManager}
+ * and released when the transaction completes (strict two-phase locking).
+ * Heap files lock the rows they insert and delete rather than whole pages
+ * (see {@link #getPageToWriteRows}), so that several transactions can
+ * change the same page; on commit, only a transaction's own rows are
+ * written.
+ * <p>
+ * A read-only transaction may instead read a snapshot of the database (see
+ * {@link #beginSnapshot}). It takes no locks, so it never waits for writers
+ * and writers never wait for it; the page versions it still needs are kept
+ * by a {@link VersionStore}.
  * 
  * @Threadsafe, all fields are final
  */
@@ -30,23 +52,61 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Number of private buffers given to a large sequential scan. */
+    public static final int SCAN_RING_PAGES = 16;
+
+    /** Default number of pages a sequential scan reads ahead. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
 
+    /** Background threads shared by every BufferPool for read-ahead. */
+    private static final ExecutorService PREFETCH_EXECUTOR =
+            Executors.newFixedThreadPool(2, r -> {
+                Thread t = new Thread(r, "simpledb-prefetch");
+                t.setDaemon(true);
+                return t;
+            });
 
     private final int numPages;
 
-    private final ConcurrentHashMap<Integer,Page> pageStore;
+    private final PageTable pageTable;
+
+    private final EvictionPolicy evictionPolicy;
+
+    private final LockManager lockManager = new LockManager();
+
+    private final VersionStore versions = new VersionStore();
+
+    /** Asynchronous reads issued by read-ahead and not yet consumed. */
+    private final ConcurrentHashMap<PageId, Future<Page>> prefetched = new ConcurrentHashMap<>();
+
+    private volatile int readAheadPages = DEFAULT_READ_AHEAD_PAGES;
+
+    private final AtomicLong prefetchHits = new AtomicLong();
+
+    private final AtomicLong prefetchMisses = new AtomicLong();
 
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting the
+     * least recently used page when it is full.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
-        this.numPages = numPages;
-        pageStore = new ConcurrentHashMap<Integer,Page>();
+        this(numPages, new LruEvictionPolicy());
+    }
 
+    /**
+     * Creates a BufferPool that caches up to numPages pages.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param evictionPolicy decides which page to evict when the pool is
+     *   full; must not be shared with another BufferPool
+     */
+    public BufferPool(int numPages, EvictionPolicy evictionPolicy) {
+        this.numPages = numPages;
+        this.evictionPolicy = evictionPolicy;
+        pageTable = new PageTable();
     }
     
     public static int getPageSize() {
@@ -82,15 +142,282 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, on behalf of a
+     * scan that owns the given ring. A read-only page that is not resident in
+     * the buffer pool is read into the ring rather than into the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's private buffers, or null to use the pool
+     * @see #newScanRing
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
-        if(!pageStore.containsKey(pid.hashCode())){
-            DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbfile.readPage(pid);
-            pageStore.put(pid.hashCode(),page);
+        if (tid != null) {
+            Long snapshot = versions.snapshotOf(tid);
+            if (snapshot != null) {
+                return getSnapshotPage(pid, perm, ring, snapshot);
+            }
+            lockManager.acquire(tid, pid, perm == Permissions.READ_WRITE);
+        }
+        Page page = pageTable.get(pid);
+        if (page != null) {
+            evictionPolicy.recordAccess(pid);
+            return page;
+        }
+        if (ring != null && perm == Permissions.READ_ONLY) {
+            page = ring.get(pid);
+            if (page == null) {
+                page = readFromDisk(pid);
+                ring.add(page);
+            }
+            return page;
+        }
+        return pageTable.getOrLoad(pid, () -> loadPage(pid));
+    }
+
+    /**
+     * Retrieve a page to change some of its rows, each of which the
+     * transaction must lock with {@link #lockRow} before it changes it. The
+     * page itself gets an intention lock, so that other transactions can
+     * change its other rows at the same time, but none can read or write
+     * the whole page. The page stays resident until the transaction
+     * completes.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     */
+    public Page getPageToWriteRows(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+        if (versions.snapshotOf(tid) != null) {
+            throw new DbException("a read-only transaction cannot write page " + pid);
+        }
+        lockManager.acquire(tid, pid, LockMode.IX);
+        while (true) {
+            Page page = pageTable.getOrLoad(pid, () -> loadPage(pid));
+            synchronized (this) {
+                // once it is resident under the lock, evictPage leaves it alone
+                if (pageTable.get(pid) == page) {
+                    evictionPolicy.recordAccess(pid);
+                    return page;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lock a row for a transaction, which must have retrieved its page with
+     * {@link #getPageToWriteRows} or {@link #getPage}. May block if another
+     * transaction holds a conflicting lock on the row, its page or table.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param rid the ID of the row
+     * @param perm whether the row is to be read or written
+     */
+    public void lockRow(TransactionId tid, RecordId rid, Permissions perm)
+        throws TransactionAbortedException {
+        lockManager.lockRow(tid, rid, perm == Permissions.READ_WRITE);
+    }
+
+    /**
+     * Retrieve the version of a page a snapshot sees, without locking it.
+     * The page is read before its version chain is looked at: a commit
+     * keeps the old version of a page before it changes the page, so a
+     * commit the snapshot must not see has either not changed the page read
+     * yet, or its old version is already in the chain.
+     */
+    private Page getSnapshotPage(PageId pid, Permissions perm, ScanRing ring, long snapshot)
+        throws DbException {
+        if (perm == Permissions.READ_WRITE) {
+            throw new DbException("a read-only transaction cannot write page " + pid);
+        }
+        Page page = pageTable.get(pid);
+        if (page != null) {
+            evictionPolicy.recordAccess(pid);
+            page = page.getBeforeImage();
+        } else if (ring != null) {
+            // the ring's copy is private, so nobody changes it
+            page = ring.get(pid);
+            if (page == null) {
+                page = readFromDisk(pid);
+                ring.add(page);
+            }
+        } else {
+            page = pageTable.getOrLoad(pid, () -> loadPage(pid)).getBeforeImage();
+        }
+        Page old = versions.find(pid, snapshot);
+        return old != null ? old : page;
+    }
+
+    /**
+     * Start a snapshot for a read-only transaction: from now on it sees the
+     * database as of the last commit, and reads it without taking locks.
+     * The snapshot ends when the transaction completes.
+     *
+     * @param tid the ID of the read-only transaction
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.begin(tid);
+    }
+
+    /** @return whether a transaction reads a snapshot */
+    public boolean isSnapshot(TransactionId tid) {
+        return versions.snapshotOf(tid) != null;
+    }
+
+    /** @return the number of old page versions kept for open snapshots */
+    public int getNumVersions() {
+        return versions.numVersions();
+    }
+
+    /**
+     * Read a page from disk and install it in the page table, evicting
+     * another page first if the buffer pool is full. Only called by the one
+     * thread that won the race to load the page.
+     */
+    private Page loadPage(PageId pid) throws DbException {
+        Page page = readFromDisk(pid);
+        synchronized (this) {
+            while (pageTable.size() >= numPages) {
+                evictPage();
+            }
+            pageTable.put(pid, page);
+            evictionPolicy.recordAccess(pid);
+        }
+        return page;
+    }
+
+    /**
+     * Read a page from its DbFile, using the result of an earlier read-ahead
+     * of the page if there is one. Waits for the read-ahead if it is still
+     * in flight; falls back to a synchronous read if it failed.
+     */
+    private Page readFromDisk(PageId pid) throws DbException {
+        Future<Page> staged = prefetched.remove(pid);
+        if (staged != null) {
+            try {
+                Page page = staged.get();
+                prefetchHits.incrementAndGet();
+                return page;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for page " + pid);
+            } catch (ExecutionException | CancellationException e) {
+                // read it again below
+            }
+        }
+        prefetchMisses.incrementAndGet();
+        return Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+    }
+
+    /**
+     * Start reading a page in the background, unless it is already resident,
+     * already being read ahead, or too many read-aheads are outstanding.
+     */
+    void prefetch(PageId pid) {
+        if (pageTable.get(pid) != null || prefetched.containsKey(pid)
+                || prefetched.size() >= numPages) {
+            return;
+        }
+        prefetched.computeIfAbsent(pid, id -> PREFETCH_EXECUTOR.submit(
+                () -> Database.getCatalog().getDatabaseFile(id.getTableId()).readPage(id)));
+    }
+
+    /** Drop a read-ahead of the given page that has not been consumed. */
+    void cancelPrefetch(PageId pid) {
+        Future<Page> staged = prefetched.remove(pid);
+        if (staged != null) {
+            staged.cancel(false);
+        }
+    }
+
+    /**
+     * Returns a read-ahead for a sequential scan over a file of the given
+     * size, or null if read-ahead is switched off.
+     *
+     * @param pageIds maps a page number of the file to its PageId
+     * @param filePages the number of pages in the file
+     * @see #setReadAheadPages
+     */
+    public ReadAhead newReadAhead(IntFunction<PageId> pageIds, int filePages) {
+        if (readAheadPages <= 0) {
+            return null;
+        }
+        return new ReadAhead(this, pageIds, filePages);
+    }
+
+    /**
+     * Set how many pages past the current one a sequential scan keeps in
+     * flight. Zero switches read-ahead off for scans opened afterwards.
+     *
+     * @param pages the read-ahead distance in pages
+     */
+    public void setReadAheadPages(int pages) {
+        if (pages < 0) {
+            throw new IllegalArgumentException("read-ahead distance must not be negative");
         }
-        return pageStore.get(pid.hashCode());
+        this.readAheadPages = pages;
+    }
+
+    /** @return how many pages a sequential scan reads ahead */
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /** @return the number of pages read ahead that no one has asked for yet */
+    public int getPrefetchedPages() {
+        return prefetched.size();
+    }
+
+    /** @return the number of page reads that were served by a read-ahead */
+    public long getPrefetchHits() {
+        return prefetchHits.get();
+    }
 
+    /** @return the number of page reads that had to wait for the disk */
+    public long getPrefetchMisses() {
+        return prefetchMisses.get();
+    }
+
+    /**
+     * Returns a ring of private buffers for a sequential scan over a file of
+     * the given size, or null if the file is small enough to be cached in
+     * the buffer pool. A scan over a file that does not fit in the pool
+     * cannot be cached anyway, and would only evict everybody else's
+     * working set on its way through. A ring holds at most half as many
+     * pages as the pool, so a pool of a single page gets none, and its
+     * scans must evict like any other read.
+     *
+     * @param filePages the number of pages the scan will read
+     */
+    public ScanRing newScanRing(int filePages) {
+        int size = Math.min(Math.min(SCAN_RING_PAGES, filePages), numPages / 2);
+        if (filePages <= numPages || size == 0) {
+            return null;
+        }
+        return new ScanRing(size);
+    }
+
+    /**
+     * Returns how many bytes of working memory an operator that can spill
+     * to disk, such as a hash join, may hold before it spills: as much as
+     * this pool caches.
+     */
+    public long getOperatorMemory() {
+        return (long) numPages * pageSize;
+    }
+
+    /** @return the lock manager that keeps the page locks of this pool's transactions */
+    public LockManager getLockManager() {
+        return lockManager;
     }
 
     /**
@@ -105,6 +432,7 @@ public class BufferPool {
     public  void unsafeReleasePage(TransactionId tid, PageId pid) {
         // some code goes here
         // not necessary for lab1|lab2
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -115,13 +443,14 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
         // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
@@ -134,6 +463,43 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
+        transactionComplete(tid, commit, false);
+    }
+
+    /**
+     * Commit or abort a given transaction, and release all locks associated
+     * to it. A committing transaction may log its COMMIT record here too,
+     * after its changes and before its pages are written, so that one force
+     * of the log makes both durable. It waits for that force outside the
+     * monitor, where transactions committing at the same time share it.
+     *
+     * @param tid the ID of the transaction requesting the unlock
+     * @param commit a flag indicating whether we should commit or abort
+     * @param logCommit whether to log the COMMIT record of a committing transaction
+     */
+    public void transactionComplete(TransactionId tid, boolean commit, boolean logCommit) {
+        if (versions.snapshotOf(tid) != null) {
+            versions.end(tid);
+            if (commit && logCommit) {
+                try {
+                    Database.getLogFile().logCommit(tid);
+                } catch (IOException e) {
+                    throw new RuntimeException("could not log the commit of transaction " + tid.getId(), e);
+                }
+            }
+            return;
+        }
+        try {
+            if (commit) {
+                versions.commit(dirtiedPages(tid), new CommitFlush(tid, logCommit));
+            } else {
+                discardPages(tid);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not flush the pages of transaction " + tid.getId(), e);
+        } finally {
+            lockManager.releaseAll(tid);
+        }
     }
 
     /**
@@ -155,6 +521,8 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        installDirtyPages(tid, file.insertTuple(tid, t));
     }
 
     /**
@@ -174,6 +542,35 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (t.getRecordId() == null) {
+            throw new DbException("tuple has no record id");
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        installDirtyPages(tid, file.deleteTuple(tid, t));
+    }
+
+    /**
+     * Mark pages modified by tid as dirty and make sure the buffer pool
+     * holds exactly these versions of them.
+     */
+    private void installDirtyPages(TransactionId tid, List<Page> pages) throws DbException {
+        for (Page page : pages) {
+            page.markDirty(true, tid);
+            PageId pid = page.getId();
+            synchronized (this) {
+                Page resident = pageTable.get(pid);
+                if (resident == page) {
+                    continue;
+                }
+                if (resident == null) {
+                    while (pageTable.size() >= numPages) {
+                        evictPage();
+                    }
+                }
+                pageTable.put(pid, page);
+                evictionPolicy.recordAccess(pid);
+            }
+        }
     }
 
     /**
@@ -183,8 +580,9 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-        // not necessary for lab1
-
+        for (Page page : pageTable.pages()) {
+            flushPage(page.getId());
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -197,7 +595,9 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-        // not necessary for lab1
+        pageTable.remove(pid);
+        evictionPolicy.remove(pid);
+        cancelPrefetch(pid);
     }
 
     /**
@@ -206,7 +606,36 @@ public class BufferPool {
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
-        // not necessary for lab1
+        Page page = pageTable.get(pid);
+        if (page == null || page.isDirty() == null) {
+            return;
+        }
+        // write ahead: the change is on disk in the log before in the page
+        logChanges(page);
+        Database.getLogFile().forceTo(page.getLsn());
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        Database.getLogFile().logWritten(pid);
+        page.markDirty(false, null);
+        // a read-ahead of this page may have seen the old contents
+        cancelPrefetch(pid);
+    }
+
+    /**
+     * Log the changes to a page since it was last written, for each
+     * transaction that made them.
+     */
+    private void logChanges(Page page) throws IOException {
+        Page before = page.getBeforeImage();
+        if (page instanceof HeapPage) {
+            Set<TransactionId> writers = ((HeapPage) page).getPendingWriters();
+            if (!writers.isEmpty()) {
+                for (TransactionId tid : writers) {
+                    Database.getLogFile().logWrite(tid, before, page);
+                }
+                return;
+            }
+        }
+        Database.getLogFile().logWrite(page.isDirty(), before, page);
     }
 
     /** Write all pages of the specified transaction to disk.
@@ -214,15 +643,206 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
+        List<Page> writes = logPages(tid);
+        if (writes.isEmpty()) {
+            return;
+        }
+        Database.getLogFile().forceTo(lastLsn(writes));
+        writePages(writes);
+    }
+
+    /**
+     * Log the changes of a transaction to the pages it dirtied, every page
+     * before writing any, so that the log is forced once. The pages stay
+     * dirty until they are written, so that a checkpoint meanwhile writes
+     * them too.
+     *
+     * @return the pages to write
+     */
+    private synchronized List<Page> logPages(TransactionId tid) throws IOException {
+        List<Page> writes = new ArrayList<>();
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Page page = pageTable.get(pid);
+            if (page == null) {
+                continue;
+            }
+            if (hasPendingRows(page, tid)) {
+                // write only this transaction's rows; others may be changing the page too
+                Page before = page.getBeforeImage();
+                try {
+                    Page committed = ((HeapPage) page).commitRows(tid);
+                    Database.getLogFile().logWrite(tid, before, committed);
+                    writes.add(committed);
+                } catch (DbException e) {
+                    throw new IOException("could not commit the rows of page " + pid, e);
+                }
+            } else if (tid.equals(page.isDirty())) {
+                Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                writes.add(page);
+            }
+        }
+        return writes;
+    }
+
+    /** @return the LSN of the last change logged to any of the given pages */
+    private static long lastLsn(List<Page> pages) {
+        long lsn = -1;
+        for (Page page : pages) {
+            lsn = Math.max(lsn, page.getLsn());
+        }
+        return lsn;
+    }
+
+    /**
+     * Write pages returned by {@link #logPages}, once their changes are on
+     * disk in the log, and mark their cached versions clean.
+     */
+    private synchronized void writePages(List<Page> writes) throws IOException {
+        for (Page page : writes) {
+            PageId pid = page.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            Database.getLogFile().logWritten(pid);
+            Page cached = pageTable.get(pid);
+            if (cached == page) {
+                page.setBeforeImage();
+            }
+            if (cached != null) {
+                // rows other transactions changed keep it dirty
+                cached.markDirty(false, null);
+            }
+            // a read-ahead of this page may have seen the old contents
+            cancelPrefetch(pid);
+        }
+    }
+
+    /**
+     * Commits the pages of a transaction for the {@link VersionStore}: logs
+     * the changes, and the COMMIT record if asked to, then waits for the log
+     * to reach disk outside the monitor, where other commits share the
+     * force, and writes the pages.
+     */
+    private final class CommitFlush implements VersionStore.Flush {
+        private final TransactionId tid;
+        private final boolean logCommit;
+        private List<Page> writes;
+        private CompletableFuture<Void> durable;
+
+        CommitFlush(TransactionId tid, boolean logCommit) {
+            this.tid = tid;
+            this.logCommit = logCommit;
+        }
+
+        @Override
+        public void log() throws IOException {
+            synchronized (BufferPool.this) {
+                writes = logPages(tid);
+                if (logCommit) {
+                    durable = Database.getLogFile().appendCommit(tid);
+                } else if (!writes.isEmpty()) {
+                    durable = Database.getLogFile().durableTo(lastLsn(writes));
+                }
+            }
+        }
+
+        @Override
+        public void awaitDurable() throws IOException {
+            if (durable != null) {
+                LogFile.awaitDurable(durable);
+            }
+        }
+
+        @Override
+        public void write() throws IOException {
+            if (!writes.isEmpty()) {
+                writePages(writes);
+            }
+        }
+    }
+
+    /**
+     * Throw away what a rolled back transaction did to a cached page, now
+     * that the page is undone on disk. Other transactions' rows stay.
+     */
+    synchronized void discardChanges(TransactionId tid, PageId pid) throws IOException {
+        Page page = pageTable.get(pid);
+        if (page instanceof HeapPage && ((HeapPage) page).hasOtherWriters(tid)) {
+            try {
+                ((HeapPage) page).rollbackRows(tid);
+            } catch (DbException e) {
+                throw new IOException("could not roll back the rows of page " + pid, e);
+            }
+        } else {
+            discardPage(pid);
+        }
+    }
+
+    /** @return whether a transaction changed rows of a page without committing them */
+    private static boolean hasPendingRows(Page page, TransactionId tid) {
+        return page instanceof HeapPage && ((HeapPage) page).hasPendingRows(tid);
+    }
+
+    /** @return the pages in the buffer pool a transaction dirtied */
+    private synchronized List<Page> dirtiedPages(TransactionId tid) {
+        List<Page> pages = new ArrayList<>();
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Page page = pageTable.get(pid);
+            if (page != null && (tid.equals(page.isDirty()) || hasPendingRows(page, tid))) {
+                pages.add(page);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Drop the pages an aborting transaction dirtied, so that they are read
+     * again from disk, which holds their last committed version (NO STEAL).
+     * Pages whose rows it changed are rolled back in place instead, since
+     * other transactions may have changed other rows.
+     */
+    private synchronized void discardPages(TransactionId tid) throws IOException {
+        for (PageId pid : lockManager.getLockedPages(tid)) {
+            Page page = pageTable.get(pid);
+            if (page == null) {
+                continue;
+            }
+            if (hasPendingRows(page, tid)) {
+                try {
+                    ((HeapPage) page).rollbackRows(tid);
+                } catch (DbException e) {
+                    throw new IOException("could not roll back the rows of page " + pid, e);
+                }
+                page.markDirty(false, null);
+            } else if (tid.equals(page.isDirty())) {
+                discardPage(pid);
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is picked by the {@link EvictionPolicy}; dirty pages are
+     * never chosen, so uncommitted data never reaches disk (NO STEAL). Nor
+     * are pages whose rows a transaction is changing, which it holds on to
+     * between locking a row and changing it.
+     *
+     * @throws DbException if every page in the buffer pool is dirty
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
-        // not necessary for lab1
+        PageId victim = evictionPolicy.chooseVictim(pid -> {
+            Page page = pageTable.get(pid);
+            return page == null || (page.isDirty() == null && !lockManager.hasRowWriters(pid));
+        });
+        if (victim == null) {
+            throw new DbException("all pages in the buffer pool are dirty");
+        }
+        try {
+            flushPage(victim);
+        } catch (IOException e) {
+            throw new DbException("could not flush page " + victim + ": " + e.getMessage());
+        }
+        discardPage(victim);
     }
 
 }
@@ -0,0 +1,53 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Second-chance (CLOCK) approximation of LRU. Every resident page sits on a
+ * circular list with a reference bit; a hit only sets the bit, so recording an
+ * access is cheap. To find a victim the clock hand sweeps the list, clearing
+ * set bits, and stops at the first evictable page whose bit is already clear.
+ *
+ * @Threadsafe
+ */
+public class ClockEvictionPolicy implements EvictionPolicy {
+
+    private final List<PageId> frames = new ArrayList<>();
+    private final Map<PageId, Boolean> referenced = new HashMap<>();
+    private int hand = 0;
+
+    public synchronized void recordAccess(PageId pid) {
+        if (referenced.put(pid, Boolean.TRUE) == null)
+            frames.add(pid);
+    }
+
+    public synchronized void remove(PageId pid) {
+        if (referenced.remove(pid) == null)
+            return;
+        int idx = frames.indexOf(pid);
+        frames.remove(idx);
+        if (idx < hand)
+            hand--;
+        if (hand >= frames.size())
+            hand = 0;
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        // two full sweeps: the first may only clear reference bits
+        for (int steps = 0; steps < 2 * frames.size(); steps++) {
+            PageId pid = frames.get(hand);
+            hand = (hand + 1) % frames.size();
+            if (!evictable.test(pid))
+                continue;
+            if (referenced.get(pid))
+                referenced.put(pid, Boolean.FALSE);
+            else
+                return pid;
+        }
+        return null;
+    }
+}
@@ -93,4 +93,12 @@ public interface DbFile {
      * @return TupleDesc of this DbFile.
      */
     TupleDesc getTupleDesc();
+
+    /**
+     * Release the resources, such as open files, this DbFile holds. Called
+     * when the table is dropped from or replaced in the catalog; the file
+     * may still be used afterwards, and then acquires them again.
+     */
+    default void close() throws IOException {
+    }
 }
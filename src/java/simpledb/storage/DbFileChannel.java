@@ -0,0 +1,135 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DbFileChannel is the long-lived handle a {@link DbFile} uses to read and
+ * write its backing file. It opens one {@link FileChannel} on first use and
+ * keeps it for the lifetime of the DbFile; all I/O is positional, so
+ * concurrent readers never share or move a file pointer.
+ * <p>
+ * In memory-mapped mode reads are served from a read-only
+ * {@link MappedByteBuffer} over the file, which avoids a system call per page
+ * miss. Writes always go through the channel and drop the mapping, which is
+ * rebuilt on the next read, so this mode only pays off for read-mostly
+ * files.
+ *
+ * @Threadsafe
+ */
+public class DbFileChannel {
+
+    private final File file;
+    private FileChannel channel; // protected by this
+    private volatile boolean memoryMapped = false;
+    private MappedByteBuffer mapped; // protected by this
+
+    public DbFileChannel(File file) {
+        this.file = file;
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            try {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            } catch (AccessDeniedException e) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Switch memory-mapped reads on or off.
+     *
+     * @param memoryMapped true to serve reads from a mapping of the file
+     */
+    public synchronized void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        this.mapped = null;
+    }
+
+    /** @return true if reads are served from a mapping of the file */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns a mapping that covers [position, position + length), remapping
+     * the file if it grew since it was last mapped, or null if the range lies
+     * beyond the end of the file or cannot be mapped.
+     */
+    private synchronized ByteBuffer mappedRange(long position, int length) throws IOException {
+        long end = position + length;
+        if (mapped == null || mapped.capacity() < end) {
+            long size = channel().size();
+            if (size < end || size > Integer.MAX_VALUE)
+                return null;
+            mapped = channel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped;
+    }
+
+    /**
+     * Read up to buf.length bytes starting at the given file offset. Bytes
+     * beyond the end of the file are left untouched.
+     *
+     * @return the number of bytes read, or -1 if position is at or past the
+     *   end of the file
+     */
+    public int read(byte[] buf, long position) throws IOException {
+        if (memoryMapped) {
+            ByteBuffer region = mappedRange(position, buf.length);
+            if (region != null) {
+                ByteBuffer view = region.duplicate();
+                view.position((int) position);
+                view.get(buf);
+                return buf.length;
+            }
+        }
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        FileChannel ch = channel();
+        int total = 0;
+        while (bb.hasRemaining()) {
+            int n = ch.read(bb, position + total);
+            if (n < 0)
+                break;
+            total += n;
+        }
+        return total == 0 && buf.length > 0 ? -1 : total;
+    }
+
+    /** Write all of data starting at the given file offset. */
+    public void write(byte[] data, long position) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        FileChannel ch = channel();
+        while (bb.hasRemaining()) {
+            position += ch.write(bb, position);
+        }
+        if (memoryMapped) {
+            synchronized (this) {
+                mapped = null;
+            }
+        }
+    }
+
+    /** @return the current length of the file in bytes */
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    /** Close the channel; it is reopened if the file is used again. */
+    public synchronized void close() throws IOException {
+        mapped = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
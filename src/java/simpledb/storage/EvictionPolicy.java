@@ -0,0 +1,47 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * EvictionPolicy decides which resident page the {@link BufferPool} should
+ * give up when it runs out of room. The BufferPool reports every page access
+ * and every page that leaves the pool; the policy only keeps the bookkeeping
+ * needed to pick a victim and never touches the pages themselves.
+ * <p>
+ * A policy instance belongs to exactly one BufferPool, so implementations
+ * may keep per-pool state. They must be threadsafe, since getPage is called
+ * concurrently by many transactions.
+ *
+ * @see LruEvictionPolicy
+ * @see ClockEvictionPolicy
+ * @see LruKEvictionPolicy
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Record a reference to the specified page. Called both when a page is
+     * first brought into the pool and on every later hit.
+     *
+     * @param pid the id of the page that was referenced
+     */
+    void recordAccess(PageId pid);
+
+    /**
+     * Forget about the specified page, because it was evicted or discarded
+     * from the pool. Unknown pages are ignored.
+     *
+     * @param pid the id of the page that left the pool
+     */
+    void remove(PageId pid);
+
+    /**
+     * Choose the page that should be evicted next. The page is not removed
+     * from the policy; the BufferPool calls {@link #remove} once the page is
+     * actually gone.
+     *
+     * @param evictable tells whether a page may be evicted right now (for
+     *   example, dirty pages may not be under NO STEAL)
+     * @return the id of the victim, or null if no evictable page exists
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
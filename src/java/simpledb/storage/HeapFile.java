@@ -24,6 +24,7 @@ public class HeapFile implements DbFile {
 
       private File file;
     private TupleDesc td;
+    private final DbFileChannel channel;
 
     private int offset;
     private HeapPageId [] pageIdList;
@@ -41,7 +42,7 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.file = f;
         this.td = td;
-
+        this.channel = new DbFileChannel(f);
 
 
     }
@@ -82,19 +83,31 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Serve page reads of this file from a memory mapping instead of
+     * positional reads. Worth it for tables that are read far more often
+     * than they are written, since every write drops the mapping.
+     *
+     * @param memoryMapped true to memory-map the file
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        channel.setMemoryMapped(memoryMapped);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
         int pageNo = pid.getPageNumber();
         int pageSize = BufferPool.getPageSize();
         try {
-            RandomAccessFile curFile = new RandomAccessFile(this.file, "r");
             byte[] data = new byte[pageSize];
-            curFile.seek((long) pageNo * pageSize);
-            curFile.read(data);
-            HeapPage curPage = new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
-            curFile.close();
-            return curPage;
+            channel.read(data, (long) pageNo * pageSize);
+            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -104,7 +117,8 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
-        // not necessary for lab1
+        int pageSize = BufferPool.getPageSize();
+        channel.write(page.getPageData(), (long) page.getId().getPageNumber() * pageSize);
     }
 
     /**
@@ -120,16 +134,59 @@ public class HeapFile implements DbFile {
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        BufferPool pool = Database.getBufferPool();
+        for (int i = 0; i < numPages(); i++) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            // look for room under a lock other inserters share, and give it back if there is none
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPageToWriteRows(tid, pid);
+            if (page.getNumEmptySlots() > 0) {
+                try {
+                    page.insertTuple(t, tid);
+                    pool.lockRow(tid, t.getRecordId(), Permissions.READ_WRITE);
+                    return Collections.singletonList(page);
+                } catch (DbException e) {
+                    // another inserter took the last slot, or a variable-length
+                    // tuple larger than the page's free space
+                }
+            }
+            if (!held) {
+                pool.unsafeReleasePage(tid, pid);
+            }
+        }
+
+        // every page is full: append an empty one
+        HeapPageId pid;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        }
+        HeapPage page = (HeapPage) pool.getPageToWriteRows(tid, pid);
+        page.insertTuple(t, tid);
+        pool.lockRow(tid, t.getRecordId(), Permissions.READ_WRITE);
+        return Collections.singletonList(page);
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
         // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not a member of this file");
+        }
+        BufferPool pool = Database.getBufferPool();
+        HeapPage page = (HeapPage) pool.getPageToWriteRows(tid, rid.getPageId());
+        pool.lockRow(tid, rid, Permissions.READ_WRITE);
+        page.deleteTuple(t, tid);
+        ArrayList<Page> dirtied = new ArrayList<>();
+        dirtied.add(page);
+        return dirtied;
     }
 
     // see DbFile.java for javadocs
@@ -140,10 +197,14 @@ public class HeapFile implements DbFile {
 }
 
 
- class HeapFileIterator implements DbFileIterator {
+ class HeapFileIterator implements BatchDbFileIterator {
 
     private int curPageNo;
 
+    private HeapPage curPage;
+
+    private int batchSlot;
+
     private int pageNum;
 
     private Iterator<Tuple> iterator;
@@ -152,6 +213,10 @@ public class HeapFile implements DbFile {
 
     private TransactionId tid;
 
+    private ScanRing ring;
+
+    private ReadAhead readAhead;
+
     public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
         this.heapFile = heapFile;
         this.tid = tid;
@@ -161,13 +226,21 @@ public class HeapFile implements DbFile {
 
     public Iterator<Tuple> getNextPage(HeapPageId id) throws TransactionAbortedException, DbException {
         BufferPool pool = Database.getBufferPool();  // 从bufferpool中读取page，如果没有再从磁盘读（getPage中有判断）
-        HeapPage page = (HeapPage) pool.getPage(this.tid, id, Permissions.READ_ONLY);
-        return page.iterator();
+        if (this.readAhead != null) {
+            this.readAhead.access(id.getPageNumber());
+        }
+        this.curPage = (HeapPage) pool.getPage(this.tid, id, Permissions.READ_ONLY, this.ring);
+        this.batchSlot = 0;
+        return this.curPage.iterator();
     }
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
         this.curPageNo = 0;
+        this.ring = Database.getBufferPool().newScanRing(pageNum);
+        final int tableId = this.heapFile.getId();
+        this.readAhead = Database.getBufferPool().newReadAhead(
+                pgNo -> new HeapPageId(tableId, pgNo), pageNum);
         HeapPageId pageId = new HeapPageId(this.heapFile.getId(), 0);  // table和HeapFile一一对应
         this.iterator = this.getNextPage(pageId);
     }
@@ -177,19 +250,15 @@ public class HeapFile implements DbFile {
         if (this.iterator == null) {
             return false;
         }
-        if (this.iterator.hasNext()) {
-            return true;
-        } else {
+        // skip over pages without tuples
+        while (!this.iterator.hasNext()) {
             this.curPageNo += 1;
             if (this.curPageNo >= pageNum) {
                 return false;
             }
             this.iterator = this.getNextPage(new HeapPageId(this.heapFile.getId(), this.curPageNo));
-            if (this.iterator == null) {
-                return false;
-            }
-            return this.iterator.hasNext();
         }
+        return true;
     }
 
     @Override
@@ -200,6 +269,22 @@ public class HeapFile implements DbFile {
         return this.iterator.next();
     }
 
+    @Override
+    public boolean nextBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+        batch.clear();
+        if (this.curPage == null) {
+            return false;
+        }
+        while (true) {
+            this.batchSlot = this.curPage.fillBatch(batch, this.batchSlot);
+            if (batch.isFull() || this.curPageNo + 1 >= pageNum) {
+                return batch.size() > 0;
+            }
+            this.curPageNo += 1;
+            this.iterator = this.getNextPage(new HeapPageId(this.heapFile.getId(), this.curPageNo));
+        }
+    }
+
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
         this.close();
@@ -209,5 +294,15 @@ public class HeapFile implements DbFile {
     @Override
     public void close() {
         this.iterator = null;
+        this.curPage = null;
+        if (this.ring != null) {
+            // release the ring's pages now rather than whenever the iterator is dropped
+            this.ring.clear();
+            this.ring = null;
+        }
+        if (this.readAhead != null) {
+            this.readAhead.close();
+            this.readAhead = null;
+        }
     }
 }
\ No newline at end of file
@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -93,6 +95,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (int i = 0; i < numFields; i++) {
+          if (!typeAr[i].isFixedLength()) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -224,4 +233,66 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert the specified input text file into a binary page file of
+   * slotted pages, for tuples with variable-length fields. The input format
+   * is the same as for
+   * {@link #convert(File, File, int, int, Type[], char)}; each page holds as
+   * many tuples as fit.
+   *
+   * @see HeapPage
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    FileOutputStream os = new FileOutputStream(outFile);
+
+    List<byte[]> page = new ArrayList<>();
+    int pageBytes = 0;
+    int npages = 0;
+    String line;
+    while ((line = br.readLine()) != null) {
+        if (line.isEmpty())
+            continue;
+        String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+        ByteArrayOutputStream tupleBAOS = new ByteArrayOutputStream();
+        DataOutputStream tupleStream = new DataOutputStream(tupleBAOS);
+        for (int i = 0; i < numFields; i++) {
+            String s = i < values.length ? values[i].trim() : "";
+            Field f;
+            if (typeAr[i] == Type.INT_TYPE) {
+                int v = 0;
+                try {
+                    v = Integer.parseInt(s);
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+                f = new IntField(v);
+            } else {
+                f = new StringField(s, Type.STRING_LEN);
+            }
+            typeAr[i].serialize(f, tupleStream);
+        }
+        tupleStream.flush();
+        byte[] tuple = tupleBAOS.toByteArray();
+
+        // start a new page if this tuple does not fit on the current one
+        if (!HeapPage.fitsSlotted(page.size() + 1, pageBytes + tuple.length, npagebytes)) {
+            os.write(HeapPage.createSlottedPageData(page, npagebytes));
+            npages++;
+            page.clear();
+            pageBytes = 0;
+        }
+        page.add(tuple);
+        pageBytes += tuple.length;
+    }
+
+    // flush the last page; an empty file still gets one empty page
+    if (!page.isEmpty() || npages == 0)
+        os.write(HeapPage.createSlottedPageData(page, npagebytes));
+    br.close();
+    os.close();
+  }
 }
@@ -12,20 +12,70 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Pages of tables whose tuples all have the same size use a bitmap header
+ * followed by fixed-size tuple slots. Pages of tables with variable-length
+ * fields (see {@link TupleDesc#isFixedLength()}) are slotted pages instead;
+ * see {@link #HeapPage} for both formats.
+ * <p>
+ * Several transactions may change different rows of a page at once (see
+ * {@link #insertTuple(Tuple, TransactionId)}). The page remembers which
+ * slots each of them changed, so that one can commit its rows while the
+ * others' stay uncommitted ({@link #commitRows}), or roll them back
+ * ({@link #rollbackRows}). A slot changed by a transaction that has not
+ * completed is not reused, and the bytes of a tuple it deleted stay
+ * reserved, so that the tuple can always be put back.
  *
  * @see HeapFile
  * @see BufferPool
  */
 public class HeapPage implements Page {
 
+    /** Bytes at the start of a slotted page: slot count and free-space pointer. */
+    static final int SLOTTED_HEADER_SIZE = 4;
+
+    /** Bytes per slot directory entry of a slotted page: tuple offset and length. */
+    static final int SLOT_ENTRY_SIZE = 4;
+
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
     final Tuple[] tuples;
     final int numSlots;
 
+    /** True if this page uses the slotted format for variable-length tuples. */
+    final boolean slotted;
+
+    // slotted pages only: where each tuple read from disk starts in data,
+    // how many bytes each tuple takes, and how many bytes all tuples take
+    private final int[] slotOffset;
+    private final int[] slotLength;
+    private int usedBytes;
+
+    /** The bytes this page was read from; shared with its tuples, never modified. */
+    private final byte[] data;
+
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
+
+    private volatile TransactionId dirtier;
+
+    private volatile long lsn = -1;
+
+    /** A slot changed by a transaction that has not completed. */
+    private static final class PendingRow {
+        final TransactionId tid;
+        /** Whether the slot held a committed tuple before the change. */
+        final boolean wasUsed;
+
+        PendingRow(TransactionId tid, boolean wasUsed) {
+            this.tid = tid;
+            this.wasUsed = wasUsed;
+        }
+    }
+
+    /** The slots changed by transactions that have not completed; guarded by this. */
+    private final Map<Integer, PendingRow> pending = new HashMap<>();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -39,6 +89,14 @@ public class HeapPage implements Page {
      * <p>
      * ceiling(no. tuple slots / 8)
      * <p>
+     * If the tuples of the table have variable-length fields, the page is a
+     * slotted page instead. It starts with the number of slot directory
+     * entries and a pointer to the start of the tuple data, followed by the
+     * slot directory itself: the offset and length of the tuple in each
+     * slot, or an offset of zero for an empty slot. Tuples are packed
+     * against the end of the page, so the free space lies between the
+     * directory and the tuple data. All of these are unsigned two byte
+     * values, so slotted pages can be at most 64KB.
      *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
@@ -47,25 +105,40 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.slotted = !td.isFixedLength();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
+        this.data = data;
+
+        if (!slotted) {
+            // allocate and read the header slots of this page
+            header = Arrays.copyOf(data, getHeaderSize());
+            slotOffset = null;
+            slotLength = null;
+        } else {
+            // keep the slot directory in memory as a bitmap plus offsets
+            header = new byte[getHeaderSize()];
+            slotOffset = new int[numSlots];
+            slotLength = new int[numSlots];
+            int count = data.length < SLOTTED_HEADER_SIZE ? 0 : Math.min(readShort(data, 0), numSlots);
+            for (int i = 0; i < count; i++) {
+                int entry = SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE;
+                int off = readShort(data, entry);
+                if (off != 0) {
+                    markSlotUsed(i, true);
+                    slotOffset[i] = off;
+                    slotLength[i] = readShort(data, entry + 2);
+                    usedBytes += slotLength[i];
+                }
+            }
+        }
 
+        // tuples are read lazily, straight out of data; see tupleAt
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
 
-        setBeforeImage();
+        // data is never written to, so it is also the before image
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
     }
 
     /**
@@ -75,6 +148,10 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
+        if (slotted) {
+            // as many as fit if every tuple took the least space it can
+            return (BufferPool.getPageSize() - SLOTTED_HEADER_SIZE) / (SLOT_ENTRY_SIZE + td.getMinSize());
+        }
         return Math.floorDiv(BufferPool.getPageSize() * 8, td.getSize() * 8 + 1);
     }
 
@@ -84,13 +161,7 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {
-//        if (header == null ){
-//            return 0;
-//        }
-        double x = Math.floorDiv(BufferPool.getPageSize() * 8, td.getSize() * 8 + 1);
-        double y = Math.ceil(x / 8);
-        return (int) y;
-
+        return (numSlots + 7) / 8;
     }
 
     /**
@@ -113,8 +184,10 @@ public class HeapPage implements Page {
     }
 
     public void setBeforeImage() {
+        // getPageData locks the page, which must not be done under oldDataLock
+        byte[] current = getPageData();
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = current;
         }
     }
 
@@ -127,37 +200,63 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Return the tuple in the given slot, or null if the slot is empty. A
+     * tuple that has not been touched since the page was read is returned
+     * as a {@link PageTuple} over the page bytes.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null && isSlotUsed(slotId)) {
+            t = new PageTuple(td, data, tupleOffset(slotId), new RecordId(pid, slotId));
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /** @return the offset of the given slot within the page bytes */
+    private int tupleOffset(int slotId) {
+        if (slotted) {
+            return slotOffset[slotId];
+        }
+        return header.length + slotId * td.getSize();
+    }
+
+    /** @return the serialized form of t, laid out as described by td */
+    private byte[] serialize(Tuple t) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                td.getFieldType(j).serialize(t.getField(j), dos);
             }
-        } catch (java.text.ParseException e) {
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+        return baos.toByteArray();
+    }
 
-        return t;
+    /** @return true if the tuple in the given slot is still the one in data */
+    private boolean unchanged(int slotId) {
+        Tuple t = tuples[slotId];
+        return t == null
+                || (t instanceof PageTuple && ((PageTuple) t).isBackedBy(data, tupleOffset(slotId)));
+    }
+
+    /** @return the number of slot directory entries a slotted page needs */
+    private int directorySize() {
+        int n = numSlots;
+        while (n > 0 && !isSlotUsed(n - 1) && !pending.containsKey(n - 1)) {
+            n--;
+        }
+        return n;
+    }
+
+    /** @return the free bytes of a slotted page with the given directory size */
+    private int freeSpace(int directorySize) {
+        return BufferPool.getPageSize() - SLOTTED_HEADER_SIZE
+                - directorySize * SLOT_ENTRY_SIZE - usedBytes;
     }
 
     /**
@@ -171,65 +270,44 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      * @see #HeapPage
      */
-    public byte[] getPageData() {
+    public synchronized byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
+        if (slotted) {
+            // rewriting the tuple data also squeezes out space freed by deletes
+            int count = directorySize();
+            List<byte[]> slots = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (!isSlotUsed(i)) {
+                    slots.add(null);
+                } else if (unchanged(i)) {
+                    slots.add(Arrays.copyOfRange(data, slotOffset[i], slotOffset[i] + slotLength[i]));
+                } else {
+                    slots.add(serialize(tuples[i]));
+                }
             }
+            return createSlottedPageData(slots, len);
         }
 
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        byte[] out = new byte[len];
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        // create the header of the page
+        System.arraycopy(header, 0, out, 0, header.length);
 
-                }
+        // create the tuples; empty slots and padding stay zero
+        int size = td.getSize();
+        for (int i = 0; i < tuples.length; i++) {
+            if (!isSlotUsed(i)) {
                 continue;
             }
-
-            // non-empty slot
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+            int off = tupleOffset(i);
+            if (unchanged(i)) {
+                System.arraycopy(data, off, out, off, size);
+            } else {
+                System.arraycopy(serialize(tuples[i]), 0, out, off, size);
             }
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -246,6 +324,50 @@ public class HeapPage implements Page {
         return new byte[len]; //all 0
     }
 
+    /**
+     * @return true if a slotted page with the given number of slot directory
+     *   entries and bytes of tuple data fits in a page of pageSize bytes
+     */
+    static boolean fitsSlotted(int directorySize, int tupleBytes, int pageSize) {
+        return SLOTTED_HEADER_SIZE + directorySize * SLOT_ENTRY_SIZE + tupleBytes <= pageSize;
+    }
+
+    /**
+     * Lay out a slotted page holding the given serialized tuples.
+     *
+     * @param slots the serialized tuple in each slot, or null for an empty
+     *   slot; must fit, see {@link #fitsSlotted}
+     * @param pageSize the size of the page in bytes
+     * @return the bytes of the page
+     */
+    static byte[] createSlottedPageData(List<byte[]> slots, int pageSize) {
+        byte[] out = new byte[pageSize];
+        writeShort(out, 0, slots.size());
+        int free = pageSize;
+        for (int i = 0; i < slots.size(); i++) {
+            byte[] t = slots.get(i);
+            if (t == null) {
+                continue;
+            }
+            free -= t.length;
+            System.arraycopy(t, 0, out, free, t.length);
+            int entry = SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE;
+            writeShort(out, entry, free);
+            writeShort(out, entry + 2, t.length);
+        }
+        writeShort(out, 2, free);
+        return out;
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+    private static void writeShort(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 8);
+        data[offset + 1] = (byte) value;
+    }
+
     /**
      * Delete the specified tuple from the page; the corresponding header bit should be updated to reflect
      * that it is no longer stored on any page.
@@ -254,9 +376,66 @@ public class HeapPage implements Page {
      * @throws DbException if this tuple is not on this page, or tuple slot is
      *                     already empty.
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        clearSlot(slotOf(t));
+    }
+
+    /**
+     * Delete the specified tuple from the page on behalf of a transaction
+     * that has locked its row, remembering the change so that it can be
+     * committed or rolled back on its own.
+     *
+     * @param t The tuple to delete
+     * @param tid the transaction deleting the tuple
+     * @throws DbException if this tuple is not on this page, its slot is
+     *   already empty, or another transaction has changed it
+     */
+    public synchronized void deleteTuple(Tuple t, TransactionId tid) throws DbException {
+        int i = slotOf(t);
+        PendingRow p = pending.get(i);
+        if (p != null && !p.tid.equals(tid)) {
+            throw new DbException("tuple is being changed by another transaction");
+        }
+        if (p != null) {
+            // the transaction's own insert: nothing to put back
+            clearSlot(i);
+            return;
+        }
+        if (!isSlotUsed(i)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        // keep the tuple's bytes, in case it has to be put back
+        markSlotUsed(i, false);
+        tuples[i] = null;
+        if (slotted) {
+            slotOffset[i] = 0;
+        }
+        pending.put(i, new PendingRow(tid, true));
+    }
+
+    /** @return the slot of a tuple on this page */
+    private int slotOf(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId())) {
+            throw new DbException("tuple is not on this page");
+        }
+        return rid.getTupleNumber();
+    }
+
+    /** Empty a slot, freeing the bytes of its tuple. */
+    private void clearSlot(int i) throws DbException {
+        if (!isSlotUsed(i)) {
+            throw new DbException("tuple slot is already empty");
+        }
+        markSlotUsed(i, false);
+        tuples[i] = null;
+        if (slotted) {
+            usedBytes -= slotLength[i];
+            slotLength[i] = 0;
+            slotOffset[i] = 0;
+        }
     }
 
     /**
@@ -267,9 +446,194 @@ public class HeapPage implements Page {
      * @throws DbException if the page is full (no empty slots) or tupledesc
      *                     is mismatch.
      */
-    public void insertTuple(Tuple t) throws DbException {
+    public synchronized void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (!td.equals(t.getTupleDesc())) {
+            throw new DbException("tupledesc is mismatch");
+        }
+        int slot = 0;
+        while (slot < numSlots && (isSlotUsed(slot) || pending.containsKey(slot))) {
+            slot++;
+        }
+        if (slot == numSlots) {
+            throw new DbException("page is full");
+        }
+        placeTuple(slot, t);
+    }
+
+    /**
+     * Adds the specified tuple to the page on behalf of a transaction that
+     * will lock its row, remembering the change so that it can be committed
+     * or rolled back on its own.
+     *
+     * @param t The tuple to add.
+     * @param tid the transaction adding the tuple
+     * @throws DbException if the page is full (no empty slots) or tupledesc
+     *                     is mismatch.
+     */
+    public synchronized void insertTuple(Tuple t, TransactionId tid) throws DbException {
+        insertTuple(t);
+        pending.put(t.getRecordId().getTupleNumber(), new PendingRow(tid, false));
+    }
+
+    /** Put a tuple into an empty slot. */
+    private void placeTuple(int slot, Tuple t) throws DbException {
+        if (slotted) {
+            int len = 0;
+            for (int j = 0; j < td.numFields(); j++) {
+                len += td.getFieldType(j).getLen(t.getField(j));
+            }
+            if (freeSpace(Math.max(directorySize(), slot + 1)) < len) {
+                throw new DbException("page is full");
+            }
+            slotOffset[slot] = 0;
+            slotLength[slot] = len;
+            usedBytes += len;
+        }
+        markSlotUsed(slot, true);
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /** @return whether the given transaction has changed rows of this page that it has not committed */
+    public synchronized boolean hasPendingRows(TransactionId tid) {
+        for (PendingRow p : pending.values()) {
+            if (p.tid.equals(tid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the slots the given transaction has changed and not yet committed */
+    synchronized Set<Integer> getPendingSlots(TransactionId tid) {
+        Set<Integer> slots = new HashSet<>();
+        for (Map.Entry<Integer, PendingRow> e : pending.entrySet()) {
+            if (e.getValue().tid.equals(tid)) {
+                slots.add(e.getKey());
+            }
+        }
+        return slots;
+    }
+
+    /** @return the transactions that have changed rows of this page and not yet completed */
+    synchronized Set<TransactionId> getPendingWriters() {
+        Set<TransactionId> writers = new HashSet<>();
+        for (PendingRow p : pending.values()) {
+            writers.add(p.tid);
+        }
+        return writers;
+    }
+
+    /** @return whether a transaction other than the given one has uncommitted rows on this page */
+    synchronized boolean hasOtherWriters(TransactionId tid) {
+        for (PendingRow p : pending.values()) {
+            if (!p.tid.equals(tid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the serialized tuple in a slot -- used by logging
+     *
+     * @return the bytes of the tuple, or null if the slot is empty
+     */
+    synchronized byte[] getSlotData(int slot) {
+        if (!isSlotUsed(slot)) {
+            return null;
+        }
+        if (unchanged(slot)) {
+            int off = tupleOffset(slot);
+            return Arrays.copyOfRange(data, off, off + (slotted ? slotLength[slot] : td.getSize()));
+        }
+        return serialize(tuples[slot]);
+    }
+
+    /**
+     * Put a serialized tuple into a slot, replacing whatever it held, or
+     * empty the slot -- used by recovery
+     *
+     * @param bytes the tuple, as returned by {@link #getSlotData}, or null
+     * @throws DbException if the tuple does not fit
+     */
+    synchronized void setSlotData(int slot, byte[] bytes) throws DbException {
+        if (isSlotUsed(slot)) {
+            clearSlot(slot);
+        }
+        if (bytes != null) {
+            placeTuple(slot, new PageTuple(td, bytes, 0, new RecordId(pid, slot)));
+        }
+    }
+
+    /**
+     * Commit the rows of this page a transaction changed: its changes become
+     * part of the before image, while other transactions' stay pending.
+     *
+     * @param tid the committing transaction
+     * @return the page as of the commit, with the changes of every other
+     *   transaction left out, to be written to disk
+     */
+    public synchronized HeapPage commitRows(TransactionId tid) throws DbException {
+        HeapPage committed = getBeforeImage();
+        for (Iterator<Map.Entry<Integer, PendingRow>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, PendingRow> e = it.next();
+            if (!e.getValue().tid.equals(tid)) {
+                continue;
+            }
+            int i = e.getKey();
+            if (committed.isSlotUsed(i)) {
+                committed.clearSlot(i);
+            }
+            if (isSlotUsed(i)) {
+                committed.placeTuple(i, tupleAt(i));
+            } else if (e.getValue().wasUsed && slotted) {
+                // the deleted tuple cannot come back any more
+                usedBytes -= slotLength[i];
+                slotLength[i] = 0;
+            }
+            it.remove();
+        }
+        byte[] data = committed.getPageData();
+        synchronized (oldDataLock) {
+            oldData = data;
+        }
+        try {
+            return new HeapPage(pid, data);
+        } catch (IOException e) {
+            throw new DbException("could not read back page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Undo the changes a transaction made to rows of this page, leaving
+     * other transactions' changes in place.
+     *
+     * @param tid the aborting transaction
+     */
+    public synchronized void rollbackRows(TransactionId tid) throws DbException {
+        HeapPage committed = null;
+        for (Iterator<Map.Entry<Integer, PendingRow>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, PendingRow> e = it.next();
+            if (!e.getValue().tid.equals(tid)) {
+                continue;
+            }
+            int i = e.getKey();
+            if (isSlotUsed(i)) {
+                clearSlot(i);
+            }
+            if (e.getValue().wasUsed) {
+                if (committed == null) {
+                    committed = getBeforeImage();
+                }
+                // its bytes are still reserved
+                markSlotUsed(i, true);
+                tuples[i] = committed.tupleAt(i);
+            }
+            it.remove();
+        }
     }
 
     /**
@@ -278,25 +642,56 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
-        // not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
-     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty.
+     * A page with uncommitted rows stays dirty until all of them are committed or rolled back.
      */
     public TransactionId isDirty() {
         // some code goes here
-        // Not necessary for lab1
-        return null;
+        TransactionId tid = this.dirtier;
+        if (tid != null) {
+            return tid;
+        }
+        synchronized (this) {
+            return pending.isEmpty() ? null : pending.values().iterator().next().tid;
+        }
+    }
+
+    // see Page.java for javadocs
+    public long getLsn() {
+        return lsn;
+    }
+
+    // see Page.java for javadocs
+    public void setLsn(long lsn) {
+        this.lsn = lsn;
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. For a slotted page,
+     * this is the number of tuples of the smallest possible size that would
+     * still fit; a larger tuple may not.
      */
-    public int getNumEmptySlots() {
+    public synchronized int getNumEmptySlots() {
         // some code goes here
+        if (slotted) {
+            int dir = directorySize();
+            int free = freeSpace(dir);
+            int min = td.getMinSize();
+            int cnt = 0;
+            for (int i = 0; i < dir; i++) {
+                if (!isSlotUsed(i) && free >= min) {
+                    cnt++;
+                    free -= min;
+                }
+            }
+            return cnt + Math.min(numSlots - dir, Math.max(free, 0) / (min + SLOT_ENTRY_SIZE));
+        }
         int cnt = 0;
-        for (int i = 0; i < header.length * 8; i++) {
+        for (int i = 0; i < numSlots; i++) {
             if (this.isSlotUsed(i)) {
                 continue;
             }
@@ -310,14 +705,21 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        return BitSet.valueOf(header).get(i);
+        if (i < 0 || i >= numSlots) {
+            return false;
+        }
+        return (header[i / 8] & (1 << (i % 8))) != 0;
     }
 
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
-        BitSet.valueOf(header).set(i, value);
+        if (value) {
+            header[i / 8] |= (byte) (1 << (i % 8));
+        } else {
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+        }
     }
 
     /**
@@ -328,16 +730,28 @@ public class HeapPage implements Page {
         // some code goes here
         return new Iterator<Tuple>() {
 
-            private int currentIndex = 0;
+            private int nextSlot = advance(0);
+
+            private int advance(int slot) {
+                while (slot < numSlots && !isSlotUsed(slot)) {
+                    slot++;
+                }
+                return slot;
+            }
 
             @Override
             public boolean hasNext() {
-                return currentIndex < tuples.length && tuples[currentIndex] != null;
+                return nextSlot < numSlots;
             }
 
             @Override
             public Tuple next() {
-                return tuples[currentIndex++];
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = tupleAt(nextSlot);
+                nextSlot = advance(nextSlot + 1);
+                return t;
             }
 
             @Override
@@ -347,6 +761,31 @@ public class HeapPage implements Page {
         };
     }
 
+    /**
+     * Append the tuples of this page, starting at the given slot, to batch
+     * until the page is exhausted or the batch is full. Tuples that have not
+     * been touched since the page was read are decoded straight from the
+     * page bytes, without building Tuple objects.
+     *
+     * @param batch the batch to fill
+     * @param fromSlot the first slot to look at
+     * @return the slot to continue from; past the last slot once the page is done
+     */
+    public int fillBatch(TupleBatch batch, int fromSlot) {
+        int slot = fromSlot;
+        for (; slot < numSlots && !batch.isFull(); slot++) {
+            if (!isSlotUsed(slot)) {
+                continue;
+            }
+            if (unchanged(slot)) {
+                batch.addSerialized(data, tupleOffset(slot), pid, slot);
+            } else {
+                batch.add(tuples[slot]);
+            }
+        }
+        return slot;
+    }
+
 
 }
 
@@ -0,0 +1,157 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The rows of a heap page a transaction changed, which LogFile logs in
+ * place of whole before and after images of the page: for each changed
+ * slot, the serialized tuple it held before and after the change, or null
+ * where it was empty. Redo puts every slot into its after state and undo
+ * into its before state, leaving the other slots alone; both may be
+ * repeated without harm.
+ */
+final class HeapPageDelta {
+    private final int[] slots;
+    private final byte[][] before;
+    private final byte[][] after;
+
+    private HeapPageDelta(int[] slots, byte[][] before, byte[][] after) {
+        this.slots = slots;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * Find the slots that differ between two versions of a page.
+     *
+     * @param only the slots to compare, or null for all of them
+     */
+    static HeapPageDelta diff(HeapPage before, HeapPage after, Set<Integer> only) {
+        List<Integer> changed = new ArrayList<>();
+        List<byte[]> b = new ArrayList<>();
+        List<byte[]> a = new ArrayList<>();
+        for (int i = 0; i < after.numSlots; i++) {
+            if (only != null && !only.contains(i)) {
+                continue;
+            }
+            byte[] was = before.getSlotData(i);
+            byte[] is = after.getSlotData(i);
+            if (!Arrays.equals(was, is)) {
+                changed.add(i);
+                b.add(was);
+                a.add(is);
+            }
+        }
+        int[] slots = new int[changed.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = changed.get(i);
+        }
+        return new HeapPageDelta(slots, b.toArray(new byte[0][]), a.toArray(new byte[0][]));
+    }
+
+    /** @return whether no slot changed */
+    boolean isEmpty() {
+        return slots.length == 0;
+    }
+
+    /** Put the changed slots of a page into their state after the change. */
+    void redo(HeapPage page) throws DbException {
+        for (int i = 0; i < slots.length; i++) {
+            page.setSlotData(slots[i], after[i]);
+        }
+    }
+
+    /** Put the changed slots of a page back into their state before the change. */
+    void undo(HeapPage page) throws DbException {
+        // empty slots first, so that the tuples put back fit on a slotted page
+        for (int i = 0; i < slots.length; i++) {
+            if (before[i] == null) {
+                page.setSlotData(slots[i], null);
+            }
+        }
+        for (int i = 0; i < slots.length; i++) {
+            if (before[i] != null) {
+                page.setSlotData(slots[i], before[i]);
+            }
+        }
+    }
+
+    /*
+     * a delta is the number of changed slots, then for each of them:
+     *   slot number
+     *   length of the tuple before (-1 if empty), tuple bytes
+     *   length of the tuple after (-1 if empty), tuple bytes
+     */
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(slots.length);
+        for (int i = 0; i < slots.length; i++) {
+            out.writeInt(slots[i]);
+            writeTuple(out, before[i]);
+            writeTuple(out, after[i]);
+        }
+    }
+
+    static HeapPageDelta read(DataInput in) throws IOException {
+        int n = in.readInt();
+        int[] slots = new int[n];
+        byte[][] before = new byte[n][];
+        byte[][] after = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            slots[i] = in.readInt();
+            before[i] = readTuple(in);
+            after[i] = readTuple(in);
+        }
+        return new HeapPageDelta(slots, before, after);
+    }
+
+    /** Skip a delta written by {@link #write}, without reading its tuples. */
+    static void skip(DataInput in) throws IOException {
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            in.readInt();
+            skipTuple(in);
+            skipTuple(in);
+        }
+    }
+
+    private static void skipTuple(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len > 0 && in.skipBytes(len) != len) {
+            throw new EOFException();
+        }
+    }
+
+    private static void writeTuple(DataOutput out, byte[] tuple) throws IOException {
+        if (tuple == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(tuple.length);
+        out.write(tuple);
+    }
+
+    private static byte[] readTuple(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] tuple = new byte[len];
+        in.readFully(tuple);
+        return tuple;
+    }
+
+    @Override
+    public String toString() {
+        return slots.length + " slots " + Arrays.toString(slots);
+    }
+}
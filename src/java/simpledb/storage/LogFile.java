@@ -2,12 +2,21 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
-import java.lang.reflect.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -55,8 +64,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are seven record types: ABORT, COMMIT, UPDATE, DELTA, BEGIN,
+CHECKPOINT and WRITTEN
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -65,6 +74,18 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> DELTA records log a change to a HeapPage by the rows it changed,
+rather than by images of the whole page.  They consist of a page id
+(see LogFile.writePageId()) followed by a HeapPageDelta: the slots
+changed, with the tuple each held before and after the change.
+
+<li> WRITTEN records have no transaction id (-1) and consist of a page
+id. Each says that the page was written to disk with every change to it
+logged before the record, except for those rolled back since.
+
+<li> Pages and page ids are written with the tag of their format rather
+than their class names; see PageCodecs.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -72,11 +93,58 @@ as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
 </ul>
+
+<p> <u> Group commit: </u>
+<p>
+
+A transaction is only committed once its COMMIT record is forced to
+disk, but forcing the log for every commit caps commit throughput at one
+fsync per transaction. Instead, logCommit appends the record and waits
+for a flusher thread, which forces the log once for every commit that
+arrived since its last force. The flusher forces as soon as a batch of
+commits is pending, or the oldest one has waited for the maximum delay;
+see setGroupCommit(). A transaction that changed pages appends its
+COMMIT record right after its changes, before its pages are written, and
+waits for the flusher outside the BufferPool's monitor, so that one force
+makes both durable and serves every transaction committing meanwhile.
+
+<p> <u> Recovery: </u>
+<p>
+
+recover() works in three passes, after ARIES. Analysis reads the log
+once, finding the transactions that ended, the changes logged to each
+page, and the last WRITTEN record of each page. Redo repeats the changes
+of all but the aborted transactions, page by page: a page's log sequence
+number (LSN, the offset of the last record applied to it) starts at its
+last WRITTEN record, so the changes already on disk are skipped. Pages are
+independent of each other, so they are redone by several threads at once;
+see setRedoThreads(). Undo then rolls back the transactions that never
+ended, newest change first, and logs an ABORT record for each.
+The page formats have no room for an LSN, so pages carry theirs in memory
+only, and WRITTEN records restore it at recovery. Undo puts rows or pages
+back into a logged state and may be repeated, so it logs no compensation
+records. Page files are not forced, so this recovers from crashes of the
+process rather than of the machine, as checkpoints already assume.
+
+<p> Records are appended through a LogWriter, which buffers them and
+writes them to the file in large chunks. The buffer is written out
+whenever the log is forced, and before the log is read back.
 */
 public class LogFile {
 
+    /** Default number of pending commits that makes the flusher force the log at once. */
+    public static final int DEFAULT_GROUP_COMMIT_BATCH = 64;
+
+    /** Default time, in microseconds, the flusher waits for a batch to fill up. */
+    public static final long DEFAULT_GROUP_COMMIT_DELAY_MICROS = 0;
+
+    /** How long an idle flusher thread waits for commits before it exits. */
+    private static final long FLUSHER_IDLE_MILLIS = 1000;
+
     final File logFile;
     private RandomAccessFile raf;
+    /** Appends records to raf; flushed before raf is read or forced. */
+    private LogWriter out;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,6 +152,8 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
+    static final int WRITTEN_RECORD = 7;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -95,6 +165,29 @@ public class LogFile {
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
 
+    /** Taken to force or replace raf, so that the flusher never forces a closed file. */
+    private final Object forceLock = new Object();
+
+    // group commit: the commits waiting for a force, whether a flusher
+    // thread is running, and its settings; protected by this
+    private List<CompletableFuture<Void>> pendingCommits = new ArrayList<>();
+    private boolean flusherRunning = false;
+    private int groupCommitBatch = DEFAULT_GROUP_COMMIT_BATCH;
+    private long groupCommitDelayMicros = DEFAULT_GROUP_COMMIT_DELAY_MICROS;
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+
+    /** The end of the part of the log known to be on disk; protected by this. */
+    private long durableOffset = 0;
+    /** Bumped whenever the log is rewritten, which moves its records; protected by this. */
+    private long rewrites = 0;
+
+    private int redoThreads = Runtime.getRuntime().availableProcessors();
+    // changes redone and skipped by the last recovery
+    private final AtomicLong redone = new AtomicLong();
+    private final AtomicLong redoSkipped = new AtomicLong();
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -109,6 +202,7 @@ public class LogFile {
     public LogFile(File f) throws IOException {
 	this.logFile = f;
         raf = new RandomAccessFile(f, "rw");
+        out = new LogWriter(raf.getChannel(), raf.length());
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -127,16 +221,20 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        decideNoRecovery();
+    }
+
+    private void decideNoRecovery() throws IOException {
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
             raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            out.reset(raf.getChannel(), 0);
+            out.writeLong(NO_CHECKPOINT_ID);
+            currentOffset = out.position();
         }
     }
 
+    /** @return the number of records appended, not counting WRITTEN records */
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
@@ -160,10 +258,10 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                out.writeInt(ABORT_RECORD);
+                out.writeLong(tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = out.position();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
             }
@@ -171,25 +269,206 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and force the log to disk.  The record is forced together with
+        those of other transactions committing at the same time; this
+        returns once it is on disk.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
+    public void logCommit(TransactionId tid) throws IOException {
+        awaitDurable(appendCommit(tid));
+    }
+
+    /** Write a commit record for the specified tid without waiting for
+        it to reach disk, e.g. so that the BufferPool can wait for it
+        outside its monitor. It is forced together with those of other
+        transactions committing at the same time.
+
+        @param tid The committing transaction.
+        @return completes once the record is on disk
+    */
+    synchronized CompletableFuture<Void> appendCommit(TransactionId tid) throws IOException {
         preAppend();
         Debug.log("COMMIT " + tid.getId());
         //should we verify that this is a live transaction?
 
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+        out.writeInt(COMMIT_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
+        currentOffset = out.position();
         tidToFirstLogRecord.remove(tid.getId());
+        commits.incrementAndGet();
+        return groupForce();
+    }
+
+    /** Like {@link #forceTo}, but leaves the force to the flusher, with
+        the commits pending at the time.
+
+        @param lsn The offset of a record, such as a page's LSN
+        @return completes once the record is on disk
+    */
+    synchronized CompletableFuture<Void> durableTo(long lsn) throws IOException {
+        if (lsn < durableOffset) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return groupForce();
+    }
+
+    /** Have the flusher force everything appended so far, or force it
+        now if commits are not grouped; protected by this.
+
+        @return completes once it is on disk
+    */
+    private CompletableFuture<Void> groupForce() throws IOException {
+        if (groupCommitBatch <= 1) {
+            force();
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        pendingCommits.add(durable);
+        if (!flusherRunning) {
+            flusherRunning = true;
+            Thread flusher = new Thread(this::flushCommits, "simpledb-log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+        notifyAll();
+        return durable;
+    }
+
+    /** Wait until a record is forced; an interrupt does not cut this short. */
+    static void awaitDurable(CompletableFuture<Void> durable) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    durable.get();
+                    return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    throw new IOException("could not force the log", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The flusher thread: wait for commits, let a batch build up, force the
+     * log once for all of them and tell them so. Exits once it has been
+     * idle for a while; the next commit starts a new one.
+     */
+    private void flushCommits() {
+        while (true) {
+            List<CompletableFuture<Void>> batch;
+            IOException error = null;
+            long flushed = 0;
+            long rewrite = 0;
+            synchronized (this) {
+                try {
+                    long idleUntil = System.currentTimeMillis() + FLUSHER_IDLE_MILLIS;
+                    while (pendingCommits.isEmpty()) {
+                        long left = idleUntil - System.currentTimeMillis();
+                        if (left <= 0) {
+                            flusherRunning = false;
+                            return;
+                        }
+                        wait(left);
+                    }
+                    long deadline = System.nanoTime() + groupCommitDelayMicros * 1000;
+                    while (!pendingCommits.isEmpty() && pendingCommits.size() < groupCommitBatch) {
+                        long left = deadline - System.nanoTime();
+                        if (left <= 0) {
+                            break;
+                        }
+                        wait(left / 1000000, (int) (left % 1000000));
+                    }
+                } catch (InterruptedException e) {
+                    // force what is pending, then carry on
+                }
+                batch = pendingCommits;
+                pendingCommits = new ArrayList<>();
+                if (!batch.isEmpty()) {
+                    try {
+                        out.flush();
+                        flushed = out.position();
+                        rewrite = rewrites;
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                // a checkpoint forced them meanwhile
+                continue;
+            }
+            try {
+                if (error != null) {
+                    throw error;
+                }
+                // appends carry on while the log is forced
+                synchronized (forceLock) {
+                    raf.getChannel().force(true);
+                }
+                forces.incrementAndGet();
+                synchronized (this) {
+                    // unless the log was rewritten meanwhile, which moved the records
+                    if (rewrite == rewrites) {
+                        durableOffset = Math.max(durableOffset, flushed);
+                    }
+                }
+                for (CompletableFuture<Void> c : batch) {
+                    c.complete(null);
+                }
+            } catch (IOException e) {
+                for (CompletableFuture<Void> c : batch) {
+                    c.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Set how commits are grouped into forces of the log.
+     *
+     * @param batch the number of pending commits at which the flusher
+     *   forces the log at once; 1 makes every commit force the log itself
+     * @param maxDelayMicros how long the flusher waits for a batch to fill
+     *   up before it forces the commits pending so far; 0 forces them as
+     *   soon as the previous force is done
+     */
+    public synchronized void setGroupCommit(int batch, long maxDelayMicros) {
+        if (batch < 1 || maxDelayMicros < 0) {
+            throw new IllegalArgumentException("group commit needs a positive batch and a non-negative delay");
+        }
+        this.groupCommitBatch = batch;
+        this.groupCommitDelayMicros = maxDelayMicros;
+        notifyAll();
+    }
+
+    /** @return the number of COMMIT records written */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /** @return the number of times the log was forced to disk */
+    public long getForces() {
+        return forces.get();
+    }
+
+    /** @return the number of writes of buffered log records to the file */
+    public synchronized long getWrites() {
+        return out.getWrites();
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  A change to
+        a HeapPage is written as a DELTA record of the rows the
+        transaction changed instead, and not at all if it changed none.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -199,8 +478,13 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        Debug.log("WRITE, offset = " + out.position());
+        if (before instanceof HeapPage && after instanceof HeapPage) {
+            logDelta(tid, (HeapPage) before, (HeapPage) after);
+            return;
+        }
         preAppend();
+        after.setLsn(currentOffset);
         /* update record conists of
 
            record type
@@ -209,83 +493,116 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
 
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
+        writePageData(out,before);
+        writePageData(out,after);
+        out.writeLong(currentOffset);
+        currentOffset = out.position();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
+    /** Write a DELTA record of the rows of a heap page a transaction
+        changed.  If other transactions have uncommitted rows on the
+        page too, only the transaction's own rows are logged.
+    */
+    private void logDelta(TransactionId tid, HeapPage before, HeapPage after)
+        throws IOException {
+        Set<Integer> slots = after.hasPendingRows(tid) ? after.getPendingSlots(tid) : null;
+        HeapPageDelta delta = HeapPageDelta.diff(before, after, slots);
+        if (delta.isEmpty()) {
+            return;
+        }
+        preAppend();
+        after.setLsn(currentOffset);
+        /* delta record consists of
 
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
+           record type
+           transaction id
+           page id (see writePageId)
+           changed rows (see HeapPageDelta)
+           start offset
+        */
+        out.writeInt(DELTA_RECORD);
+        out.writeLong(tid.getId());
+        writePageId(out, after.getId());
+        delta.write(out);
+        out.writeLong(currentOffset);
+        currentOffset = out.position();
+
+        Debug.log("DELTA OFFSET = " + currentOffset);
+    }
 
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
+    /** Write a WRITTEN record for a page that was just written to disk.
+        The record is not forced: if it is lost, recovery only redoes
+        changes that were on disk already.
+        @param pid The page written
+    */
+    public synchronized void logWritten(PageId pid) throws IOException {
+        decideNoRecovery();
+        /* written record consists of
 
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
+           record type
+           no transaction id (-1)
+           page id (see writePageId)
+           start offset
+        */
+        out.writeInt(WRITTEN_RECORD);
+        out.writeLong(-1);
+        writePageId(out, pid);
+        out.writeLong(currentOffset);
+        currentOffset = out.position();
+    }
 
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
-        }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    void writePageId(DataOutput out, PageId pid) throws IOException {
+        PageCodecs.writeId(out, pid);
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
+    PageId readPageId(DataInput in) throws IOException {
+        return PageCodecs.readId(in);
+    }
 
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
+    void writePageData(DataOutput out, Page p) throws IOException{
+        PageId pid = p.getId();
 
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+        //page data is:
+        // page format tag (see PageCodecs)
+        // page id (see writePageId)
+        // page data length
+        // page data
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
+        out.writeByte(PageCodecs.pageTag(p));
+        writePageId(out, pid);
+        byte[] pageData = p.getPageData();
+        out.writeInt(pageData.length);
+        out.write(pageData);
+        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+    }
 
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+    Page readPageData(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        PageId pid = readPageId(in);
+        int pageSize = in.readInt();
 
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
+        byte[] pageData = new byte[pageSize];
+        in.readFully(pageData); //read before image
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+        //            Debug.log("READ PAGE OF TYPE " + tag + ", table = " + pid.getTableId() + ", page = " + pid.getPageNumber());
+        return PageCodecs.readPage(tag, pid, pageData);
+    }
 
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
+    /** Skip page data written by writePageData, without making the page.
+        @return the id of the page */
+    private PageId skipPageData(DataInput in) throws IOException {
+        in.readUnsignedByte();
+        PageId pid = readPageId(in);
+        int pageSize = in.readInt();
+        if (in.skipBytes(pageSize) != pageSize) {
+            throw new EOFException();
         }
-        return newPage;
-
+        return pid;
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -300,11 +617,11 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        out.writeInt(BEGIN_RECORD);
+        out.writeLong(tid.getId());
+        out.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        currentOffset = out.position();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
@@ -316,33 +633,32 @@ public class LogFile {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
-                long startCpOffset, endCpOffset;
+                long startCpOffset;
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
+                startCpOffset = out.position();
+                out.writeInt(CHECKPOINT_RECORD);
+                out.writeLong(-1); //no tid , but leave space for convenience
 
                 //write list of outstanding transactions
-                raf.writeInt(keys.size());
+                out.writeInt(keys.size());
                 while (els.hasNext()) {
                     Long key = els.next();
                     Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
+                    out.writeLong(key);
                     //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                    out.writeLong(tidToFirstLogRecord.get(key));
                 }
+                out.writeLong(currentOffset);
+                currentOffset = out.position();
 
                 //once the CP is written, make sure the CP location at the
                 // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
+                out.flush();
                 raf.seek(0);
                 raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
                 //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
@@ -354,6 +670,7 @@ public class LogFile {
         consumption */
     public synchronized void logTruncate() throws IOException {
         preAppend();
+        out.flush();
         raf.seek(0);
         long cpLoc = raf.readLong();
 
@@ -409,6 +726,16 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case DELTA_RECORD:
+                    PageId pid = readPageId(raf);
+                    HeapPageDelta delta = HeapPageDelta.read(raf);
+
+                    writePageId(logNew, pid);
+                    delta.write(logNew);
+                    break;
+                case WRITTEN_RECORD:
+                    writePageId(logNew, readPageId(raf));
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -435,14 +762,19 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
+        synchronized (forceLock) {
+            raf.close();
+            logFile.delete();
+            newFile.renameTo(logFile);
+            raf = new RandomAccessFile(logFile, "rw");
+            raf.seek(raf.length());
+            newFile.delete();
+        }
 
-        currentOffset = raf.getFilePointer();
+        out.reset(raf.getChannel(), raf.length());
+        currentOffset = out.position();
+        durableOffset = 0;
+        rewrites++;
         //print();
     }
 
@@ -459,9 +791,93 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
+                out.flush(); // the log is read back through raf
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null) {
+                    throw new NoSuchElementException("no log records of transaction " + tid.getId());
+                }
+
+                // find the transaction's changes, then undo them newest first
+                List<Long> changes = new ArrayList<>();
+                long end = out.position();
+                raf.seek(first);
+                while (raf.getFilePointer() < end) {
+                    long start = raf.getFilePointer();
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    if (recordTid == tid.getId() && (type == UPDATE_RECORD || type == DELTA_RECORD)) {
+                        changes.add(start);
+                    }
+                    skipRecord(type);
+                }
+                for (int i = changes.size() - 1; i >= 0; i--) {
+                    raf.seek(changes.get(i));
+                    int type = raf.readInt();
+                    raf.readLong();
+                    PageId pid = applyRecord(type, false);
+                    logWritten(pid);
+                    Database.getBufferPool().discardChanges(tid, pid);
+                }
+            }
+        }
+    }
+
+    /** Skip the rest of a record, whose type and transaction id have
+        been read, including its start offset.
+        @return the page the record is about, or null if it is about none */
+    private PageId skipRecord(int type) throws IOException {
+        PageId pid = null;
+        switch (type) {
+        case UPDATE_RECORD:
+            pid = skipPageData(raf);
+            skipPageData(raf);
+            break;
+        case DELTA_RECORD:
+            pid = readPageId(raf);
+            HeapPageDelta.skip(raf);
+            break;
+        case WRITTEN_RECORD:
+            pid = readPageId(raf);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = raf.readInt();
+            raf.seek(raf.getFilePointer() + numXactions * 2L * LONG_SIZE);
+            break;
+        }
+        raf.readLong();
+        return pid;
+    }
+
+    /** Apply the change logged by an UPDATE or DELTA record, whose type
+        and transaction id have been read, to the page on disk.
+
+        @param redo whether to redo the change, rather than undo it
+        @return the id of the changed page
+    */
+    private PageId applyRecord(int type, boolean redo) throws IOException {
+        if (type == UPDATE_RECORD) {
+            Page before = readPageData(raf);
+            Page after = readPageData(raf);
+            Page image = redo ? after : before;
+            Database.getCatalog().getDatabaseFile(image.getId().getTableId()).writePage(image);
+            return image.getId();
+        }
+        PageId pid = readPageId(raf);
+        HeapPageDelta delta = HeapPageDelta.read(raf);
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        HeapPage page = (HeapPage) file.readPage(pid);
+        try {
+            if (redo) {
+                delta.redo(page);
+            } else {
+                delta.undo(page);
             }
+        } catch (DbException e) {
+            throw new IOException("could not apply the log to page " + pid, e);
         }
+        file.writePage(page);
+        return pid;
     }
 
     /** Shutdown the logging system, writing out whatever state
@@ -471,6 +887,7 @@ public class LogFile {
     public synchronized void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
+            out.close();
             raf.close();
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
@@ -486,13 +903,244 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
+                out.flush(); // the log is read back through raf
                 // some code goes here
+                redone.set(0);
+                redoSkipped.set(0);
+
+                // analysis: which transactions ended, what was logged of
+                // each page, and up to where each page is on disk
+                Set<Long> committed = new HashSet<>();
+                Set<Long> aborted = new HashSet<>();
+                List<LoggedChange> changes = new ArrayList<>();
+                Map<PageId, List<LoggedChange>> changesByPage = new HashMap<>();
+                Map<PageId, Long> writtenAt = new HashMap<>();
+                long end = raf.length();
+                raf.seek(Math.min(LONG_SIZE, end));
+                while (raf.getFilePointer() < end) {
+                    long start = raf.getFilePointer();
+                    try {
+                        int type = raf.readInt();
+                        long tid = raf.readLong();
+                        PageId pid = skipRecord(type);
+                        if (type == COMMIT_RECORD) {
+                            committed.add(tid);
+                        } else if (type == ABORT_RECORD) {
+                            aborted.add(tid);
+                        } else if (type == WRITTEN_RECORD) {
+                            writtenAt.put(pid, start);
+                        } else if (type == UPDATE_RECORD || type == DELTA_RECORD) {
+                            LoggedChange change = new LoggedChange(start, (int) (raf.getFilePointer() - start), tid);
+                            changes.add(change);
+                            changesByPage.computeIfAbsent(pid, k -> new ArrayList<>()).add(change);
+                        }
+                    } catch (EOFException e) {
+                        // a record cut short by the crash; append after the last whole one
+                        end = start;
+                        raf.setLength(end);
+                    }
+                }
+
+                // redo, then undo the changes of unfinished transactions
+                // newest first; aborted ones were undone before their ABORT
+                // record was written
+                Set<PageId> touched = redo(changesByPage, writtenAt, aborted);
+                Set<Long> losers = new LinkedHashSet<>();
+                for (int i = changes.size() - 1; i >= 0; i--) {
+                    LoggedChange change = changes.get(i);
+                    if (!committed.contains(change.tid) && !aborted.contains(change.tid)) {
+                        raf.seek(change.lsn);
+                        int type = raf.readInt();
+                        raf.readLong();
+                        touched.add(applyRecord(type, false));
+                        losers.add(change.tid);
+                    }
+                }
+                for (PageId pid : touched) {
+                    Database.getBufferPool().discardPage(pid);
+                }
+
+                // so that later recoveries neither redo nor undo them again
+                out.reset(raf.getChannel(), end);
+                if (end < LONG_SIZE) {
+                    raf.setLength(0);
+                    out.reset(raf.getChannel(), 0);
+                    out.writeLong(NO_CHECKPOINT_ID);
+                }
+                currentOffset = out.position();
+                durableOffset = 0;
+                rewrites++;
+                for (PageId pid : touched) {
+                    logWritten(pid);
+                }
+                for (long tid : losers) {
+                    preAppend();
+                    out.writeInt(ABORT_RECORD);
+                    out.writeLong(tid);
+                    out.writeLong(currentOffset);
+                    currentOffset = out.position();
+                }
+                force();
             }
          }
     }
 
+    /** Where an UPDATE or DELTA record is, and whose it is. */
+    private static final class LoggedChange {
+        final long lsn;
+        final int length;
+        final long tid;
+
+        LoggedChange(long lsn, int length, long tid) {
+            this.lsn = lsn;
+            this.length = length;
+            this.tid = tid;
+        }
+    }
+
+    /** Redo the changes that may not be on disk, partitioning the pages
+        among the redo threads.  The log is read by position only, so that
+        the threads need not share raf's file pointer.
+
+        @return the pages changed
+    */
+    private Set<PageId> redo(Map<PageId, List<LoggedChange>> changesByPage,
+                             Map<PageId, Long> writtenAt, Set<Long> aborted)
+        throws IOException {
+        Set<PageId> touched = ConcurrentHashMap.newKeySet();
+        if (changesByPage.isEmpty()) {
+            return touched;
+        }
+        int threads = Math.min(redoThreads, changesByPage.size());
+        List<List<PageId>> parts = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (PageId pid : changesByPage.keySet()) {
+            parts.get(Math.floorMod(pid.hashCode(), threads)).add(pid);
+        }
+
+        FileChannel channel = raf.getChannel();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "simpledb-redo");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            for (List<PageId> part : parts) {
+                done.add(pool.submit(() -> {
+                    for (PageId pid : part) {
+                        if (redoPage(channel, pid, writtenAt.getOrDefault(pid, -1L),
+                                changesByPage.get(pid), aborted)) {
+                            touched.add(pid);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted during redo");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("could not redo the log", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        return touched;
+    }
+
+    /** Redo the changes to one page that were logged after it was last
+        written, reading and writing the page at most once.
+
+        @param diskLsn The offset of the page's last WRITTEN record, or -1
+        @return whether the page was changed
+    */
+    private boolean redoPage(FileChannel channel, PageId pid, long diskLsn,
+                             List<LoggedChange> changes, Set<Long> aborted)
+        throws IOException {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page page = null;
+        long pageLsn = diskLsn;
+        for (LoggedChange change : changes) {
+            if (change.lsn <= pageLsn || aborted.contains(change.tid)) {
+                redoSkipped.incrementAndGet();
+                continue;
+            }
+            DataInputStream in = readChange(channel, change);
+            int type = in.readInt();
+            in.readLong();
+            if (type == UPDATE_RECORD) {
+                skipPageData(in);
+                page = readPageData(in);
+            } else {
+                readPageId(in);
+                HeapPageDelta delta = HeapPageDelta.read(in);
+                if (page == null) {
+                    page = file.readPage(pid);
+                }
+                try {
+                    delta.redo((HeapPage) page);
+                } catch (DbException e) {
+                    throw new IOException("could not apply the log to page " + pid, e);
+                }
+            }
+            page.setLsn(change.lsn);
+            pageLsn = change.lsn;
+            redone.incrementAndGet();
+        }
+        if (page == null) {
+            return false;
+        }
+        file.writePage(page);
+        return true;
+    }
+
+    private static DataInputStream readChange(FileChannel channel, LoggedChange change)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(change.length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, change.lsn + buf.position()) < 0) {
+                throw new EOFException("log record at " + change.lsn + " cut short");
+            }
+        }
+        return new DataInputStream(new ByteArrayInputStream(buf.array()));
+    }
+
+    /**
+     * Set how many threads recover() redoes pages with.
+     *
+     * @param threads the number of threads; one per core by default
+     */
+    public synchronized void setRedoThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("redo needs at least one thread");
+        }
+        this.redoThreads = threads;
+    }
+
+    /** @return the number of changes the last recovery redid */
+    public long getRedone() {
+        return redone.get();
+    }
+
+    /** @return the number of changes the last recovery found on disk
+        already, or rolled back, and did not redo */
+    public long getRedoSkipped() {
+        return redoSkipped.get();
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
+        synchronized (this) {
+            out.flush();
+        }
         long curOffset = raf.getFilePointer();
 
         raf.seek(0);
@@ -554,6 +1202,26 @@ public class LogFile {
 
                     System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
 
+                    break;
+                case WRITTEN_RECORD:
+                    System.out.println(" (WRITTEN)");
+
+                    PageId written = readPageId(raf);
+                    System.out.println(raf.getFilePointer() + ": table id " + written.getTableId()
+                            + ", page number " + written.getPageNumber());
+
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
+                    break;
+                case DELTA_RECORD:
+                    System.out.println(" (DELTA)");
+
+                    PageId pid = readPageId(raf);
+                    System.out.println(raf.getFilePointer() + ": table id " + pid.getTableId()
+                            + ", page number " + pid.getPageNumber() + ", " + HeapPageDelta.read(raf));
+
+                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+
                     break;
                 }
 
@@ -567,8 +1235,30 @@ public class LogFile {
         raf.seek(curOffset);
     }
 
+    /** Force the log to disk, unless the record starting at the given
+        offset, and so every record before it, is on disk already.
+        @param lsn The offset of a record, such as a page's LSN
+        @see Page#getLsn
+    */
+    public synchronized void forceTo(long lsn) throws IOException {
+        if (lsn < durableOffset) {
+            return;
+        }
+        force();
+    }
+
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        out.flush();
+        synchronized (forceLock) {
+            raf.getChannel().force(true);
+        }
+        durableOffset = out.position();
+        forces.incrementAndGet();
+        // every commit appended so far is on disk now
+        for (CompletableFuture<Void> c : pendingCommits) {
+            c.complete(null);
+        }
+        pendingCommits.clear();
     }
 
 }
@@ -0,0 +1,208 @@
+package simpledb.storage;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Appends records to the end of the log through a direct buffer, so that
+ * writing a record makes no system call of its own. Once the buffer fills
+ * up, the whole blocks in it are written to the file; flush() writes the
+ * rest, and LogFile calls it before it forces or reads the log.
+ * <p>
+ * Not thread safe: LogFile only calls it holding its monitor. The buffers
+ * are pooled, since every LogFile needs one and tests create many.
+ */
+final class LogWriter implements DataOutput {
+    /** Writes that fill the buffer end at a multiple of this file offset. */
+    static final int BLOCK_SIZE = 4096;
+    static final int BUFFER_SIZE = 16 * BLOCK_SIZE;
+
+    private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<>();
+
+    private FileChannel channel;
+    /** The bytes not yet written to the file, the first of which goes at start. */
+    private ByteBuffer buf;
+    private long start;
+    private long writes = 0;
+
+    /**
+     * @param channel the log file
+     * @param position the offset at which to append
+     */
+    LogWriter(FileChannel channel, long position) {
+        ByteBuffer pooled = POOL.poll();
+        this.buf = pooled != null ? pooled : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        reset(channel, position);
+    }
+
+    /**
+     * Append at the given offset of a file from now on, dropping anything
+     * not yet written.
+     */
+    void reset(FileChannel channel, long position) {
+        this.channel = channel;
+        this.start = position;
+        buf.clear();
+    }
+
+    /** @return the offset of the end of the log, including buffered records */
+    long position() {
+        return start + buf.position();
+    }
+
+    /** @return the number of writes made to the file */
+    long getWrites() {
+        return writes;
+    }
+
+    /** Write everything buffered to the file. */
+    void flush() throws IOException {
+        drain(position());
+    }
+
+    /** Flush, and return the buffer to the pool; the writer must not be used afterwards. */
+    void close() throws IOException {
+        flush();
+        buf.clear();
+        POOL.offer(buf);
+        buf = null;
+    }
+
+    /** Write the buffered bytes up to the given file offset. */
+    private void drain(long end) throws IOException {
+        int n = (int) (end - start);
+        if (n <= 0) {
+            return;
+        }
+        buf.flip();
+        ByteBuffer out = buf.duplicate();
+        out.limit(n);
+        while (out.hasRemaining()) {
+            channel.write(out, start + out.position());
+        }
+        buf.position(n);
+        buf.compact();
+        start = end;
+        writes++;
+    }
+
+    /** Make room for n bytes, writing out the whole blocks buffered if need be. */
+    private void ensure(int n) throws IOException {
+        if (buf.remaining() < n) {
+            long end = position();
+            drain(end - end % BLOCK_SIZE);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensure(1);
+        buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, buf.remaining());
+            buf.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        ensure(2);
+        buf.putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        ensure(2);
+        buf.putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        ensure(4);
+        buf.putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        ensure(8);
+        buf.putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    /** Write a string in modified UTF-8, as RandomAccessFile.writeUTF does. */
+    @Override
+    public void writeUTF(String s) throws IOException {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            len += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        if (len > 65535) {
+            throw new UTFDataFormatException("encoded string too long: " + len + " bytes");
+        }
+        writeShort(len);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                write(c);
+            } else if (c > 0x07FF) {
+                write(0xE0 | ((c >> 12) & 0x0F));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            } else {
+                write(0xC0 | ((c >> 6) & 0x1F));
+                write(0x80 | (c & 0x3F));
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Evicts the least recently used page. Good for point-lookup workloads with a
+ * stable working set, but a single large scan will flush the whole pool.
+ *
+ * @Threadsafe
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    // access-ordered: iteration starts at the least recently used page
+    private final LinkedHashMap<PageId, Boolean> pages = new LinkedHashMap<>(16, 0.75f, true);
+
+    public synchronized void recordAccess(PageId pid) {
+        pages.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void remove(PageId pid) {
+        pages.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        Iterator<PageId> it = pages.keySet().iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K (O'Neil, O'Neil and Weikum) evicts the page whose K-th most recent
+ * reference lies furthest in the past. Pages referenced fewer than K times
+ * have an infinite backward K-distance and go first, oldest last reference
+ * first, so pages touched once by a scan do not push out pages that are
+ * used over and over.
+ *
+ * @Threadsafe
+ */
+public class LruKEvictionPolicy implements EvictionPolicy {
+
+    /** Default history depth; LRU-2 captures most of the benefit. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final Map<PageId, long[]> history = new HashMap<>();
+    private long clock = 0;
+
+    public LruKEvictionPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k the number of past references remembered per page; must be
+     *   at least 1 (LRU-1 is plain LRU)
+     */
+    public LruKEvictionPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        // hist[0] is the most recent reference, 0 means "never"
+        long[] hist = history.computeIfAbsent(pid, p -> new long[k]);
+        System.arraycopy(hist, 0, hist, 1, k - 1);
+        hist[0] = ++clock;
+    }
+
+    public synchronized void remove(PageId pid) {
+        history.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE;
+        long victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : history.entrySet()) {
+            long[] hist = e.getValue();
+            long kth = hist[k - 1];
+            long last = hist[0];
+            if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+                if (!evictable.test(e.getKey()))
+                    continue;
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+}
@@ -9,8 +9,11 @@ import simpledb.transaction.TransactionId;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
- *     Page(PageId id, byte[] data)
+ * For recovery purposes, each page format must be registered with
+ * PageCodecs, so that LogFile can read its pages back from the log.
+ * <p>
+ * A page also carries a log sequence number (LSN): the offset in the log of
+ * the last record of a change to it. It is kept in memory only; see LogFile.
  */
 public interface Page {
 
@@ -58,4 +61,14 @@ public interface Page {
      * copy current content to the before image.
      */
     void setBeforeImage();
+
+    /**
+     * Return the log sequence number of this page: the offset of the last
+     * log record of a change to it, or -1 if none was logged since it was
+     * read from disk.
+     */
+    long getLsn();
+
+    /** Set the log sequence number of this page; see getLsn */
+    void setLsn(long lsn);
 }
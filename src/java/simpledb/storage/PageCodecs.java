@@ -0,0 +1,157 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The page formats the log can hold. LogFile writes pages and page ids
+ * with the small integer tag of their format in place of their class
+ * names, and reads them back with the reader registered for the tag,
+ * rather than through reflection. Page ids and pages have tags of their
+ * own, from 1 to 255.
+ * <p>
+ * Heap pages are registered here; other formats register themselves when
+ * their file class is loaded, which it is before any of their pages can
+ * be logged or recovered (see BTreeFile).
+ */
+public final class PageCodecs {
+    /** The tags of the heap file formats. */
+    public static final int HEAP_PAGE_ID = 1;
+    public static final int HEAP_PAGE = 1;
+
+    private static final int MAX_TAG = 255;
+
+    /** Makes a page id from the integers its {@link PageId#serialize()} returned. */
+    public interface IdReader {
+        PageId read(int[] data);
+    }
+
+    /** Makes a page from its id and bytes, as its file's readPage does. */
+    public interface PageReader {
+        Page read(PageId pid, byte[] data) throws IOException;
+    }
+
+    private static final class IdCodec {
+        final int tag;
+        final int length;
+        final IdReader reader;
+
+        IdCodec(int tag, int length, IdReader reader) {
+            this.tag = tag;
+            this.length = length;
+            this.reader = reader;
+        }
+    }
+
+    private static final class PageCodec {
+        final int tag;
+        final PageReader reader;
+
+        PageCodec(int tag, PageReader reader) {
+            this.tag = tag;
+            this.reader = reader;
+        }
+    }
+
+    private static final AtomicReferenceArray<IdCodec> idsByTag = new AtomicReferenceArray<>(MAX_TAG + 1);
+    private static final Map<Class<?>, IdCodec> idsByClass = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<PageCodec> pagesByTag = new AtomicReferenceArray<>(MAX_TAG + 1);
+    private static final Map<Class<?>, PageCodec> pagesByClass = new ConcurrentHashMap<>();
+
+    static {
+        registerId(HEAP_PAGE_ID, HeapPageId.class, 2, data -> new HeapPageId(data[0], data[1]));
+        registerPage(HEAP_PAGE, HeapPage.class, (pid, data) -> new HeapPage((HeapPageId) pid, data));
+    }
+
+    private PageCodecs() {
+    }
+
+    /**
+     * Register a kind of page id.
+     *
+     * @param tag the tag it is logged with
+     * @param type its class
+     * @param length the number of integers its serialize() returns
+     * @param reader makes one from those integers
+     * @throws IllegalArgumentException if the tag or class is taken
+     */
+    public static synchronized void registerId(int tag, Class<? extends PageId> type, int length, IdReader reader) {
+        checkTag(tag, idsByTag.get(tag) != null, idsByClass.containsKey(type), type);
+        IdCodec codec = new IdCodec(tag, length, reader);
+        idsByClass.put(type, codec);
+        idsByTag.set(tag, codec);
+    }
+
+    /**
+     * Register a page format.
+     *
+     * @param tag the tag it is logged with
+     * @param type the class of its pages
+     * @param reader makes a page from its id and bytes
+     * @throws IllegalArgumentException if the tag or class is taken
+     */
+    public static synchronized void registerPage(int tag, Class<? extends Page> type, PageReader reader) {
+        checkTag(tag, pagesByTag.get(tag) != null, pagesByClass.containsKey(type), type);
+        PageCodec codec = new PageCodec(tag, reader);
+        pagesByClass.put(type, codec);
+        pagesByTag.set(tag, codec);
+    }
+
+    private static void checkTag(int tag, boolean tagTaken, boolean classTaken, Class<?> type) {
+        if (tag < 1 || tag > MAX_TAG) {
+            throw new IllegalArgumentException("tag " + tag + " is not between 1 and " + MAX_TAG);
+        }
+        if (tagTaken || classTaken) {
+            throw new IllegalArgumentException("tag " + tag + " or " + type.getName() + " is registered already");
+        }
+    }
+
+    /** Write a page id: its tag, then the integers it serializes to. */
+    static void writeId(DataOutput out, PageId pid) throws IOException {
+        IdCodec codec = idsByClass.get(pid.getClass());
+        if (codec == null) {
+            throw new IOException("no codec for page id class " + pid.getClass().getName());
+        }
+        int[] data = pid.serialize();
+        out.writeByte(codec.tag);
+        for (int i = 0; i < codec.length; i++) {
+            out.writeInt(data[i]);
+        }
+    }
+
+    /** Read a page id written by {@link #writeId}. */
+    static PageId readId(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        IdCodec codec = idsByTag.get(tag);
+        if (codec == null) {
+            throw new IOException("no codec for page id tag " + tag);
+        }
+        int[] data = new int[codec.length];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = in.readInt();
+        }
+        return codec.reader.read(data);
+    }
+
+    /** @return the tag of a page's format */
+    static int pageTag(Page page) throws IOException {
+        PageCodec codec = pagesByClass.get(page.getClass());
+        if (codec == null) {
+            throw new IOException("no codec for page class " + page.getClass().getName());
+        }
+        return codec.tag;
+    }
+
+    /** Make a page of the format with the given tag. */
+    static Page readPage(int tag, PageId pid, byte[] data) throws IOException {
+        PageCodec codec = pagesByTag.get(tag);
+        if (codec == null) {
+            throw new IOException("no codec for page tag " + tag);
+        }
+        return codec.reader.read(pid, data);
+    }
+}
@@ -0,0 +1,145 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageTable maps the full {@link PageId} of every page resident in the
+ * {@link BufferPool} to the page itself.
+ * <p>
+ * The table is split into stripes, each guarded by its own latch, so
+ * lookups of unrelated pages do not contend. Misses are single-flight:
+ * while one thread loads a page, other threads asking for the same page wait
+ * for that load instead of reading the page from disk again. Latches are
+ * never held while a page is being loaded.
+ *
+ * @Threadsafe
+ */
+class PageTable {
+
+    private static final int STRIPES = 16;
+
+    private static class Stripe {
+        final Map<PageId, Page> pages = new HashMap<>();
+        final Map<PageId, FutureTask<Page>> loading = new HashMap<>();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    PageTable() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripeFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    /** @return the resident page with the given id, or null */
+    Page get(PageId pid) {
+        Stripe s = stripeFor(pid);
+        synchronized (s) {
+            return s.pages.get(pid);
+        }
+    }
+
+    /**
+     * Return the resident page with the given id, loading it with the given
+     * loader if it is not resident. The loader is expected to {@link #put}
+     * the page it loads. If another thread is already loading the page, wait
+     * for its result instead of calling the loader.
+     *
+     * @param pid the id of the page to look up
+     * @param loader loads and installs the page; run at most once per miss
+     * @return the page
+     * @throws DbException if the loader failed with a checked exception
+     */
+    Page getOrLoad(PageId pid, Callable<Page> loader) throws DbException {
+        Stripe s = stripeFor(pid);
+        FutureTask<Page> task;
+        boolean owner = false;
+        synchronized (s) {
+            Page page = s.pages.get(pid);
+            if (page != null)
+                return page;
+            task = s.loading.get(pid);
+            if (task == null) {
+                task = new FutureTask<>(loader);
+                s.loading.put(pid, task);
+                owner = true;
+            }
+        }
+
+        try {
+            if (owner)
+                task.run();
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for page " + pid);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new DbException("could not load page " + pid + ": " + cause);
+        } finally {
+            if (owner) {
+                synchronized (s) {
+                    s.loading.remove(pid);
+                }
+            }
+        }
+    }
+
+    /** Install a page, replacing any resident page with the same id. */
+    void put(PageId pid, Page page) {
+        Stripe s = stripeFor(pid);
+        synchronized (s) {
+            if (s.pages.put(pid, page) == null)
+                size.incrementAndGet();
+        }
+    }
+
+    /** Remove a page; returns the removed page, or null if not resident. */
+    Page remove(PageId pid) {
+        Stripe s = stripeFor(pid);
+        synchronized (s) {
+            Page page = s.pages.remove(pid);
+            if (page != null)
+                size.decrementAndGet();
+            return page;
+        }
+    }
+
+    /** @return the number of resident pages */
+    int size() {
+        return size.get();
+    }
+
+    /** @return a snapshot of all resident pages */
+    List<Page> pages() {
+        List<Page> all = new ArrayList<>(size());
+        for (Stripe s : stripes) {
+            synchronized (s) {
+                all.addAll(s.pages.values());
+            }
+        }
+        return all;
+    }
+}
@@ -0,0 +1,111 @@
+package simpledb.storage;
+
+import simpledb.execution.Predicate;
+
+/**
+ * PageTuple is a read-through view of one tuple slot of a {@link HeapPage}.
+ * It keeps a reference to the page's bytes and the offset of its slot, and
+ * only decodes a field into a {@link Field} when somebody asks for it, so a
+ * tuple that a predicate rejects never allocates any fields at all.
+ * <p>
+ * Predicates are evaluated directly on the page bytes through
+ * {@link #compareField}. Fields set with {@link #setField} shadow the page
+ * bytes, which are never written to.
+ */
+public class PageTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] data;
+    private final int offset;
+    private boolean modified = false;
+    /** Set once the schema was reset; the tuple then no longer reads the page. */
+    private boolean detached = false;
+    /** Offsets of the fields within data, if they vary from tuple to tuple. */
+    private int[] fieldOffsets;
+
+    /**
+     * @param td the schema of the tuple
+     * @param data the bytes of the page holding the tuple
+     * @param offset the offset of the tuple's slot within data
+     * @param rid the location of the tuple
+     */
+    PageTuple(TupleDesc td, byte[] data, int offset, RecordId rid) {
+        super(td);
+        this.data = data;
+        this.offset = offset;
+        setRecordId(rid);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        fields[i] = f;
+        modified = true;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = fields[i];
+        if (f == null && !detached) {
+            f = getTupleDesc().getFieldType(i).parse(data, fieldOffset(i));
+            fields[i] = f;
+        }
+        return f;
+    }
+
+    @Override
+    public boolean compareField(int i, Predicate.Op op, Field operand) {
+        Field f = fields[i];
+        if (f != null || detached) {
+            return super.compareField(i, op, operand);
+        }
+        return getTupleDesc().getFieldType(i).compare(data, fieldOffset(i), op, operand);
+    }
+
+    /** @return the offset of the ith field within data */
+    private int fieldOffset(int i) {
+        TupleDesc td = getTupleDesc();
+        if (td.isFixedLength()) {
+            return offset + td.getFieldOffset(i);
+        }
+        if (fieldOffsets == null) {
+            // walk the fields once; each one's length is stored in its bytes
+            int[] offs = new int[td.numFields()];
+            int off = offset;
+            for (int j = 0; j < offs.length; j++) {
+                offs[j] = off;
+                off += td.getFieldType(j).getLen(data, off);
+            }
+            fieldOffsets = offs;
+        }
+        return fieldOffsets[i];
+    }
+
+    @Override
+    Field[] fieldArray() {
+        for (int i = 0; i < fields.length; i++) {
+            getField(i);
+        }
+        return fields;
+    }
+
+    /**
+     * Reset the schema as {@link Tuple#resetTupleDesc} does. The page bytes
+     * are laid out by the table's schema, so the tuple stops reading them
+     * and holds only the fields set from then on, like any other tuple.
+     */
+    @Override
+    public void resetTupleDesc(TupleDesc td) {
+        super.resetTupleDesc(td);
+        detached = true;
+        modified = true;
+    }
+
+    /**
+     * @return true if this tuple still reads through to the given page bytes
+     *   at the given offset, i.e. its serialized form is the one found there
+     */
+    boolean isBackedBy(byte[] pageData, int pageOffset) {
+        return !modified && data == pageData && offset == pageOffset;
+    }
+}
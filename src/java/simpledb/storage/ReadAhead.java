@@ -0,0 +1,72 @@
+package simpledb.storage;
+
+import java.util.function.IntFunction;
+
+/**
+ * ReadAhead watches the pages one scan asks for and, once it sees the scan
+ * moving through a file sequentially, asks the {@link BufferPool} to read
+ * the next few pages asynchronously. The scan can then work on the current
+ * page while the following ones are on their way from disk.
+ * <p>
+ * A ReadAhead belongs to a single iterator and is not threadsafe.
+ *
+ * @see BufferPool#newReadAhead
+ * @see BufferPool#setReadAheadPages
+ */
+public class ReadAhead {
+
+    private final BufferPool pool;
+    private final IntFunction<PageId> pageIds;
+    private final int filePages;
+
+    private int lastPage = -2;
+    private int issuedUpTo = -1;
+
+    /**
+     * @param pool the buffer pool that performs the reads
+     * @param pageIds maps a page number of the scanned file to its PageId
+     * @param filePages the number of pages in the scanned file
+     */
+    ReadAhead(BufferPool pool, IntFunction<PageId> pageIds, int filePages) {
+        this.pool = pool;
+        this.pageIds = pageIds;
+        this.filePages = filePages;
+    }
+
+    /**
+     * Tell the read-ahead that the scan is about to read the given page.
+     * If this continues a sequential run, asynchronous reads are issued so
+     * that the next {@link BufferPool#getReadAheadPages()} pages are in
+     * flight.
+     *
+     * @param pageNo the page number about to be read
+     */
+    public void access(int pageNo) {
+        if (pageNo != lastPage + 1) {
+            // a jump: anything issued ahead of the old position is useless
+            cancelAhead();
+            lastPage = pageNo;
+            issuedUpTo = pageNo;
+            return;
+        }
+        lastPage = pageNo;
+        int target = Math.min(pageNo + pool.getReadAheadPages(), filePages - 1);
+        for (int p = Math.max(issuedUpTo, pageNo) + 1; p <= target; p++) {
+            pool.prefetch(pageIds.apply(p));
+        }
+        issuedUpTo = Math.max(issuedUpTo, target);
+    }
+
+    /** Stop the read-ahead, dropping pages that were issued but not used. */
+    public void close() {
+        cancelAhead();
+        lastPage = -2;
+        issuedUpTo = -1;
+    }
+
+    private void cancelAhead() {
+        for (int p = lastPage + 1; p <= issuedUpTo; p++) {
+            pool.cancelPrefetch(pageIds.apply(p));
+        }
+    }
+}
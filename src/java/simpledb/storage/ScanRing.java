@@ -0,0 +1,53 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ScanRing is a small private set of page buffers used by a large sequential
+ * scan, in the spirit of PostgreSQL's BufferAccessStrategy. Pages the scan
+ * misses on are read into the ring instead of the shared {@link BufferPool},
+ * reusing the oldest ring slot each time, so one pass over a big table does
+ * not push the hot pages of other queries out of the pool.
+ * <p>
+ * Only read-only fetches go through a ring; pages already resident in the
+ * BufferPool are still served from there.
+ *
+ * @see BufferPool#newScanRing
+ * @see BufferPool#getPage(simpledb.transaction.TransactionId, PageId, simpledb.common.Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    private final PageId[] slots;
+    private final Map<PageId, Page> pages = new HashMap<>();
+    private int next = 0;
+
+    /**
+     * @param size the number of pages the ring holds
+     */
+    public ScanRing(int size) {
+        this.slots = new PageId[size];
+    }
+
+    /** @return the page with the given id if it is in the ring, or null */
+    public synchronized Page get(PageId pid) {
+        return pages.get(pid);
+    }
+
+    /** Put a page into the ring, dropping the oldest page if it is full. */
+    public synchronized void add(Page page) {
+        if (slots[next] != null)
+            pages.remove(slots[next]);
+        slots[next] = page.getId();
+        pages.put(page.getId(), page);
+        next = (next + 1) % slots.length;
+    }
+
+    /** Drop every page in the ring. */
+    public synchronized void clear() {
+        pages.clear();
+        Arrays.fill(slots, null);
+        next = 0;
+    }
+}
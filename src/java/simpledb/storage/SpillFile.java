@@ -0,0 +1,150 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that an operator writes when its
+ * working state does not fit in memory, e.g. one partition of a hash join.
+ * Tuples are appended with {@link #add} and, once the file is complete,
+ * read back in the same order with any number of {@link #iterator}s. The
+ * file is removed by {@link #delete}, or at the latest when the JVM exits.
+ */
+public class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private long numTuples = 0;
+    private long bytes = 0;
+
+    /**
+     * Create an empty spill file for tuples of the given schema.
+     *
+     * @param td the schema of the tuples in the file
+     * @throws DbException if the temporary file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("simpledb-spill", ".tmp");
+            this.file.deleteOnExit();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    /** @return the schema of the tuples in the file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples added to the file */
+    public long numTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes the tuples in the file take */
+    public long bytes() {
+        return bytes;
+    }
+
+    /** Append a tuple, which must have the file's schema. */
+    public void add(Tuple t) throws DbException {
+        if (out == null) {
+            throw new IllegalStateException("spill file is already complete");
+        }
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                Field f = t.getField(i);
+                td.getFieldType(i).serialize(f, out);
+                bytes += td.getFieldType(i).getLen(f);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    /** Flush the tuples added so far; no more can be added afterwards. */
+    public void finish() throws DbException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /**
+     * @return an iterator over the tuples of the file, in the order they
+     *   were added; completes the file first
+     */
+    public Reader iterator() throws DbException {
+        finish();
+        try {
+            return new Reader();
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: " + e.getMessage());
+        }
+    }
+
+    /** Close the file, if it is still open, and delete it. */
+    public void delete() {
+        try {
+            finish();
+        } catch (DbException e) {
+            // the contents are thrown away anyway
+        }
+        file.delete();
+    }
+
+    /** Reads the tuples of a complete SpillFile back, one at a time. */
+    public class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private long remaining = numTuples;
+
+        private Reader() throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        public Tuple next() throws DbException {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (ParseException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            remaining--;
+            return t;
+        }
+
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing more to read
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb.storage;
 
 import simpledb.common.Type;
+import simpledb.execution.Predicate;
 
 import java.io.Serializable;
 import java.util.*;
@@ -14,7 +15,8 @@ public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
     private TupleDesc td;
-    private  HashMap<Integer,Field> fields;
+    /** The ith field is fields[i]; null until it is set. */
+    Field[] fields;
     private RecordId recordId ;
 
     /**
@@ -26,11 +28,31 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         // some code goes here
-        fields = new HashMap<>();
+        fields = new Field[td.numFields()];
         this.td=td;
         this.recordId = null;
     }
 
+    /**
+     * Create the concatenation of two tuples, e.g. the output of a join: the
+     * fields of left followed by the fields of right.
+     *
+     * @param td
+     *            the schema of the result; must have as many fields as left
+     *            and right together, e.g. {@link TupleDesc#merge} of theirs
+     * @param left
+     *            the tuple whose fields come first
+     * @param right
+     *            the tuple whose fields follow
+     */
+    public Tuple(TupleDesc td, Tuple left, Tuple right) {
+        this(td);
+        Field[] l = left.fieldArray();
+        Field[] r = right.fieldArray();
+        System.arraycopy(l, 0, fields, 0, l.length);
+        System.arraycopy(r, 0, fields, l.length, r.length);
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -69,10 +91,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        fields.put(i,f);
-        this.td.tdList.remove(i);
-        this.td.tdList.add(i,new TupleDesc.TDItem(f.getType(),f.toString()));
-
+        fields[i] = f;
     }
 
     /**
@@ -83,9 +102,30 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
+        return fields[i];
+    }
 
-        return fields.get(i);
+    /**
+     * @return the array holding all fields of this tuple, each one set if it
+     *   can be; shared, not a copy
+     */
+    Field[] fieldArray() {
+        return fields;
+    }
 
+    /**
+     * Compare the ith field of this tuple to operand, as
+     * getField(i).compare(op, operand) would.
+     *
+     * @param i
+     *            field index to compare. Must be a valid index.
+     * @param op
+     *            the comparison operator
+     * @param operand
+     *            the value to compare the field against
+     */
+    public boolean compareField(int i, Predicate.Op op, Field operand) {
+        return getField(i).compare(op, operand);
     }
 
     /**
@@ -99,9 +139,11 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder curString = new StringBuilder();
-        for (Map.Entry < Integer, Field > entry: fields.entrySet()) {
-            curString.append(entry.getValue().toString());
-            curString.append("\t");
+        for (Field f : fieldArray()) {
+            if (f != null) {
+                curString.append(f.toString());
+                curString.append("\t");
+            }
         }
 
         return curString.toString();
@@ -114,7 +156,7 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
-        return this.fields.values().iterator();
+        return Arrays.asList(fieldArray()).iterator();
     }
 
     /**
@@ -124,7 +166,7 @@ public class Tuple implements Serializable {
     {
         // some code goes here
         this.td = td;
-        fields = new HashMap<>();
+        fields = new Field[td.numFields()];
         this.recordId = null;
     }
 }
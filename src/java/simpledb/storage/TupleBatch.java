@@ -0,0 +1,245 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * TupleBatch holds up to a fixed number of tuples column by column: an
+ * int[] for every INT column and a String[] for every string column. Batch
+ * operators move whole TupleBatches between each other, so the per-tuple
+ * work of a pipeline becomes a tight loop over a column instead of a chain
+ * of virtual calls and Field objects.
+ * <p>
+ * Tuples read from a page keep their RecordId, so that operators that
+ * modify the table, e.g. Delete, can take them from a batch.
+ * <p>
+ * A batch handed out by {@link simpledb.execution.BatchOpIterator#nextBatch}
+ * is only valid until the next call to nextBatch; the consumer may modify it
+ * in place, e.g. to filter it.
+ */
+public class TupleBatch {
+
+    /** Default number of tuples in a batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int[][] ints;
+    private final String[][] strings;
+    // the RecordId of each tuple as its page and slot; null pages where it has none
+    private final PageId[] pages;
+    private final int[] slots;
+    private final int capacity;
+    private int size = 0;
+
+    /**
+     * Create an empty batch for up to capacity tuples of the given schema.
+     *
+     * @param td the schema of the tuples in this batch
+     * @param capacity the maximum number of tuples the batch holds
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new String[td.numFields()][];
+        this.pages = new PageId[capacity];
+        this.slots = new int[capacity];
+        for (int c = 0; c < td.numFields(); c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE)
+                ints[c] = new int[capacity];
+            else
+                strings[c] = new String[capacity];
+        }
+    }
+
+    /** Create an empty batch for {@link #DEFAULT_SIZE} tuples of td. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    private TupleBatch(TupleDesc td, int[][] ints, String[][] strings, PageId[] pages, int[] slots,
+                       int capacity, int size) {
+        this.td = td;
+        this.ints = ints;
+        this.strings = strings;
+        this.pages = pages;
+        this.slots = slots;
+        this.capacity = capacity;
+        this.size = size;
+    }
+
+    /** @return the schema of the tuples in this batch */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples in this batch */
+    public int size() {
+        return size;
+    }
+
+    /** @return true if no more tuples can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Remove all tuples from this batch. */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the values of INT column c; only the first {@link #size()}
+     *   entries are valid
+     */
+    public int[] getIntColumn(int c) {
+        return ints[c];
+    }
+
+    /**
+     * @return the values of string column c; only the first {@link #size()}
+     *   entries are valid
+     */
+    public String[] getStringColumn(int c) {
+        return strings[c];
+    }
+
+    /** @return the value of column c of the given row as a Field */
+    public Field getField(int c, int row) {
+        Type type = td.getFieldType(c);
+        if (type == Type.INT_TYPE)
+            return new IntField(ints[c][row]);
+        if (type == Type.VAR_STRING_TYPE)
+            return new VarStringField(strings[c][row], Type.STRING_LEN);
+        return new StringField(strings[c][row], Type.STRING_LEN);
+    }
+
+    /** @return the given row as a Tuple, with its RecordId if it has one */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < td.numFields(); c++) {
+            t.setField(c, getField(c, row));
+        }
+        if (pages[row] != null)
+            t.setRecordId(new RecordId(pages[row], slots[row]));
+        return t;
+    }
+
+    /** Append a tuple and its RecordId to this batch, which must not be full. */
+    public void add(Tuple t) {
+        for (int c = 0; c < ints.length; c++) {
+            if (ints[c] != null)
+                ints[c][size] = ((IntField) t.getField(c)).getValue();
+            else
+                strings[c][size] = ((StringField) t.getField(c)).getValue();
+        }
+        RecordId rid = t.getRecordId();
+        pages[size] = rid == null ? null : rid.getPageId();
+        slots[size] = rid == null ? 0 : rid.getTupleNumber();
+        size++;
+    }
+
+    /**
+     * Append a tuple, decoding it from its serialized form on a page. The
+     * batch must not be full.
+     *
+     * @param data the bytes holding the tuple
+     * @param offset the offset of the tuple within data
+     * @param pid the page the tuple is on
+     * @param slot the slot of the tuple on its page
+     */
+    public void addSerialized(byte[] data, int offset, PageId pid, int slot) {
+        for (int c = 0; c < ints.length; c++) {
+            Type type = td.getFieldType(c);
+            if (ints[c] != null) {
+                ints[c][size] = ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16)
+                        | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+            } else {
+                strings[c][size] = ((StringField) type.parse(data, offset)).getValue();
+            }
+            offset += type.getLen(data, offset);
+        }
+        pages[size] = pid;
+        slots[size] = slot;
+        size++;
+    }
+
+    /**
+     * Keep only the tuples whose column c compares to operand as op says,
+     * preserving their order.
+     */
+    public void filter(int c, Predicate.Op op, Field operand) {
+        int[] sel = new int[size];
+        int n = 0;
+        if (ints[c] != null) {
+            int[] col = ints[c];
+            int v = ((IntField) operand).getValue();
+            for (int i = 0; i < size; i++) {
+                if (matches(op, Integer.compare(col[i], v)))
+                    sel[n++] = i;
+            }
+        } else {
+            String[] col = strings[c];
+            String v = ((StringField) operand).getValue();
+            for (int i = 0; i < size; i++) {
+                boolean keep = op == Predicate.Op.LIKE ? col[i].contains(v)
+                        : matches(op, col[i].compareTo(v));
+                if (keep)
+                    sel[n++] = i;
+            }
+        }
+        if (n == size)
+            return;
+        for (int col = 0; col < ints.length; col++) {
+            if (ints[col] != null) {
+                int[] values = ints[col];
+                for (int i = 0; i < n; i++)
+                    values[i] = values[sel[i]];
+            } else {
+                String[] values = strings[col];
+                for (int i = 0; i < n; i++)
+                    values[i] = values[sel[i]];
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            pages[i] = pages[sel[i]];
+            slots[i] = slots[sel[i]];
+        }
+        size = n;
+    }
+
+    private static boolean matches(Predicate.Op op, int cmp) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+        }
+        return false;
+    }
+
+    /**
+     * @return a batch of the given columns of this one, sharing their
+     *   storage; valid as long as this batch is
+     * @param columns the columns of this batch, in output order
+     * @param outTd the schema of the result
+     */
+    public TupleBatch project(int[] columns, TupleDesc outTd) {
+        int[][] pInts = new int[columns.length][];
+        String[][] pStrings = new String[columns.length][];
+        for (int i = 0; i < columns.length; i++) {
+            pInts[i] = ints[columns[i]];
+            pStrings[i] = strings[columns[i]];
+        }
+        return new TupleBatch(outTd, pInts, pStrings, pages, slots, capacity, size);
+    }
+}
@@ -54,6 +54,12 @@ public class TupleDesc implements Serializable {
 
     ArrayList<TDItem> tdList = null;
 
+    /** Byte offset of each field within a serialized tuple; built on first use. */
+    private transient int[] offsets;
+
+    /** Whether no field has a variable length; computed on first use. */
+    private transient Boolean fixedLength;
+
     private static final long serialVersionUID = 1L;
   
 
@@ -159,11 +165,72 @@ public class TupleDesc implements Serializable {
 
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Tuples from a given TupleDesc are of a fixed size unless it has
+     *         variable-length fields, in which case this is the largest size
+     *         a tuple can take.
      */
     public int getSize() {
         // some code goes here
-        return this.tdList.size()*Type.INT_TYPE.getLen();
+        int size = 0;
+        for (TDItem item : tdList) {
+            size += item.fieldType.getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return The smallest size (in bytes) a tuple corresponding to this
+     *         TupleDesc can take; equal to {@link #getSize()} unless it has
+     *         variable-length fields.
+     */
+    public int getMinSize() {
+        int size = 0;
+        for (TDItem item : tdList) {
+            size += item.fieldType.getMinLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if every tuple corresponding to this TupleDesc has the
+     *         same size, i.e. none of its fields has a variable length
+     */
+    public boolean isFixedLength() {
+        Boolean fixed = fixedLength;
+        if (fixed == null) {
+            fixed = true;
+            for (TDItem item : tdList) {
+                if (!item.fieldType.isFixedLength()) {
+                    fixed = false;
+                    break;
+                }
+            }
+            fixedLength = fixed;
+        }
+        return fixed;
+    }
+
+    /**
+     * Only meaningful if {@link #isFixedLength()}; fields following a
+     * variable-length field have no fixed offset.
+     *
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @return the offset (in bytes) of the ith field from the start of a
+     *         serialized tuple corresponding to this TupleDesc.
+     */
+    public int getFieldOffset(int i) {
+        int[] offs = offsets;
+        if (offs == null) {
+            offs = new int[tdList.size()];
+            int off = 0;
+            for (int j = 0; j < offs.length; j++) {
+                offs[j] = off;
+                off += tdList.get(j).fieldType.getLen();
+            }
+            offsets = offs;
+        }
+        return offs[i];
     }
 
     /**
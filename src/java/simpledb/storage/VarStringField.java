@@ -0,0 +1,45 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a single String of variable length, up to a
+ * maximum size. Unlike a {@link StringField}, it is serialized without
+ * padding: a two byte length followed by the characters of the string.
+ */
+public class VarStringField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public VarStringField(String s, int maxSize) {
+		super(s, maxSize);
+	}
+
+	/**
+	 * Write this string to dos: two bytes of string length, then the bytes of
+	 * the string.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		Type.VAR_STRING_TYPE.serialize(this, dos);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+		return Type.VAR_STRING_TYPE;
+	}
+}
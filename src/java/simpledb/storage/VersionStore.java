@@ -0,0 +1,221 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore gives read-only transactions a snapshot of the database
+ * without locks. Every commit gets the next commit number, and a snapshot
+ * sees exactly the commits numbered up to the last one when it began.
+ * <p>
+ * The latest committed version of a page is its before image (see
+ * {@link Page#getBeforeImage}), whether or not a writer has dirtied it
+ * since. When a transaction commits, the before image of every page it
+ * changed is kept in the page's version chain, valid for the snapshots
+ * that began before the commit. A snapshot thus reads the oldest chained
+ * version that is still valid for it, or else the page's before image.
+ * Versions that no snapshot can read any more are dropped.
+ *
+ * @Threadsafe
+ */
+final class VersionStore {
+
+    /** A committed version of a page, valid for snapshots taken before commit validUntil. */
+    private static final class Version {
+        final long validUntil;
+        final Page page;
+
+        Version(long validUntil, Page page) {
+            this.validUntil = validUntil;
+            this.page = page;
+        }
+    }
+
+    /** Logs and writes the pages of a committing transaction. */
+    interface Flush {
+        /** Log the changes to the pages; called in commit order. */
+        void log() throws IOException;
+
+        /** Wait until the logged changes are on disk; called while later commits log theirs. */
+        void awaitDurable() throws IOException;
+
+        /** Write the pages and make their before images current; called in commit order. */
+        void write() throws IOException;
+    }
+
+    /** Serializes the logging of commits, so that versions are chained in commit order. */
+    private final Object commitLock = new Object();
+
+    /** The number of the last commit that logged its changes; guarded by commitLock. */
+    private long lastLogged = 0;
+
+    /** The number of the last commit new snapshots see; guarded by this. */
+    private long lastCommit = 0;
+
+    /** The commit number each open snapshot sees; changed only while holding this. */
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+
+    /** The old versions of each page, oldest first. */
+    private final ConcurrentHashMap<PageId, Deque<Version>> chains = new ConcurrentHashMap<>();
+
+    /** Start a snapshot for a transaction, seeing every commit so far. */
+    synchronized void begin(TransactionId tid) {
+        snapshots.put(tid, lastCommit);
+    }
+
+    /** @return the commit number a transaction's snapshot sees, or null if it has none */
+    Long snapshotOf(TransactionId tid) {
+        return snapshots.get(tid);
+    }
+
+    /** End the snapshot of a transaction, dropping the versions only it could read. */
+    void end(TransactionId tid) {
+        synchronized (this) {
+            if (snapshots.remove(tid) == null) {
+                return;
+            }
+        }
+        prune();
+    }
+
+    /** @return the number of open snapshots */
+    int numSnapshots() {
+        return snapshots.size();
+    }
+
+    /** @return the number of old page versions kept for snapshots */
+    int numVersions() {
+        int n = 0;
+        for (Deque<Version> chain : chains.values()) {
+            synchronized (chain) {
+                n += chain.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return the version of a page a snapshot reads, if it is an old one,
+     *   or null if the snapshot reads the latest committed version
+     */
+    Page find(PageId pid, long snapshot) {
+        Deque<Version> chain = chains.get(pid);
+        if (chain == null) {
+            return null;
+        }
+        synchronized (chain) {
+            for (Version v : chain) {
+                if (v.validUntil > snapshot) {
+                    return v.page;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Commit the changes to the given pages: keep their latest committed
+     * versions for the snapshots taken so far, log and write them with
+     * flush, and let new snapshots see the commit.
+     * <p>
+     * Commits log their changes one at a time, but wait for the log to
+     * reach disk together, so that one force of the log serves all of
+     * them. They then write their pages and become visible in the order
+     * they logged them.
+     *
+     * @param pages the pages the transaction dirtied
+     * @param flush logs and writes the pages
+     */
+    void commit(Collection<Page> pages, Flush flush) throws IOException {
+        if (pages.isEmpty()) {
+            flush.log();
+            flush.awaitDurable();
+            flush.write();
+            return;
+        }
+        long commit;
+        synchronized (commitLock) {
+            commit = ++lastLogged;
+            for (Page page : pages) {
+                chainVersion(page.getId(), new Version(commit, page.getBeforeImage()));
+            }
+            try {
+                flush.log();
+            } catch (IOException | RuntimeException e) {
+                publish(commit);
+                throw e;
+            }
+        }
+        try {
+            flush.awaitDurable();
+            awaitTurn(commit);
+            flush.write();
+        } finally {
+            publish(commit);
+        }
+        prune();
+    }
+
+    /** Wait until every commit before the given one is visible. */
+    private synchronized void awaitTurn(long commit) {
+        boolean interrupted = false;
+        while (lastCommit < commit - 1) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Let new snapshots see a commit, once every commit before it is visible. */
+    private synchronized void publish(long commit) {
+        awaitTurn(commit);
+        lastCommit = commit;
+        notifyAll();
+    }
+
+    /** Add a version to the end of the chain of a page. */
+    private void chainVersion(PageId pid, Version version) {
+        while (true) {
+            Deque<Version> chain = chains.computeIfAbsent(pid, k -> new ArrayDeque<>());
+            synchronized (chain) {
+                // prune may have unlinked the chain while it was empty; if
+                // so, make a new one
+                if (chains.get(pid) == chain) {
+                    chain.addLast(version);
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Drop the versions that neither an open snapshot nor a new one can read. */
+    private void prune() {
+        long oldest;
+        synchronized (this) {
+            oldest = lastCommit;
+            for (long s : snapshots.values()) {
+                oldest = Math.min(oldest, s);
+            }
+        }
+        for (Map.Entry<PageId, Deque<Version>> e : chains.entrySet()) {
+            Deque<Version> chain = e.getValue();
+            synchronized (chain) {
+                while (!chain.isEmpty() && chain.peekFirst().validUntil <= oldest) {
+                    chain.removeFirst();
+                }
+                if (chain.isEmpty()) {
+                    // only this chain: a commit may have mapped a new one meanwhile
+                    chains.remove(e.getKey(), chain);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,533 @@
+package simpledb.transaction;
+
+import simpledb.common.DeadlockException;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps the locks of strict two-phase locking: a transaction
+ * takes a shared lock on every page it reads and an exclusive lock on every
+ * page it writes, and holds all of them until it completes.
+ * <p>
+ * Locks form a hierarchy of tables, pages and rows (see {@link LockMode}).
+ * A page lock comes with an intention lock on its table, and a row lock
+ * with intention locks on its page and table, so transactions that change
+ * different rows of a page share the page. A transaction that holds more
+ * row locks in a table than the escalation threshold trades them for a
+ * single lock on the table.
+ * <p>
+ * Every locked object has its own latch and wait queue, so transactions
+ * that lock different objects never contend. Requests that cannot be
+ * granted wait in FIFO order on the object's condition and are woken when
+ * a lock on it is released; a transaction upgrading its lock goes to the
+ * front of the queue.
+ * <p>
+ * Deadlocks are found with a waits-for graph: a waiting request has an edge
+ * to every transaction that holds a conflicting lock or is queued before it.
+ * Whenever a request blocks, or the transactions it waits for change, the
+ * graph is searched for a cycle through the new edges, and the youngest
+ * transaction of a cycle is aborted. A victim that is not the transaction
+ * that found the cycle is woken up by interrupting its waiting threads.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** Default number of row locks in one table a transaction may hold before they are escalated. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 5000;
+
+    /** The object a table lock is kept under. */
+    private static final class Table {
+        final int tableId;
+
+        Table(int tableId) {
+            this.tableId = tableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Table && ((Table) o).tableId == tableId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Integer.hashCode(tableId);
+        }
+    }
+
+    /** A request for a lock, waiting in the locked object's queue. */
+    private static final class Request {
+        final TransactionId tid;
+        /** The mode the transaction will hold once granted, including what it holds already. */
+        final LockMode mode;
+        final Thread thread = Thread.currentThread();
+        /** The transactions the request waits for; guarded by the graph. */
+        Set<TransactionId> blockers = Collections.emptySet();
+
+        Request(TransactionId tid, LockMode mode) {
+            this.tid = tid;
+            this.mode = mode;
+        }
+    }
+
+    /** The lock on one table, page or row; all fields are guarded by latch. */
+    private static final class ResourceLock {
+        final ReentrantLock latch = new ReentrantLock();
+        final Condition changed = latch.newCondition();
+        /** Every transaction holding the lock, with its mode. */
+        final Map<TransactionId, LockMode> holders = new HashMap<>();
+        final Deque<Request> waiting = new ArrayDeque<>();
+        /** Set once the lock is dropped from the table; whoever latches it then must look it up again. */
+        boolean dropped = false;
+    }
+
+    /** The locks held by one transaction. */
+    private static final class Held {
+        /** The mode of every lock held, by locked object. */
+        final ConcurrentHashMap<Object, LockMode> modes = new ConcurrentHashMap<>();
+        /** The number of row locks held in each table. */
+        final ConcurrentHashMap<Integer, AtomicInteger> rows = new ConcurrentHashMap<>();
+    }
+
+    private final ConcurrentHashMap<Object, ResourceLock> locks = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<TransactionId, Held> held = new ConcurrentHashMap<>();
+
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+
+    /**
+     * The waits-for graph: the waiting requests of each transaction, whose
+     * blockers are its edges. Only taken by requests that block, and always
+     * after the latch of the page they wait for.
+     */
+    private final Map<TransactionId, Set<Request>> graph = new HashMap<>();
+
+    /** Transactions chosen to break a deadlock that have not completed yet. */
+    private final Set<TransactionId> victims = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong detections = new AtomicLong();
+    private final AtomicLong detectionNanos = new AtomicLong();
+    private final AtomicLong deadlocks = new AtomicLong();
+    private final AtomicLong abortedVictims = new AtomicLong();
+    private final AtomicLong escalations = new AtomicLong();
+
+    /** @return the latched lock of an object, created if needed */
+    private ResourceLock latch(Object key) {
+        while (true) {
+            ResourceLock l = locks.computeIfAbsent(key, k -> new ResourceLock());
+            l.latch.lock();
+            if (!l.dropped) {
+                return l;
+            }
+            l.latch.unlock();
+        }
+    }
+
+    /** Unlatch the lock of an object, dropping it from the table if nobody holds or waits for it. */
+    private void unlatch(Object key, ResourceLock l) {
+        if (l.holders.isEmpty() && l.waiting.isEmpty()) {
+            l.dropped = true;
+            locks.remove(key, l);
+        }
+        l.latch.unlock();
+    }
+
+    /**
+     * @return the transactions a request for the given mode has to wait
+     *   for: those holding a conflicting lock and those queued before it
+     *   with a conflicting request; empty if it can be granted now
+     */
+    private static Set<TransactionId> blockers(ResourceLock l, TransactionId tid, LockMode mode, Request self) {
+        LockMode current = l.holders.get(tid);
+        if (current != null && current.covers(mode)) {
+            return Collections.emptySet();
+        }
+        Set<TransactionId> blockers = new HashSet<>();
+        for (Map.Entry<TransactionId, LockMode> h : l.holders.entrySet()) {
+            if (!h.getKey().equals(tid) && !h.getValue().isCompatibleWith(mode)) {
+                blockers.add(h.getKey());
+            }
+        }
+        for (Request r : l.waiting) {
+            if (r == self) {
+                break;
+            }
+            if (!r.tid.equals(tid) && !r.mode.isCompatibleWith(mode)) {
+                blockers.add(r.tid);
+            }
+        }
+        return blockers;
+    }
+
+    private void grant(ResourceLock l, TransactionId tid, Object key, LockMode mode) {
+        l.holders.put(tid, mode);
+        held.computeIfAbsent(tid, k -> new Held()).modes.put(key, mode);
+    }
+
+    /** @return whether a transaction holds a lock on an object that covers the given mode */
+    private boolean covered(TransactionId tid, Object key, LockMode mode) {
+        Held h = held.get(tid);
+        LockMode current = h == null ? null : h.modes.get(key);
+        return current != null && current.covers(mode);
+    }
+
+    /**
+     * Acquire a lock on a page for a transaction, waiting until it can be
+     * granted. A transaction that holds a shared lock and asks for an
+     * exclusive one upgrades its lock.
+     *
+     * @param tid the transaction
+     * @param pid the page
+     * @param exclusive whether the lock is exclusive rather than shared
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *   break a deadlock, or the thread was interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean exclusive) throws TransactionAbortedException {
+        acquire(tid, pid, exclusive ? LockMode.X : LockMode.S);
+    }
+
+    /**
+     * Acquire a lock of the given mode on a page for a transaction, together
+     * with the intention lock it needs on the page's table, waiting until
+     * both can be granted. A transaction that holds a weaker lock on the
+     * page upgrades it.
+     *
+     * @param tid the transaction
+     * @param pid the page
+     * @param mode the mode to lock the page in
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *   break a deadlock, or the thread was interrupted
+     */
+    public void acquire(TransactionId tid, PageId pid, LockMode mode) throws TransactionAbortedException {
+        lock(tid, new Table(pid.getTableId()), mode.intention());
+        lock(tid, pid, mode);
+    }
+
+    /**
+     * Acquire a lock on a row for a transaction, together with the intention
+     * locks it needs on the row's page and table, waiting until all of them
+     * can be granted. No row lock is taken if the transaction's lock on the
+     * page or table already covers the row. Once the transaction holds more
+     * row locks in the table than the escalation threshold, they are
+     * replaced by a lock on the whole table.
+     *
+     * @param tid the transaction
+     * @param rid the row
+     * @param exclusive whether the lock is exclusive rather than shared
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *   break a deadlock, or the thread was interrupted
+     * @see #setEscalationThreshold
+     */
+    public void lockRow(TransactionId tid, RecordId rid, boolean exclusive) throws TransactionAbortedException {
+        LockMode mode = exclusive ? LockMode.X : LockMode.S;
+        PageId pid = rid.getPageId();
+        Table table = new Table(pid.getTableId());
+        acquire(tid, pid, mode.intention());
+        if (covered(tid, table, mode) || covered(tid, pid, mode) || covered(tid, rid, mode)) {
+            return;
+        }
+        Held h = held.get(tid);
+        boolean counted = h.modes.containsKey(rid);
+        lock(tid, rid, mode);
+        if (!counted && h.rows.computeIfAbsent(table.tableId, k -> new AtomicInteger())
+                .incrementAndGet() > escalationThreshold) {
+            escalate(tid, h, table);
+        }
+    }
+
+    /** Replace the row locks a transaction holds in a table by a lock on the table. */
+    private void escalate(TransactionId tid, Held h, Table table) throws TransactionAbortedException {
+        List<RecordId> rows = new ArrayList<>();
+        LockMode mode = LockMode.S;
+        for (Map.Entry<Object, LockMode> e : h.modes.entrySet()) {
+            if (e.getKey() instanceof RecordId
+                    && ((RecordId) e.getKey()).getPageId().getTableId() == table.tableId) {
+                rows.add((RecordId) e.getKey());
+                mode = mode.combine(e.getValue());
+            }
+        }
+        lock(tid, table, mode);
+        for (RecordId rid : rows) {
+            if (h.modes.remove(rid) != null) {
+                unlock(tid, rid);
+            }
+        }
+        h.rows.remove(table.tableId);
+        escalations.incrementAndGet();
+    }
+
+    /**
+     * Set how many row locks in one table a transaction may hold before they
+     * are escalated to a lock on the table.
+     */
+    public void setEscalationThreshold(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("escalation threshold must be positive");
+        }
+        escalationThreshold = rows;
+    }
+
+    /** Acquire a lock of the given mode on one object, without its intention locks. */
+    private void lock(TransactionId tid, Object key, LockMode requested) throws TransactionAbortedException {
+        if (victims.contains(tid)) {
+            abortVictim();
+        }
+        if (covered(tid, key, requested)) {
+            return;
+        }
+        ResourceLock l = latch(key);
+        try {
+            LockMode current = l.holders.get(tid);
+            LockMode mode = current == null ? requested : current.combine(requested);
+            if (blockers(l, tid, mode, null).isEmpty()) {
+                grant(l, tid, key, mode);
+                return;
+            }
+            Request self = new Request(tid, mode);
+            if (current != null) {
+                // an upgrade must not wait behind requests that wait for it
+                l.waiting.addFirst(self);
+            } else {
+                l.waiting.addLast(self);
+            }
+            try {
+                Set<TransactionId> blockers;
+                while (!(blockers = blockers(l, tid, mode, self)).isEmpty() && !victims.contains(tid)) {
+                    waitFor(self, blockers);
+                    l.changed.await();
+                }
+            } catch (DeadlockException e) {
+                abortVictim();
+            } catch (InterruptedException e) {
+                if (!victims.contains(tid)) {
+                    Thread.currentThread().interrupt();
+                    throw new TransactionAbortedException();
+                }
+            } finally {
+                if (!l.latch.isHeldByCurrentThread()) {
+                    // an asynchronous error such as Thread.stop can leave await without the latch
+                    l.latch.lock();
+                }
+                stopWaiting(self);
+                l.waiting.remove(self);
+                // the requests behind this one may be grantable now
+                l.changed.signalAll();
+            }
+            if (victims.contains(tid)) {
+                abortVictim();
+            }
+            grant(l, tid, key, mode);
+        } finally {
+            unlatch(key, l);
+        }
+    }
+
+    private void abortVictim() throws TransactionAbortedException {
+        abortedVictims.incrementAndGet();
+        throw new TransactionAbortedException();
+    }
+
+    /**
+     * Record the edges of a blocked request in the waits-for graph and look
+     * for a cycle through them, unless they did not change since the last
+     * search. Aborts the youngest transaction of a cycle.
+     *
+     * @throws DeadlockException if the request's own transaction is the victim
+     */
+    private void waitFor(Request self, Set<TransactionId> blockers) throws DeadlockException {
+        long start = System.nanoTime();
+        TransactionId victim = null;
+        synchronized (graph) {
+            if (blockers.equals(self.blockers)) {
+                return;
+            }
+            self.blockers = blockers;
+            graph.computeIfAbsent(self.tid, k -> new HashSet<>()).add(self);
+            List<TransactionId> cycle = findCycle(self.tid);
+            if (cycle != null) {
+                deadlocks.incrementAndGet();
+                victim = Collections.max(cycle, Comparator.comparingLong(TransactionId::getId));
+                victims.add(victim);
+                if (!victim.equals(self.tid)) {
+                    for (Request r : graph.get(victim)) {
+                        r.thread.interrupt();
+                    }
+                }
+            }
+        }
+        detections.incrementAndGet();
+        detectionNanos.addAndGet(System.nanoTime() - start);
+        if (self.tid.equals(victim)) {
+            throw new DeadlockException();
+        }
+    }
+
+    /**
+     * @return the transactions on a cycle of the waits-for graph through
+     *   the given transaction, or null if there is none; called with the
+     *   graph locked
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            for (Request r : graph.getOrDefault(t, Collections.emptySet())) {
+                for (TransactionId next : r.blockers) {
+                    if (next.equals(start)) {
+                        List<TransactionId> cycle = new ArrayList<>();
+                        for (TransactionId c = t; c != null; c = parent.get(c)) {
+                            cycle.add(c);
+                        }
+                        return cycle;
+                    }
+                    if (!parent.containsKey(next)) {
+                        parent.put(next, t);
+                        stack.push(next);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Drop a request from the waits-for graph once it no longer waits. */
+    private void stopWaiting(Request self) {
+        synchronized (graph) {
+            Set<Request> requests = graph.get(self.tid);
+            if (requests != null && requests.remove(self) && requests.isEmpty()) {
+                graph.remove(self.tid);
+            }
+            if (victims.contains(self.tid)) {
+                // nobody interrupts a request that left the graph, so this
+                // clears only the interrupt that woke a victim
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /** @return how many times the waits-for graph was searched for a cycle */
+    public long getDetections() {
+        return detections.get();
+    }
+
+    /** @return the total time spent searching the waits-for graph, in nanoseconds */
+    public long getDetectionNanos() {
+        return detectionNanos.get();
+    }
+
+    /** @return the number of deadlocks found */
+    public long getDeadlocks() {
+        return deadlocks.get();
+    }
+
+    /** @return the number of lock requests aborted because their transaction was a deadlock victim */
+    public long getAbortedVictims() {
+        return abortedVictims.get();
+    }
+
+    /** @return the number of times row locks were escalated to a table lock */
+    public long getEscalations() {
+        return escalations.get();
+    }
+
+    private LockMode modeOf(TransactionId tid, Object key) {
+        Held h = held.get(tid);
+        return h == null ? null : h.modes.get(key);
+    }
+
+    /** @return the mode of the lock a transaction holds on a page, or null if it holds none */
+    public LockMode getLockMode(TransactionId tid, PageId pid) {
+        return modeOf(tid, pid);
+    }
+
+    /** @return the mode of the lock a transaction holds on a row, or null if it holds none */
+    public LockMode getRowLockMode(TransactionId tid, RecordId rid) {
+        return modeOf(tid, rid);
+    }
+
+    /** @return the mode of the lock a transaction holds on a table, or null if it holds none */
+    public LockMode getTableLockMode(TransactionId tid, int tableId) {
+        return modeOf(tid, new Table(tableId));
+    }
+
+    /** @return whether a transaction holds a lock on a page, of any mode */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        return modeOf(tid, pid) != null;
+    }
+
+    /** @return whether a transaction holds an exclusive lock on a page */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        return modeOf(tid, pid) == LockMode.X;
+    }
+
+    /** @return whether some transaction holds an intention lock to change rows of a page */
+    public boolean hasRowWriters(PageId pid) {
+        ResourceLock l = locks.get(pid);
+        if (l == null) {
+            return false;
+        }
+        l.latch.lock();
+        try {
+            return l.holders.containsValue(LockMode.IX) || l.holders.containsValue(LockMode.SIX);
+        } finally {
+            l.latch.unlock();
+        }
+    }
+
+    /** @return the pages a transaction holds a lock on */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Held h = held.get(tid);
+        if (h == null) {
+            return Collections.emptySet();
+        }
+        Set<PageId> pages = new HashSet<>();
+        for (Object key : h.modes.keySet()) {
+            if (key instanceof PageId) {
+                pages.add((PageId) key);
+            }
+        }
+        return pages;
+    }
+
+    private void unlock(TransactionId tid, Object key) {
+        ResourceLock l = latch(key);
+        try {
+            if (l.holders.remove(tid) != null) {
+                l.changed.signalAll();
+            }
+        } finally {
+            unlatch(key, l);
+        }
+    }
+
+    /**
+     * Release the lock a transaction holds on a page, before the
+     * transaction completes.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Held h = held.get(tid);
+        if (h != null && h.modes.remove(pid) != null) {
+            unlock(tid, pid);
+        }
+    }
+
+    /** Release every lock a transaction holds. */
+    public void releaseAll(TransactionId tid) {
+        victims.remove(tid);
+        Held h = held.remove(tid);
+        if (h != null) {
+            for (Object key : h.modes.keySet()) {
+                unlock(tid, key);
+            }
+        }
+    }
+}
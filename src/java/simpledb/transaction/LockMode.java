@@ -0,0 +1,61 @@
+package simpledb.transaction;
+
+/**
+ * The modes of a lock in the lock hierarchy of tables, pages and rows. A
+ * transaction that locks a page or row in shared (S) or exclusive (X) mode
+ * first takes the matching intention lock (IS or IX) on everything above
+ * it, so that a lock on a whole table or page conflicts with the locks on
+ * the pages and rows below it. SIX is held by a transaction that reads a
+ * whole page or table and changes some of its rows.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    /** Which modes may be held by different transactions at once, indexed by ordinal. */
+    private static final boolean[][] COMPATIBLE = {
+            //         IS     IX     S      SIX    X
+            /* IS  */ {true,  true,  true,  true,  false},
+            /* IX  */ {true,  true,  false, false, false},
+            /* S   */ {true,  false, true,  false, false},
+            /* SIX */ {true,  false, false, false, false},
+            /* X   */ {false, false, false, false, false},
+    };
+
+    /** @return whether another transaction may hold a lock of the given mode alongside this one */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /** @return whether a lock of this mode allows everything one of the given mode does */
+    public boolean covers(LockMode other) {
+        switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+                return other == S || other == IS;
+            case IX:
+                return other == IX || other == IS;
+            default:
+                return other == IS;
+        }
+    }
+
+    /** @return the weakest mode that covers both this and the given mode */
+    public LockMode combine(LockMode other) {
+        if (covers(other)) {
+            return this;
+        }
+        if (other.covers(this)) {
+            return other;
+        }
+        // only S and IX are incomparable
+        return SIX;
+    }
+
+    /** @return the intention mode a lock of this mode needs on the objects above it */
+    public LockMode intention() {
+        return this == S || this == IS ? IS : IX;
+    }
+}
@@ -11,15 +11,29 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * @param readOnly whether the transaction only reads; a read-only
+     *   transaction reads a snapshot of the database as of its start,
+     *   without taking locks
+     */
+    public Transaction(boolean readOnly) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly) {
+            Database.getBufferPool().beginSnapshot(tid);
+        }
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -31,6 +45,11 @@ public class Transaction {
         return tid;
     }
 
+    /** @return whether the transaction reads a snapshot rather than taking locks */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /** Finish the transaction */
     public void commit() throws IOException {
         transactionComplete(false);
@@ -50,13 +69,9 @@ public class Transaction {
                 Database.getLogFile().logAbort(tid); //does rollback too
             } 
 
-            // Release locks and flush pages if needed
-            Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-
-            // write commit log record
-            if (!abort) {
-            	Database.getLogFile().logCommit(tid);
-            }
+            // Release locks and flush pages if needed; a commit also writes
+            // its commit log record, forced together with its changes
+            Database.getBufferPool().transactionComplete(tid, !abort, true); // release locks
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolReadTest extends SimpleDbTestBase {
+
+    /* Counts the number of readPage operations, and makes them slow. */
+    static class SlowHeapFile extends HeapFile {
+        final AtomicInteger readCount = new AtomicInteger(0);
+
+        public SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            readCount.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /* A page id whose hash code collides with every other one. */
+    static class CollidingPageId extends HeapPageId {
+        public CollidingPageId(int tableId, int pgNo) {
+            super(tableId, pgNo);
+        }
+
+        @Override
+        public int hashCode() {
+            return 0;
+        }
+    }
+
+    private SlowHeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 1008, 1000, null, null);
+        hf = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Distinct pages with the same hash code are cached separately.
+     */
+    @Test public void hashCollision() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferPool bp = Database.getBufferPool();
+        Page p0 = bp.getPage(tid, new CollidingPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        Page p1 = bp.getPage(tid, new CollidingPageId(hf.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(0, p0.getId().getPageNumber());
+        assertEquals(1, p1.getId().getPageNumber());
+        assertSame(p0, bp.getPage(tid, new CollidingPageId(hf.getId(), 0), Permissions.READ_ONLY));
+        assertEquals(2, hf.readCount.get());
+    }
+
+    /**
+     * Concurrent misses on the same page read it from disk only once.
+     */
+    @Test public void singleFlightMiss() throws Exception {
+        final BufferPool bp = Database.getBufferPool();
+        final HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Page> seen = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    Page p = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                    synchronized (seen) {
+                        seen.add(p);
+                    }
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(8, seen.size());
+        for (Page p : seen) {
+            assertSame(seen.get(0), p);
+        }
+        assertEquals(1, hf.readCount.get());
+    }
+
+    /**
+     * A sequential scan reads the following pages ahead, and still reads
+     * every page from disk exactly once.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        SlowHeapFile big = createSlowFile(10);
+        BufferPool bp = Database.getBufferPool();
+        bp.setReadAheadPages(4);
+        assertEquals(5040, scan(big));
+        assertEquals(10, big.readCount.get());
+        assertTrue(bp.getPrefetchHits() > 0);
+        assertEquals(10, bp.getPrefetchHits() + bp.getPrefetchMisses());
+    }
+
+    /**
+     * With read-ahead switched off every page is read synchronously.
+     */
+    @Test public void readAheadOff() throws Exception {
+        SlowHeapFile big = createSlowFile(4);
+        BufferPool bp = Database.getBufferPool();
+        bp.setReadAheadPages(0);
+        assertEquals(2016, scan(big));
+        assertEquals(0, bp.getPrefetchHits());
+        assertEquals(4, bp.getPrefetchMisses());
+    }
+
+    /**
+     * A jump forward past the pages read ahead drops them.
+     */
+    @Test public void jumpCancelsReadAhead() throws Exception {
+        SlowHeapFile big = createSlowFile(20);
+        BufferPool bp = Database.getBufferPool();
+        bp.setReadAheadPages(4);
+        ReadAhead ra = bp.newReadAhead(p -> new HeapPageId(big.getId(), p), 20);
+        ra.access(0);
+        ra.access(1);
+        assertEquals(4, bp.getPrefetchedPages());
+        ra.access(10);
+        assertEquals(0, bp.getPrefetchedPages());
+        ra.close();
+    }
+
+    private SlowHeapFile createSlowFile(int pages) throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * pages, 1000, null, null);
+        SlowHeapFile file = new SlowHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        return file;
+    }
+
+    private static int scan(HeapFile file) throws Exception {
+        DbFileIterator it = file.iterator(new TransactionId());
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        return count;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolReadTest.class);
+    }
+}
@@ -97,6 +97,28 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Check that the files of replaced and cleared tables are closed
+     */
+    @Test public void closeDroppedFiles() {
+        int[] closed = new int[1];
+        DbFile f = new SkeletonFile(id2, Utility.getTupleDesc(2)) {
+            @Override
+            public void close() {
+                closed[0]++;
+            }
+        };
+        Database.getCatalog().addTable(f, name);
+        Database.getCatalog().addTable(f, name);
+        assertEquals(0, closed[0]);
+        Database.getCatalog().addTable(new SkeletonFile(id2, Utility.getTupleDesc(2)), name);
+        assertEquals(1, closed[0]);
+
+        Database.getCatalog().addTable(f, name);
+        Database.getCatalog().clear();
+        assertEquals(2, closed[0]);
+    }
+
     /**
      * JUnit suite target
      */
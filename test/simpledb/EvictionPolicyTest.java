@@ -0,0 +1,96 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class EvictionPolicyTest extends SimpleDbTestBase {
+
+    private static final HeapPageId P0 = new HeapPageId(-1, 0);
+    private static final HeapPageId P1 = new HeapPageId(-1, 1);
+    private static final HeapPageId P2 = new HeapPageId(-1, 2);
+
+    /**
+     * Unit test for LruEvictionPolicy: the least recently used page goes first.
+     */
+    @Test public void lru() {
+        EvictionPolicy policy = new LruEvictionPolicy();
+        policy.recordAccess(P0);
+        policy.recordAccess(P1);
+        policy.recordAccess(P2);
+        policy.recordAccess(P0);
+        assertEquals(P1, policy.chooseVictim(pid -> true));
+        assertEquals(P2, policy.chooseVictim(pid -> !pid.equals(P1)));
+        policy.remove(P1);
+        assertEquals(P2, policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * Unit test for ClockEvictionPolicy: referenced pages get a second chance.
+     */
+    @Test public void clock() {
+        EvictionPolicy policy = new ClockEvictionPolicy();
+        policy.recordAccess(P0);
+        policy.recordAccess(P1);
+        policy.recordAccess(P2);
+        // all bits set: the first sweep clears them and P0 is picked
+        assertEquals(P0, policy.chooseVictim(pid -> true));
+        policy.remove(P0);
+        // P1 regains its bit, so the hand skips it
+        policy.recordAccess(P1);
+        assertEquals(P2, policy.chooseVictim(pid -> true));
+        assertNull(policy.chooseVictim(pid -> false));
+    }
+
+    /**
+     * Unit test for LruKEvictionPolicy: pages seen fewer than K times go first.
+     */
+    @Test public void lruK() {
+        EvictionPolicy policy = new LruKEvictionPolicy(2);
+        policy.recordAccess(P0);
+        policy.recordAccess(P0);
+        policy.recordAccess(P1);
+        policy.recordAccess(P1);
+        policy.recordAccess(P2);
+        // P2 was only seen once, even though it is the most recent
+        assertEquals(P2, policy.chooseVictim(pid -> true));
+        policy.remove(P2);
+        // P0's second-to-last reference is the oldest
+        assertEquals(P0, policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * BufferPool never holds more pages than its capacity.
+     */
+    @Test public void bufferPoolCapacity() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1512, null, null);
+        assertEquals(3, f.numPages());
+        TransactionId tid = new TransactionId();
+
+        for (EvictionPolicy policy : new EvictionPolicy[] {
+                new LruEvictionPolicy(), new ClockEvictionPolicy(), new LruKEvictionPolicy() }) {
+            BufferPool bp = Database.resetBufferPool(2, policy);
+            Page p0 = bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(f.getId(), 1), Permissions.READ_ONLY);
+            bp.getPage(tid, new HeapPageId(f.getId(), 2), Permissions.READ_ONLY);
+            // page 0 was evicted, so it is read from disk again
+            assertNotSame(p0, bp.getPage(tid, new HeapPageId(f.getId(), 0), Permissions.READ_ONLY));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EvictionPolicyTest.class);
+    }
+}
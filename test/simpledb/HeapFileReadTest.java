@@ -1,11 +1,16 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
+import java.io.File;
+import java.io.PrintWriter;
 import java.util.*;
 import org.junit.After;
 import org.junit.Before;
@@ -81,6 +86,23 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() with memory-mapped reads
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        byte[] expected = hf.readPage(pid).getPageData();
+
+        hf.setMemoryMapped(true);
+        assertArrayEquals(expected, hf.readPage(pid).getPageData());
+
+        // a write drops the mapping, so the new contents are seen
+        HeapPage empty = new HeapPage(pid, HeapPage.createEmptyPageData());
+        hf.writePage(empty);
+        assertEquals(504, ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -125,6 +147,68 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * A scan over a file larger than the buffer pool goes through a scan ring
+     * and leaves the pages already cached in the pool alone.
+     */
+    @Test
+    public void testLargeScanKeepsPoolPages() throws Exception {
+        HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 12,
+                null, null);
+        BufferPool bp = Database.resetBufferPool(4);
+        HeapPageId hotPid = new HeapPageId(hf.getId(), 0);
+        Page hot = bp.getPage(tid, hotPid, Permissions.READ_ONLY);
+
+        DbFileIterator it = bigFile.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(504 * 12, count);
+        assertSame(hot, bp.getPage(tid, hotPid, Permissions.READ_ONLY));
+    }
+
+    /**
+     * HeapFileEncoder writes tables with variable-length strings as slotted
+     * pages that HeapFile can scan.
+     */
+    @Test
+    public void encodeVarString() throws Exception {
+        File input = File.createTempFile("varTable", ".txt");
+        input.deleteOnExit();
+        int rows = 1000;
+        try (PrintWriter pw = new PrintWriter(input)) {
+            for (int i = 0; i < rows; i++) {
+                pw.println(i + "," + "name" + i);
+            }
+        }
+        File output = File.createTempFile("varTable", ".dat");
+        output.deleteOnExit();
+        Type[] types = new Type[]{ Type.INT_TYPE, Type.VAR_STRING_TYPE };
+        HeapFileEncoder.convert(input, output, BufferPool.getPageSize(), 2, types);
+
+        HeapFile vhf = new HeapFile(output, new TupleDesc(types));
+        Database.getCatalog().addTable(vhf, SystemTestUtil.getUUID());
+        // 1000 fixed-length (INT, STRING) tuples would need 34 pages
+        assertEquals(5, vhf.numPages());
+
+        DbFileIterator it = vhf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            assertEquals("name" + key, ((StringField) t.getField(1)).getValue());
+            assertTrue(t.compareField(1, Predicate.Op.EQUALS, new StringField("name" + key, Type.STRING_LEN)));
+            count++;
+        }
+        it.close();
+        assertEquals(rows, count);
+    }
+
     /**
      * JUnit suite target
      */
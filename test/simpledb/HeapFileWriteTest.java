@@ -12,6 +12,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.File;
 import java.util.Arrays;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -50,6 +51,20 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Writing a page of a file that is not on disk creates the file.
+     */
+    @Test public void writeCreatesFile() throws Exception {
+        File f = File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        assertTrue(f.delete());
+        HeapFile file = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(file.getId(), 0);
+        file.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        assertEquals(1, file.numPages());
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
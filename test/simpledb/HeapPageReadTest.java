@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -13,6 +14,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -102,6 +104,40 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read from a page are views over its bytes, and an untouched
+     * page serializes back to the bytes it was read from.
+     */
+    @Test public void readThrough() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        Tuple tup = it.next();
+        assertTrue(tup instanceof PageTuple);
+        assertTrue(tup.compareField(0, Predicate.Op.EQUALS, new IntField(EXAMPLE_VALUES[0][0])));
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+
+        tup.setField(1, new IntField(-1));
+        assertEquals(new IntField(-1), tup.getField(1));
+        assertEquals(-1, ((IntField) new HeapPage(pid, page.getPageData())
+                .iterator().next().getField(1)).getValue());
+    }
+
+    /**
+     * A tuple read from a page can have its schema reset like any other.
+     */
+    @Test public void resetTupleDesc() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Tuple tup = page.iterator().next();
+        TupleDesc td = Utility.getTupleDesc(2, "renamed");
+        tup.resetTupleDesc(td);
+        assertEquals(td, tup.getTupleDesc());
+
+        tup.setField(0, new IntField(7));
+        tup.setField(1, new IntField(8));
+        assertEquals(new IntField(7), tup.getField(0));
+        assertTrue(tup.compareField(1, Predicate.Op.EQUALS, new IntField(8)));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
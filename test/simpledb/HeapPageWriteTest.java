@@ -1,7 +1,9 @@
 package simpledb;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -11,10 +13,15 @@ import org.junit.Test;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.VarStringField;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
@@ -90,6 +97,66 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples with variable-length strings are packed into a slotted page,
+     * survive a round trip through getPageData, and space freed by deletes
+     * is reused.
+     */
+    @Test public void slottedPage() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[]{ Type.INT_TYPE, Type.VAR_STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPageId vpid = new HeapPageId(-2, 0);
+        HeapPage page = new HeapPage(vpid, HeapPage.createEmptyPageData());
+
+        int inserted = 0;
+        try {
+            while (true) {
+                page.insertTuple(varTuple(td, inserted, "v" + inserted));
+                inserted++;
+            }
+        } catch (DbException e) {
+            // explicitly ignored: the page is full
+        }
+        // far more than the 30 tuples of a fixed-length (INT, STRING) page
+        assertTrue(inserted > 200);
+        assertEquals(0, page.getNumEmptySlots());
+
+        HeapPage copy = new HeapPage(vpid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        List<Tuple> read = new ArrayList<>();
+        while (it.hasNext())
+            read.add(it.next());
+        assertEquals(inserted, read.size());
+        for (int i = 0; i < inserted; i++) {
+            assertEquals(new IntField(i), read.get(i).getField(0));
+            assertEquals("v" + i, ((StringField) read.get(i).getField(1)).getValue());
+        }
+
+        // free the space of two short tuples; one longer tuple fits in it
+        copy.deleteTuple(read.get(3));
+        copy.deleteTuple(read.get(4));
+        copy.insertTuple(varTuple(td, -1, "v3v4"));
+        copy = new HeapPage(vpid, copy.getPageData());
+        assertEquals("v3v4", findString(copy, -1));
+    }
+
+    private static Tuple varTuple(TupleDesc td, int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new VarStringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String findString(HeapPage page, int key) {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (t.getField(0).equals(new IntField(key)))
+                return ((StringField) t.getField(1)).getValue();
+        }
+        return null;
+    }
+
     /**
      * Unit test for HeapPage.deleteTuple() with false tuples
      */
@@ -0,0 +1,236 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest extends SimpleDbTestBase {
+    private final PageId p0 = new HeapPageId(1, 0);
+    private final PageId p1 = new HeapPageId(1, 1);
+    /** How long to wait for a thread that should get its lock. */
+    private static final long WAIT_MS = 1000;
+
+    /** Acquire a lock in a new thread; the latch counts down once it is granted. */
+    private static Thread acquireLater(LockManager lm, TransactionId tid, PageId pid, boolean exclusive,
+                                       CountDownLatch granted) {
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(tid, pid, exclusive);
+                granted.countDown();
+            } catch (TransactionAbortedException ignored) {
+            }
+        });
+        t.start();
+        return t;
+    }
+
+    @Test public void sharedLocks() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, p0, false);
+        lm.acquire(t2, p0, false);
+        assertTrue(lm.holdsLock(t1, p0));
+        assertTrue(lm.holdsLock(t2, p0));
+        assertFalse(lm.holdsExclusiveLock(t1, p0));
+        assertFalse(lm.holdsLock(t1, p1));
+    }
+
+    @Test public void exclusiveWaitsForRelease() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, p0, true);
+        CountDownLatch granted = new CountDownLatch(1);
+        Thread t = acquireLater(lm, t2, p0, false, granted);
+        Thread.sleep(100);
+        assertEquals(1, granted.getCount());
+        lm.releaseAll(t1);
+        t.join(WAIT_MS);
+        assertEquals(0, granted.getCount());
+        assertTrue(lm.holdsLock(t2, p0));
+        assertFalse(lm.holdsLock(t1, p0));
+    }
+
+    @Test public void upgrade() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        lm.acquire(t1, p0, false);
+        lm.acquire(t2, p0, false);
+        CountDownLatch granted = new CountDownLatch(1);
+        Thread t = acquireLater(lm, t1, p0, true, granted);
+        Thread.sleep(100);
+        assertEquals(1, granted.getCount());
+        lm.release(t2, p0);
+        t.join(WAIT_MS);
+        assertEquals(0, granted.getCount());
+        assertTrue(lm.holdsExclusiveLock(t1, p0));
+    }
+
+    /** Two transactions that each wait for the other's page: the younger one aborts. */
+    @Test public void deadlock() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, p0, true);
+        lm.acquire(younger, p1, true);
+        CountDownLatch granted = new CountDownLatch(1);
+        Thread t = acquireLater(lm, older, p1, true, granted);
+        Thread.sleep(100);
+        assertEquals(1, granted.getCount());
+        try {
+            lm.acquire(younger, p0, true);
+            fail("expected the younger transaction to abort");
+        } catch (TransactionAbortedException expected) {
+        }
+        assertEquals(1, lm.getDeadlocks());
+        assertEquals(1, lm.getAbortedVictims());
+        lm.releaseAll(younger);
+        t.join(WAIT_MS);
+        assertEquals(0, granted.getCount());
+        assertTrue(lm.holdsExclusiveLock(older, p1));
+    }
+
+    /** The transaction that closes a cycle is not always the youngest one on it. */
+    @Test public void deadlockAbortsOtherVictim() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId older = new TransactionId();
+        TransactionId younger = new TransactionId();
+        lm.acquire(older, p0, false);
+        lm.acquire(younger, p0, false);
+        AtomicInteger aborted = new AtomicInteger();
+        Thread t = new Thread(() -> {
+            try {
+                lm.acquire(younger, p0, true);
+            } catch (TransactionAbortedException e) {
+                aborted.incrementAndGet();
+                lm.releaseAll(younger);
+            }
+        });
+        t.start();
+        Thread.sleep(100);
+        // both upgrade: older closes the cycle, younger is interrupted
+        lm.acquire(older, p0, true);
+        t.join(WAIT_MS);
+        assertEquals(1, aborted.get());
+        assertTrue(lm.holdsExclusiveLock(older, p0));
+    }
+
+    /** Transactions changing rows of a page share it, but keep a reader of the whole page out. */
+    @Test public void intentionLocks() throws Exception {
+        LockManager lm = new LockManager();
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        TransactionId reader = new TransactionId();
+        lm.lockRow(t1, new RecordId(p0, 0), true);
+        lm.lockRow(t2, new RecordId(p0, 1), true);
+        assertEquals(LockMode.IX, lm.getLockMode(t1, p0));
+        assertEquals(LockMode.IX, lm.getTableLockMode(t2, p0.getTableId()));
+        assertEquals(LockMode.X, lm.getRowLockMode(t2, new RecordId(p0, 1)));
+
+        CountDownLatch rowGranted = new CountDownLatch(1);
+        Thread row = new Thread(() -> {
+            try {
+                lm.lockRow(t2, new RecordId(p0, 0), true);
+                rowGranted.countDown();
+            } catch (TransactionAbortedException ignored) {
+            }
+        });
+        row.start();
+        CountDownLatch pageGranted = new CountDownLatch(1);
+        Thread t = acquireLater(lm, reader, p0, false, pageGranted);
+        Thread.sleep(100);
+        assertEquals(1, rowGranted.getCount());
+        assertEquals(1, pageGranted.getCount());
+
+        lm.releaseAll(t1);
+        row.join(WAIT_MS);
+        assertEquals(0, rowGranted.getCount());
+        assertEquals(1, pageGranted.getCount());
+        lm.releaseAll(t2);
+        t.join(WAIT_MS);
+        assertEquals(0, pageGranted.getCount());
+    }
+
+    @Test public void escalation() throws Exception {
+        LockManager lm = new LockManager();
+        lm.setEscalationThreshold(3);
+        TransactionId tid = new TransactionId();
+        lm.lockRow(tid, new RecordId(p0, 0), false);
+        lm.lockRow(tid, new RecordId(p0, 1), true);
+        lm.lockRow(tid, new RecordId(p1, 0), false);
+        assertEquals(0, lm.getEscalations());
+        lm.lockRow(tid, new RecordId(p1, 1), false);
+        assertEquals(1, lm.getEscalations());
+        assertEquals(LockMode.X, lm.getTableLockMode(tid, p0.getTableId()));
+        assertEquals(null, lm.getRowLockMode(tid, new RecordId(p0, 1)));
+        // the pages stay locked, and the table lock covers their rows
+        assertTrue(lm.holdsLock(tid, p1));
+        lm.lockRow(tid, new RecordId(p1, 2), true);
+        assertEquals(null, lm.getRowLockMode(tid, new RecordId(p1, 2)));
+
+        TransactionId other = new TransactionId();
+        CountDownLatch granted = new CountDownLatch(1);
+        Thread t = acquireLater(lm, other, new HeapPageId(1, 2), false, granted);
+        Thread.sleep(100);
+        assertEquals(1, granted.getCount());
+        lm.releaseAll(tid);
+        t.join(WAIT_MS);
+        assertEquals(0, granted.getCount());
+    }
+
+    @Test public void manyThreads() throws Exception {
+        LockManager lm = new LockManager();
+        int[] counter = new int[1];
+        AtomicInteger aborted = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < 50; j++) {
+                    TransactionId tid = new TransactionId();
+                    try {
+                        lm.acquire(tid, p0, true);
+                        counter[0]++;
+                    } catch (TransactionAbortedException e) {
+                        aborted.incrementAndGet();
+                    } finally {
+                        lm.releaseAll(tid);
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(0, aborted.get());
+        assertEquals(32 * 50, counter[0]);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
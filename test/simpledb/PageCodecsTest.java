@@ -0,0 +1,70 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageCodecs;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PageCodecsTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for PageCodecs.registerPage() and registerId()
+     */
+    @Test public void registerTaken() {
+        try {
+            PageCodecs.registerPage(PageCodecs.HEAP_PAGE, HeapPage.class,
+                    (pid, data) -> new HeapPage((HeapPageId) pid, data));
+            fail("registered a tag twice");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            PageCodecs.registerId(0, HeapPageId.class, 2, data -> new HeapPageId(data[0], data[1]));
+            fail("registered tag 0");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * A B+ tree page is logged with the tag of its format, and read back
+     * with the key field of its file when the change is rolled back.
+     */
+    @Test public void rollbackBTreePage() throws Exception {
+        BTreeFile file = BTreeUtility.createRandomBTreeFile(2, 10, null, null, 0);
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) file.readPage(BTreeRootPtrPage.getId(file.getId()));
+        BTreePageId rootId = rootPtr.getRootId();
+        assertEquals(BTreePageId.LEAF, rootId.pgcateg());
+        BTreeLeafPage before = (BTreeLeafPage) file.readPage(rootId);
+        BTreeLeafPage after = new BTreeLeafPage(rootId, BTreeLeafPage.createEmptyPageData(), 0);
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getLogFile().logWrite(t.getId(), before, after);
+        file.writePage(after);
+        Database.getLogFile().logAbort(t.getId());
+
+        assertArrayEquals(before.getPageData(), file.readPage(rootId).getPageData());
+        assertFalse(Arrays.equals(after.getPageData(), before.getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCodecsTest.class);
+    }
+}
@@ -1,10 +1,18 @@
 package simpledb;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -57,6 +65,32 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * Comparing serialized fields agrees with comparing Field objects.
+   */
+  @Test public void compareSerialized() throws Exception {
+    Field[][] values = new Field[][] {
+      { new IntField(-7), new IntField(0), new IntField(7), new IntField(Integer.MIN_VALUE) },
+      { new StringField("", Type.STRING_LEN), new StringField("ab", Type.STRING_LEN),
+        new StringField("abc", Type.STRING_LEN), new StringField("b", Type.STRING_LEN) }
+    };
+    for (Field[] fields : values) {
+      for (Field stored : fields) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(new byte[3]);
+        stored.serialize(new DataOutputStream(baos));
+        byte[] data = baos.toByteArray();
+        assertEquals(stored, stored.getType().parse(data, 3));
+        for (Field operand : fields) {
+          for (Predicate.Op op : Predicate.Op.values()) {
+            assertEquals(stored + " " + op + " " + operand, stored.compare(op, operand),
+                stored.getType().compare(data, 3, op, operand));
+          }
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -31,6 +31,25 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for Tuple(TupleDesc, Tuple, Tuple)
+     */
+    @Test public void concatenate() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+
+        Tuple tup = new Tuple(td, left, right);
+        assertEquals(td, tup.getTupleDesc());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(new IntField(i + 1), tup.getField(i));
+        }
+
+        // the result does not share storage with its inputs
+        left.setField(0, new IntField(-1));
+        assertEquals(new IntField(1), tup.getField(0));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
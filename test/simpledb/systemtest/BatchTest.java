@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Runs scan, filter and projection pipelines a batch at a time and checks
+ * that they produce the same tuples as in row mode.
+ */
+public class BatchTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private OpIterator pipeline(TransactionId tid, HeapFile table) {
+        SeqScan ss = new SeqScan(tid, table.getId(), "t");
+        Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(1 << 15)), ss);
+        return new Project(Arrays.asList(2, 0), new Type[]{Type.INT_TYPE, Type.INT_TYPE}, f);
+    }
+
+    @Test public void filterProject() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, ROWS, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < (1 << 15)) {
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        Project p = (Project) pipeline(tid, table);
+        p.open();
+        List<List<Integer>> actual = new ArrayList<>();
+        TupleBatch batch;
+        int batches = 0;
+        while ((batch = p.nextBatch()) != null) {
+            assertTrue(batch.size() > 0 && batch.size() <= TupleBatch.DEFAULT_SIZE);
+            int[] first = batch.getIntColumn(0);
+            int[] second = batch.getIntColumn(1);
+            for (int i = 0; i < batch.size(); i++) {
+                actual.add(Arrays.asList(first[i], second[i]));
+            }
+            batches++;
+        }
+        p.close();
+        assertEquals(expected, actual);
+        assertTrue(batches < expected.size());
+
+        // the same plan in row mode
+        SystemTestUtil.matchTuples(pipeline(tid, table), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void aggregateFromBatches() throws IOException, DbException, TransactionAbortedException {
+        HashMap<Integer, Integer> groups = new HashMap<>();
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, ROWS, 8, null, tuples);
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 4) {
+                groups.merge(t.get(2), t.get(0), Integer::sum);
+            }
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Integer g : groups.keySet()) {
+            expected.add(Arrays.asList(g, groups.get(g)));
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, table.getId(), "t");
+        Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(4)), ss);
+        Aggregate ag = new Aggregate(f, 0, 2, Aggregator.Op.SUM);
+        SystemTestUtil.matchTuples(ag, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BatchTest.class);
+    }
+}
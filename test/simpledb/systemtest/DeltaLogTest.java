@@ -0,0 +1,126 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that changes to heap pages are logged by the rows they change,
+ * and undone and redone row by row.
+ */
+public class DeltaLogTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static List<Integer> row(int a, int b) {
+        List<Integer> r = new ArrayList<>();
+        r.add(a);
+        r.add(b);
+        return r;
+    }
+
+    @Test public void testLogSize() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, null);
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        HeapPage before = (HeapPage) table.readPage(pid);
+        HeapPage after = new HeapPage(pid, before.getPageData());
+        after.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+
+        File f = File.createTempFile("deltalog", ".dat");
+        f.deleteOnExit();
+        LogFile log = new LogFile(f);
+        log.setGroupCommit(1, 0);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.force();
+        long start = f.length();
+        log.logWrite(tid, before, after);
+        log.force();
+
+        // a one-row change takes a hundredth of before and after images
+        long size = f.length() - start;
+        assertTrue("a one-row change took " + size + " bytes of log",
+                size < 2 * BufferPool.getPageSize() / 100);
+    }
+
+    @Test public void testAbortNextToCommit() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 100, null, tuples);
+
+        // two transactions change rows of the same page, which is written
+        // to disk with both changes before either ends
+        Transaction loser = new Transaction();
+        loser.start();
+        Transaction winner = new Transaction();
+        winner.start();
+        Database.getBufferPool().insertTuple(loser.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{-1, -1}));
+        Database.getBufferPool().insertTuple(winner.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{-2, -2}));
+        Database.getBufferPool().flushAllPages();
+
+        // undoing the loser's row leaves the winner's
+        loser.abort();
+        winner.commit();
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.add(row(-2, -2));
+        SystemTestUtil.matchTuples(table, expected);
+
+        // and so does recovery
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    @Test public void testOpenCrash() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 100, null, tuples);
+
+        Transaction winner = new Transaction();
+        winner.start();
+        Database.getBufferPool().insertTuple(winner.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{-2, -2}));
+        Transaction open = new Transaction();
+        open.start();
+        Database.getBufferPool().insertTuple(open.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{-1, -1}));
+        Database.getBufferPool().flushAllPages();
+        winner.commit();
+
+        // the open transaction's row was written, but is undone
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.add(row(-2, -2));
+        SystemTestUtil.matchTuples(table, expected);
+
+        // and stays undone, even once its slot is used again
+        Transaction reuse = new Transaction();
+        reuse.start();
+        Database.getBufferPool().insertTuple(reuse.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{-3, -3}));
+        reuse.commit();
+        expected.add(row(-3, -3));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DeltaLogTest.class);
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests Aggregate with several aggregates over a composite grouping key.
+ */
+public class GroupByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 3000;
+
+    /** @return (c0, c1, sum(c2), count, max(c1)) grouped by c0 and c1 */
+    private static List<List<Integer>> expected(List<List<Integer>> tuples) {
+        Map<List<Integer>, int[]> groups = new LinkedHashMap<>();
+        for (List<Integer> t : tuples) {
+            int[] s = groups.computeIfAbsent(t.subList(0, 2), k -> new int[]{0, 0, Integer.MIN_VALUE});
+            s[0] += t.get(2);
+            s[1]++;
+            s[2] = Math.max(s[2], t.get(1));
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<List<Integer>, int[]> e : groups.entrySet()) {
+            List<Integer> row = new ArrayList<>(e.getKey());
+            row.add(e.getValue()[0]);
+            row.add(e.getValue()[1]);
+            row.add(e.getValue()[2]);
+            expected.add(row);
+        }
+        return expected;
+    }
+
+    private void validateAggregate(long budget) throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 40, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""),
+                new int[]{2, 2, 1}, new int[]{0, 1},
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MAX});
+        if (budget >= 0) {
+            agg.setMemoryBudget(budget);
+        }
+        SystemTestUtil.matchTuples(agg, expected(tuples));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testCompositeKey() throws IOException, DbException, TransactionAbortedException {
+        validateAggregate(-1);
+    }
+
+    @Test public void testCompositeKeySpilled() throws IOException, DbException, TransactionAbortedException {
+        // about ten groups fit in memory
+        validateAggregate(2000);
+    }
+
+    @Test public void testQuery()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 40, null, tuples, "c");
+        Database.getCatalog().addTable(table, "groupby");
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT g.c0, g.c1, SUM(g.c2), COUNT(*), MAX(g.c1) FROM groupby g GROUP BY g.c0, g.c1;");
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        // all aggregates come from a single Aggregate over the scan
+        OpIterator agg = ((Project) plan).getChildren()[0];
+        assertTrue(agg instanceof Aggregate);
+        assertTrue(Arrays.equals(new int[]{0, 1}, ((Aggregate) agg).getGroupFields()));
+        assertTrue(((Aggregate) agg).getChildren()[0] instanceof SeqScan);
+
+        SystemTestUtil.matchTuples(plan, expected(tuples));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupByTest.class);
+    }
+}
@@ -0,0 +1,221 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that concurrent commits share forces of the log, and measures the
+ * commit rate at 1 to 64 concurrent writers, of bare COMMIT records and of
+ * transactions that insert a row.
+ */
+public class GroupCommitTest extends SimpleDbTestBase {
+    /** How long the commit rate is measured at each number of writers. */
+    private static final long MEASURE_MS = 200;
+
+    private static LogFile newLog() throws IOException {
+        File f = File.createTempFile("grouplog", ".dat");
+        f.deleteOnExit();
+        return new LogFile(f);
+    }
+
+    private static void commit(LogFile log) throws IOException {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+    }
+
+    /** Insert a row into a table and commit, as a client would. */
+    private static void insertAndCommit(HeapFile table, int value) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{value, value}));
+        t.commit();
+    }
+
+    /** @return empty tables, one for each writer, so that writers do not wait for each other's locks */
+    private static List<HeapFile> newTables(int writers) throws IOException {
+        List<HeapFile> tables = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            tables.add(SystemTestUtil.createRandomHeapFile(2, 0, null, null));
+        }
+        return tables;
+    }
+
+    /** One commit of a writer. */
+    private interface Commit {
+        void run(int writer) throws Exception;
+    }
+
+    /**
+     * Run writers that commit transactions until the time is up.
+     *
+     * @return the number of commits made
+     */
+    private static long runWriters(int writers, long millis, Commit commit) throws Exception {
+        AtomicLong committed = new AtomicLong();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        long end = System.currentTimeMillis() + millis;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            final int writer = i;
+            Thread t = new Thread(() -> {
+                try {
+                    while (System.currentTimeMillis() < end) {
+                        commit.run(writer);
+                        committed.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return committed.get();
+    }
+
+    @Test public void testConcurrentCommits() throws Exception {
+        LogFile log = newLog();
+        final int writers = 16;
+        // wait for all writers before forcing
+        log.setGroupCommit(writers, 1000000);
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        for (int i = 0; i < writers; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    commit(log);
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertEquals(writers, log.getCommits());
+        assertTrue("every commit forced the log", log.getForces() < writers);
+    }
+
+    @Test public void testOneForcePerCommit() throws Exception {
+        LogFile log = newLog();
+        log.setGroupCommit(1, 0);
+        long commits = runWriters(4, MEASURE_MS, w -> commit(log));
+        assertEquals(commits, log.getCommits());
+        assertEquals(commits, log.getForces());
+    }
+
+    @Test public void testCommitRate() throws Exception {
+        for (int writers = 1; writers <= 64; writers *= 2) {
+            LogFile single = newLog();
+            single.setGroupCommit(1, 0);
+            long before = runWriters(writers, MEASURE_MS, w -> commit(single));
+
+            LogFile grouped = newLog();
+            long after = runWriters(writers, MEASURE_MS, w -> commit(grouped));
+            assertEquals(after, grouped.getCommits());
+            assertTrue(grouped.getForces() <= after);
+
+            System.out.println("commit rate with " + writers + " writers: "
+                    + before * 1000 / MEASURE_MS + "/s forcing per commit, "
+                    + after * 1000 / MEASURE_MS + "/s grouped ("
+                    + after / Math.max(1, grouped.getForces()) + " commits per force)");
+        }
+    }
+
+    /**
+     * Transactions that change pages force the log for their changes and
+     * their COMMIT record together, sharing the force with the others.
+     */
+    @Test public void testConcurrentTransactions() throws Exception {
+        final int writers = 16;
+        List<HeapFile> tables = newTables(writers);
+        LogFile log = Database.getLogFile();
+        // wait for all writers before forcing
+        log.setGroupCommit(writers, 1000000);
+        long forces = log.getForces();
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        for (int i = 0; i < writers; i++) {
+            final int writer = i;
+            Thread t = new Thread(() -> {
+                try {
+                    insertAndCommit(tables.get(writer), writer);
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        assertTrue("every transaction forced the log", log.getForces() - forces < writers);
+        for (int i = 0; i < writers; i++) {
+            List<List<Integer>> row = new ArrayList<>();
+            row.add(Arrays.asList(i, i));
+            SystemTestUtil.matchTuples(tables.get(i), row);
+        }
+    }
+
+    @Test public void testTransactionCommitRate() throws Exception {
+        // room for a dirty page of every writer
+        Database.resetBufferPool(4 * 64);
+        LogFile log = Database.getLogFile();
+        for (int writers = 1; writers <= 64; writers *= 2) {
+            List<HeapFile> singleTables = newTables(writers);
+            log.setGroupCommit(1, 0);
+            long before = runWriters(writers, MEASURE_MS, w -> insertAndCommit(singleTables.get(w), w));
+
+            List<HeapFile> groupedTables = newTables(writers);
+            log.setGroupCommit(LogFile.DEFAULT_GROUP_COMMIT_BATCH, LogFile.DEFAULT_GROUP_COMMIT_DELAY_MICROS);
+            long forces = log.getForces();
+            long after = runWriters(writers, MEASURE_MS, w -> insertAndCommit(groupedTables.get(w), w));
+            forces = log.getForces() - forces;
+            assertTrue(forces <= after);
+
+            System.out.println("transaction commit rate with " + writers + " writers: "
+                    + before * 1000 / MEASURE_MS + "/s forcing per commit, "
+                    + after * 1000 / MEASURE_MS + "/s grouped ("
+                    + after / Math.max(1, forces) + " commits per force)");
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
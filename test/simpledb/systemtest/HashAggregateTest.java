@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests grouped aggregation with more groups than fit in the memory budget.
+ */
+public class HashAggregateTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 5000;
+    /** About 16 groups fit in memory; the rest of the ~4000 groups spill. */
+    private static final long BUDGET = 2000;
+
+    /** @return (group, count, sum, min, max) of column 1 grouped by column 0 */
+    private static Map<Integer, int[]> groupStats(List<List<Integer>> tuples) {
+        Map<Integer, int[]> stats = new HashMap<>();
+        for (List<Integer> t : tuples) {
+            int v = t.get(1);
+            int[] s = stats.computeIfAbsent(t.get(0),
+                    k -> new int[]{0, 0, Integer.MAX_VALUE, Integer.MIN_VALUE});
+            s[0]++;
+            s[1] += v;
+            s[2] = Math.min(s[2], v);
+            s[3] = Math.max(s[3], v);
+        }
+        return stats;
+    }
+
+    private static List<List<Integer>> expected(Map<Integer, int[]> stats, Aggregator.Op op) {
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : stats.entrySet()) {
+            int[] s = e.getValue();
+            List<Integer> row = new ArrayList<>();
+            row.add(e.getKey());
+            switch (op) {
+                case COUNT: row.add(s[0]); break;
+                case SUM: row.add(s[1]); break;
+                case AVG: row.add(s[1] / s[0]); break;
+                case MIN: row.add(s[2]); break;
+                case MAX: row.add(s[3]); break;
+                case SUM_COUNT: row.add(s[1]); row.add(s[0]); break;
+                default: throw new IllegalArgumentException();
+            }
+            expected.add(row);
+        }
+        return expected;
+    }
+
+    @Test public void testSpilledAggregate() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        Map<Integer, int[]> stats = groupStats(tuples);
+
+        TransactionId tid = new TransactionId();
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.COUNT, Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM_COUNT}) {
+            Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, op);
+            agg.setMemoryBudget(BUDGET);
+            SystemTestUtil.matchTuples(agg, expected(stats, op));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Partial sums and counts of a spilled SUM_COUNT averaged again by SC_AVG. */
+    @Test public void testSumCountAverage() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        IntegerAggregator partial = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM_COUNT);
+        partial.setMemoryBudget(BUDGET);
+        OpIterator scan = new SeqScan(tid, table.getId(), "");
+        scan.open();
+        while (scan.hasNext()) {
+            partial.mergeTupleIntoGroup(scan.next());
+        }
+        scan.close();
+        assertTrue(partial.getSpilledGroups() > 0);
+
+        IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SC_AVG);
+        avg.setMemoryBudget(BUDGET);
+        OpIterator sumCounts = partial.iterator();
+        sumCounts.open();
+        while (sumCounts.hasNext()) {
+            avg.mergeTupleIntoGroup(sumCounts.next());
+        }
+        sumCounts.close();
+        partial.close();
+
+        SystemTestUtil.matchTuples(avg.iterator(), expected(groupStats(tuples), Aggregator.Op.AVG));
+        avg.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashAggregateTest.class);
+    }
+}
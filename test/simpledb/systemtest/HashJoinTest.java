@@ -0,0 +1,119 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests HashEquiJoin on inputs that do not fit in its memory budget.
+ */
+public class HashJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+
+    private static List<List<Integer>> expectedJoin(List<List<Integer>> t1Tuples, List<List<Integer>> t2Tuples) {
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t1 : t1Tuples) {
+            byKey.computeIfAbsent(t1.get(0), k -> new ArrayList<>()).add(t1);
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t2 : t2Tuples) {
+            for (List<Integer> t1 : byKey.getOrDefault(t2.get(0), new ArrayList<>())) {
+                List<Integer> out = new ArrayList<>(t1);
+                out.addAll(t2);
+                expected.add(out);
+            }
+        }
+        return expected;
+    }
+
+    private HashEquiJoin validateJoin(HeapFile table1, List<List<Integer>> t1Tuples,
+            HeapFile table2, List<List<Integer>> t2Tuples, long budget)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        HashEquiJoin joinOp = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), ss1, ss2);
+        joinOp.setMemoryBudget(budget);
+
+        SystemTestUtil.matchTuples(joinOp, expectedJoin(t1Tuples, t2Tuples));
+        Database.getBufferPool().transactionComplete(tid);
+        return joinOp;
+    }
+
+    @Test public void testInMemory()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 1000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 1000, null, t2Tuples);
+
+        HashEquiJoin joinOp = validateJoin(table1, t1Tuples, table2, t2Tuples, 0);
+        assertEquals(0, joinOp.getSpilledTuples());
+    }
+
+    @Test public void testSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 1000, null, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 2000, 1000, null, t2Tuples);
+
+        // room for 100 tuples of table1
+        HashEquiJoin joinOp = validateJoin(table1, t1Tuples, table2, t2Tuples, 800);
+        assertTrue(joinOp.getSpilledTuples() > 0);
+    }
+
+    @Test public void testSkewedSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        // every tuple of table1 has the same key, so its partition never splits
+        Map<Integer, Integer> columnSpecification = new HashMap<>();
+        columnSpecification.put(0, 7);
+        List<List<Integer>> t1Tuples = new ArrayList<>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(COLUMNS, 300, columnSpecification, t1Tuples);
+        List<List<Integer>> t2Tuples = new ArrayList<>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, columnSpecification, t2Tuples);
+
+        HashEquiJoin joinOp = validateJoin(table1, t1Tuples, table2, t2Tuples, 400);
+        assertTrue(joinOp.getSpilledTuples() > 0);
+
+        // rewinding starts the join over
+        TransactionId tid = new TransactionId();
+        joinOp = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table1.getId(), ""), new SeqScan(tid, table2.getId(), ""));
+        joinOp.setMemoryBudget(400);
+        joinOp.open();
+        for (int pass = 0; pass < 2; pass++) {
+            int count = 0;
+            while (joinOp.hasNext()) {
+                joinOp.next();
+                count++;
+            }
+            assertEquals(3000, count);
+            joinOp.rewind();
+        }
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(HashJoinTest.class);
+    }
+}
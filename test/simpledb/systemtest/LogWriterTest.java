@@ -0,0 +1,138 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests that log records are buffered, and land in the file with the
+ * same layout and back pointers as if written one by one.
+ */
+public class LogWriterTest extends SimpleDbTestBase {
+    // the record types of LogFile
+    private static final int COMMIT = 2;
+    private static final int BEGIN = 4;
+    private static final int CHECKPOINT = 5;
+    private static final int DELTA = 6;
+
+    private File file;
+
+    private LogFile newLog() throws IOException {
+        file = File.createTempFile("walog", ".dat");
+        file.deleteOnExit();
+        return new LogFile(file);
+    }
+
+    /**
+     * Read the log backwards, following the offset each record ends with
+     * to its start, which must be the end of the record before.
+     *
+     * @return the types of the records, in order
+     */
+    private List<Integer> readRecords(long expectedCheckpoint) throws IOException {
+        List<Integer> types = new ArrayList<>();
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            assertEquals(expectedCheckpoint, in.readLong());
+            long end = in.length();
+            while (end > 8) {
+                in.seek(end - 8);
+                long start = in.readLong();
+                assertTrue("back pointer at " + end, start >= 8 && start < end - 8);
+                in.seek(start);
+                types.add(0, in.readInt());
+                end = start;
+            }
+            assertEquals(8, end);
+        }
+        return types;
+    }
+
+    @Test public void testRecordsBuffered() throws Exception {
+        LogFile log = newLog();
+        log.setGroupCommit(1, 0);
+        for (int i = 0; i < 100; i++) {
+            log.logXactionBegin(new TransactionId());
+        }
+        assertEquals(0, log.getWrites());
+        assertEquals(0, file.length());
+
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logCommit(tid);
+        assertEquals(1, log.getWrites());
+        List<Integer> types = readRecords(-1);
+        assertEquals(102, types.size());
+        assertEquals(COMMIT, (int) types.get(101));
+    }
+
+    @Test public void testUpdates() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        HeapPage before = (HeapPage) table.readPage(pid);
+        HeapPage after = new HeapPage(pid, before.getPageData());
+        after.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        LogFile log = newLog();
+        log.setGroupCommit(1, 0);
+
+        final int updates = 5000;
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        for (int i = 0; i < updates; i++) {
+            log.logWrite(tid, before, after);
+        }
+        // the records are written in chunks of many
+        assertTrue(log.getWrites() > 0);
+        assertTrue(log.getWrites() < updates / 100);
+        log.logCommit(tid);
+
+        List<Integer> types = readRecords(-1);
+        assertEquals(updates + 2, types.size());
+        assertEquals(BEGIN, (int) types.get(0));
+        for (int i = 1; i <= updates; i++) {
+            assertEquals(DELTA, (int) types.get(i));
+        }
+        assertEquals(COMMIT, (int) types.get(updates + 1));
+    }
+
+    @Test public void testCheckpoint() throws Exception {
+        LogFile log = newLog();
+        log.setGroupCommit(1, 0);
+        TransactionId open = new TransactionId();
+        log.logXactionBegin(open);
+        TransactionId done = new TransactionId();
+        log.logXactionBegin(done);
+        log.logCommit(done);
+
+        // the truncated log starts at the open transaction's BEGIN
+        log.logCheckpoint();
+        long checkpoint = 8 + 3 * 20;
+        List<Integer> types = readRecords(checkpoint);
+        assertEquals(4, types.size());
+        assertEquals(CHECKPOINT, (int) types.get(3));
+
+        // records go after the truncated log
+        log.logCommit(open);
+        types = readRecords(checkpoint);
+        assertEquals(5, types.size());
+        assertEquals(COMMIT, (int) types.get(4));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(LogWriterTest.class);
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests OrderBy on inputs that fit in its memory budget and on inputs that
+ * have to be sorted externally.
+ */
+public class OrderByTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 3000;
+
+    private static List<List<Integer>> readAll(OrderBy op) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        while (op.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        return result;
+    }
+
+    /** Sorts on column 0 ascending, then column 1 descending. */
+    private void validateSort(long budget, boolean spills)
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 50, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(Comparator.<List<Integer>>comparingInt(t -> t.get(0))
+                .thenComparing(t -> t.get(1), Comparator.reverseOrder()));
+
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(new int[]{0, 1}, new boolean[]{true, false},
+                new SeqScan(tid, table.getId(), ""));
+        op.setMemoryBudget(budget);
+        op.open();
+        assertEquals(spills, op.getNumRuns() > 0);
+        assertEquals(expected, readAll(op));
+
+        op.rewind();
+        assertEquals(expected, readAll(op));
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testInMemory() throws IOException, DbException, TransactionAbortedException {
+        validateSort(0, false);
+    }
+
+    @Test public void testExternal() throws IOException, DbException, TransactionAbortedException {
+        // 100 tuples per run and two-way merges: several merge passes
+        validateSort(800, true);
+    }
+
+    @Test public void testSingleKey() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        OrderBy op = new OrderBy(1, false, new SeqScan(tid, table.getId(), ""));
+        op.setMemoryBudget(4000);
+        op.open();
+        List<List<Integer>> result = readAll(op);
+        op.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(ROWS, result.size());
+        for (int i = 1; i < result.size(); i++) {
+            assertTrue(result.get(i - 1).get(1) >= result.get(i).get(1));
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OrderByTest.class);
+    }
+}
@@ -0,0 +1,167 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelHashJoin;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests ParallelHashJoin and Aggregate over a ParallelSeqScan.
+ */
+public class ParallelJoinTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    /** About 70 pages of two-int tuples. */
+    private static final int ROWS = 34000;
+    private static final int SMALL_ROWS = 300;
+
+    /** @return every pair of tuples of left and right whose given columns are equal, concatenated */
+    private static List<List<Integer>> joined(List<List<Integer>> left, int leftField,
+                                              List<List<Integer>> right, int rightField) {
+        Map<Integer, List<List<Integer>>> map = new HashMap<>();
+        for (List<Integer> t : left) {
+            map.computeIfAbsent(t.get(leftField), k -> new ArrayList<>()).add(t);
+        }
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> r : right) {
+            for (List<Integer> l : map.getOrDefault(r.get(rightField), new ArrayList<>())) {
+                List<Integer> t = new ArrayList<>(l);
+                t.addAll(r);
+                result.add(t);
+            }
+        }
+        return result;
+    }
+
+    @Test public void testProbeParallelScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile smallTable = SystemTestUtil.createRandomHeapFile(COLUMNS, SMALL_ROWS, 2000, null, small);
+        List<List<Integer>> large = new ArrayList<>();
+        HeapFile largeTable = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 2000, null, large);
+
+        TransactionId tid = new TransactionId();
+        ParallelHashJoin join = new ParallelHashJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, smallTable.getId(), "s"),
+                new ParallelSeqScan(tid, largeTable.getId(), "l", 4));
+        assertTrue(join.isParallelProbe());
+        assertFalse(join.isProbeLeft());
+        SystemTestUtil.matchTuples(join, joined(small, 0, large, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelBuild() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> large = new ArrayList<>();
+        HeapFile largeTable = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 200000, null, large);
+        List<List<Integer>> other = new ArrayList<>();
+        HeapFile otherTable = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 200000, null, other);
+
+        // probe child1 on its workers while child2 is built on its own
+        TransactionId tid = new TransactionId();
+        ParallelHashJoin join = new ParallelHashJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new ParallelSeqScan(tid, largeTable.getId(), "a", 4),
+                new ParallelSeqScan(tid, otherTable.getId(), "b", 4), true);
+        SystemTestUtil.matchTuples(join, joined(large, 1, other, 0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return (c0, sum(c1), count, min(c1)) grouped by c0 */
+    private static List<List<Integer>> aggregated(List<List<Integer>> tuples) {
+        Map<Integer, int[]> groups = new LinkedHashMap<>();
+        for (List<Integer> t : tuples) {
+            int[] s = groups.computeIfAbsent(t.get(0), k -> new int[]{0, 0, Integer.MAX_VALUE});
+            s[0] += t.get(1);
+            s[1]++;
+            s[2] = Math.min(s[2], t.get(1));
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, int[]> e : groups.entrySet()) {
+            List<Integer> row = new ArrayList<>();
+            row.add(e.getKey());
+            row.add(e.getValue()[0]);
+            row.add(e.getValue()[1]);
+            row.add(e.getValue()[2]);
+            expected.add(row);
+        }
+        return expected;
+    }
+
+    private void validateAggregate(long budget) throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 500, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new ParallelSeqScan(tid, table.getId(), "", 4),
+                new int[]{1, 1, 1}, new int[]{0},
+                new Aggregator.Op[]{Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.MIN});
+        if (budget >= 0) {
+            agg.setMemoryBudget(budget);
+        }
+        SystemTestUtil.matchTuples(agg, aggregated(tuples));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelAggregate() throws IOException, DbException, TransactionAbortedException {
+        validateAggregate(-1);
+    }
+
+    @Test public void testParallelAggregateSpilled() throws IOException, DbException, TransactionAbortedException {
+        // each worker's partial groups spill
+        validateAggregate(20000);
+    }
+
+    @Test public void testPlan()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile smallTable = SystemTestUtil.createRandomHeapFile(COLUMNS, SMALL_ROWS, 2000, null, small, "c");
+        List<List<Integer>> large = new ArrayList<>();
+        HeapFile largeTable = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 2000, null, large, "c");
+        assertTrue(largeTable.numPages() >= LogicalPlan.PARALLEL_SCAN_MIN_PAGES);
+        Database.getCatalog().addTable(smallTable, "pjsmall");
+        Database.getCatalog().addTable(largeTable, "pjlarge");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("pjsmall", new TableStats(smallTable.getId(), 1));
+        stats.put("pjlarge", new TableStats(largeTable.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT s.c0, s.c1, l.c0, l.c1 FROM pjsmall s, pjlarge l WHERE s.c0 = l.c1;");
+        lp.setScanParallelism(4);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator join = ((Project) plan).getChildren()[0];
+        assertTrue(join instanceof ParallelHashJoin);
+        assertTrue(((ParallelHashJoin) join).isParallelProbe());
+
+        SystemTestUtil.matchTuples(plan, joined(small, 0, large, 1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelJoinTest.class);
+    }
+}
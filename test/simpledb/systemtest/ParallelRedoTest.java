@@ -0,0 +1,135 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.Transaction;
+
+/**
+ * Tests that recovery redoes only the changes that were logged after their
+ * page was last written, and that pages redone by several threads come out
+ * the same as by one.
+ */
+public class ParallelRedoTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int TABLES = 8;
+
+    private static List<Integer> row(int a, int b) {
+        List<Integer> r = new ArrayList<>();
+        r.add(a);
+        r.add(b);
+        return r;
+    }
+
+    /**
+     * Log a committed insert into the first page of a table, as if the
+     * database crashed after the commit but before the page was written.
+     */
+    private static void commitUnwritten(HeapFile table, int value) throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+        HeapPage before = (HeapPage) table.readPage(pid);
+        HeapPage after = new HeapPage(pid, before.getPageData());
+        after.insertTuple(Utility.getHeapTuple(new int[]{value, value}));
+
+        Transaction t = new Transaction();
+        t.start();
+        Database.getLogFile().logWrite(t.getId(), before, after);
+        Database.getLogFile().logCommit(t.getId());
+    }
+
+    @Test public void testWrittenPagesSkipped() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 100, null, tuples);
+        for (int i = 0; i < 10; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                    Utility.getHeapTuple(new int[]{-i, -i}));
+            t.commit();
+            tuples.add(row(-i, -i));
+        }
+
+        // every change was written with its commit, so none is redone
+        LogFile log = Database.getLogFile();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log.recover();
+        assertEquals(0, log.getRedone());
+        assertEquals(10, log.getRedoSkipped());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void testLostWriteRedone() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, tuples);
+        Transaction written = new Transaction();
+        written.start();
+        Database.getBufferPool().insertTuple(written.getId(), table.getId(),
+                Utility.getHeapTuple(new int[]{-1, -1}));
+        written.commit();
+        tuples.add(row(-1, -1));
+        commitUnwritten(table, -2);
+        tuples.add(row(-2, -2));
+
+        // only the change after the page's last write is redone
+        LogFile log = Database.getLogFile();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log.recover();
+        assertEquals(1, log.getRedone());
+        assertEquals(1, log.getRedoSkipped());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        // and is on disk now, so a second recovery redoes nothing
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log.recover();
+        assertEquals(0, log.getRedone());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void testManyPagesManyThreads() throws Exception {
+        List<HeapFile> tables = new ArrayList<>();
+        List<List<List<Integer>>> expected = new ArrayList<>();
+        for (int i = 0; i < TABLES; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, tuples);
+            commitUnwritten(table, -i);
+            tuples.add(row(-i, -i));
+            tables.add(table);
+            expected.add(tuples);
+        }
+
+        // a transaction that never ended is undone after the redo
+        List<List<Integer>> openTuples = new ArrayList<>();
+        HeapFile openTable = SystemTestUtil.createRandomHeapFile(COLUMNS, 10, null, openTuples);
+        Transaction open = new Transaction();
+        open.start();
+        Database.getBufferPool().insertTuple(open.getId(), openTable.getId(),
+                Utility.getHeapTuple(new int[]{-100, -100}));
+        Database.getBufferPool().flushAllPages();
+
+        LogFile log = Database.getLogFile();
+        log.setRedoThreads(4);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log.recover();
+        assertEquals(TABLES, log.getRedone());
+        for (int i = 0; i < TABLES; i++) {
+            SystemTestUtil.matchTuples(tables.get(i), expected.get(i));
+        }
+        SystemTestUtil.matchTuples(openTable, openTuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelRedoTest.class);
+    }
+}
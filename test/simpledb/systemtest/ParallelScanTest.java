@@ -0,0 +1,232 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Delete;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests ParallelSeqScan, alone and as chosen by the planner.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    /** About 70 pages of three-int tuples. */
+    private static final int ROWS = 24000;
+
+    private static final Comparator<List<Integer>> ORDER = (a, b) -> {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    };
+
+    /** @return the tuples of op, which must be open, sorted */
+    private static List<List<Integer>> readSorted(OpIterator op) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        while (op.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        result.sort(ORDER);
+        return result;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> tuples) {
+        List<List<Integer>> copy = new ArrayList<>(tuples);
+        copy.sort(ORDER);
+        return copy;
+    }
+
+    @Test public void testScan() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.open();
+        assertEquals(sorted(tuples), readSorted(scan));
+        scan.rewind();
+        assertEquals(sorted(tuples), readSorted(scan));
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testFilterAndProjection() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples, "c");
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) > 500 && t.get(2) <= 900) {
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.addFilter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(500)));
+        scan.addFilter(new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(900)));
+        scan.setProjection(new int[]{2, 0});
+        assertEquals("t.c2", scan.getTupleDesc().getFieldName(0));
+        scan.open();
+        assertEquals(sorted(expected), readSorted(scan));
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testCloseEarly() throws IOException, DbException, TransactionAbortedException {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "t", 4);
+        scan.open();
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(scan.next());
+        }
+        // must not wait for the workers to read the whole table
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPlan()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples, "c");
+        assertTrue(table.numPages() >= LogicalPlan.PARALLEL_SCAN_MIN_PAGES);
+        Database.getCatalog().addTable(table, "par");
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 100) {
+                expected.add(Arrays.asList(t.get(2), t.get(2)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT p.c2, p.c2 FROM par p WHERE p.c1 < 100;");
+        lp.setScanParallelism(4);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("par", new TableStats(table.getId(), 1));
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        ParallelSeqScan scan = (ParallelSeqScan) ((Project) plan).getChildren()[0];
+        assertEquals(1, scan.getFilters().size());
+        assertTrue(Arrays.equals(new int[]{2}, scan.getProjection()));
+
+        plan.open();
+        assertEquals(sorted(expected), readSorted(plan));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A DELETE planned over a parallel scan finds the tuples it deletes by their RecordIds. */
+    @Test public void testDelete()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples, "c");
+        assertTrue(table.numPages() >= LogicalPlan.PARALLEL_SCAN_MIN_PAGES);
+        Database.getCatalog().addTable(table, "par");
+        List<List<Integer>> kept = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) >= 500) {
+                kept.add(t);
+            }
+        }
+
+        // every page is dirtied and must stay in the pool until the commit
+        Database.resetBufferPool(2 * table.numPages());
+
+        // the plan Parser.handleDeleteStatement builds
+        Transaction t = new Transaction();
+        t.start();
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "par");
+        lp.addFilter("par.c1", Predicate.Op.LESS_THAN, "500");
+        lp.addProjectField("null.*", null);
+        lp.setScanParallelism(4);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("par", new TableStats(table.getId(), 1));
+        OpIterator plan = lp.physicalPlan(t.getId(), stats, false);
+        assertTrue(((Project) plan).getChildren()[0] instanceof ParallelSeqScan);
+        Delete delete = new Delete(t.getId(), plan);
+        delete.open();
+        Tuple count = delete.next();
+        delete.close();
+        t.commit();
+
+        assertEquals(tuples.size() - kept.size(), ((IntField) count.getField(0)).getValue());
+        SystemTestUtil.matchTuples(table, kept);
+    }
+
+    /**
+     * A nested loops join of two parallel scans reads the inner scan while
+     * the workers of the outer one wait for room in their queue; they must
+     * not keep the inner scan's workers from running.
+     */
+    @Test(timeout = 60000) public void testNestedLoopJoin()
+            throws IOException, DbException, TransactionAbortedException {
+        // enough pages for the outer scan to have a worker per pool thread
+        int outerRows = Math.max(ROWS, 400 * ParallelSeqScan.MORSEL_PAGES * ParallelSeqScan.getDefaultParallelism());
+        List<List<Integer>> outerTuples = new ArrayList<>();
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(COLUMNS, outerRows, null, outerTuples);
+        Map<Integer, Integer> zero = new HashMap<>();
+        zero.put(0, 0);
+        int innerRows = 100;
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(COLUMNS, innerRows, zero, null);
+        int expected = 0;
+        for (List<Integer> t : outerTuples) {
+            if (t.get(0) <= 0) {
+                expected += innerRows;
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan outerScan = new ParallelSeqScan(tid, outer.getId(), "o");
+        assertEquals(ParallelSeqScan.getDefaultParallelism(), outerScan.numWorkers());
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0),
+                outerScan, new ParallelSeqScan(tid, inner.getId(), "i"));
+        join.open();
+        int count = 0;
+        while (join.hasNext()) {
+            join.next();
+            count++;
+        }
+        join.close();
+        assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
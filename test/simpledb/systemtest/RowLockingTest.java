@@ -0,0 +1,167 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests transactions that insert and delete rows of the same page at once.
+ */
+public class RowLockingTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    /** Leaves room on the table's only page. */
+    private static final int ROWS = 100;
+    /** How long an insert or delete that must not block may take. */
+    private static final long WAIT_MS = 5000;
+
+    /** Run an action in another thread, failing if it blocks. */
+    private static void runWithin(Action action) throws Exception {
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                action.run();
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        t.start();
+        t.join(WAIT_MS);
+        assertFalse("blocked behind another writer", t.isAlive());
+        if (error.get() != null) {
+            throw error.get();
+        }
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    /** @return the tuples on disk of the table's first page */
+    private static List<List<Integer>> onDisk(HeapFile table) {
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        return tuples;
+    }
+
+    private static List<Integer> row(int a, int b) {
+        List<Integer> r = new ArrayList<>();
+        r.add(a);
+        r.add(b);
+        return r;
+    }
+
+    @Test public void testConcurrentInserts() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        assertEquals(1, table.numPages());
+
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        Database.getBufferPool().insertTuple(t1, table.getId(), Utility.getHeapTuple(new int[]{-1, -1}));
+        runWithin(() -> Database.getBufferPool().insertTuple(t2, table.getId(),
+                Utility.getHeapTuple(new int[]{-2, -2})));
+
+        // only t1's row is written
+        Database.getBufferPool().transactionComplete(t1);
+        List<List<Integer>> committed = new ArrayList<>(tuples);
+        committed.add(row(-1, -1));
+        assertSameTuples(committed, onDisk(table));
+
+        Database.getBufferPool().transactionComplete(t2, false);
+        assertSameTuples(committed, onDisk(table));
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    @Test public void testDeleteNextToInsert() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        TransactionId deleter = new TransactionId();
+        TransactionId inserter = new TransactionId();
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+        Tuple victim = page.iterator().next();
+        Database.getBufferPool().deleteTuple(deleter, victim);
+        Tuple inserted = Utility.getHeapTuple(new int[]{-3, -3});
+        runWithin(() -> Database.getBufferPool().insertTuple(inserter, table.getId(), inserted));
+        // the deleted tuple's slot is kept for it
+        assertTrue(inserted.getRecordId().getTupleNumber() != victim.getRecordId().getTupleNumber());
+
+        Database.getBufferPool().transactionComplete(deleter, false);
+        Database.getBufferPool().transactionComplete(inserter);
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.add(row(-3, -3));
+        assertSameTuples(expected, onDisk(table));
+        SystemTestUtil.matchTuples(table, expected);
+    }
+
+    @Test public void testManyInserters() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 0, null, null);
+        final int threads = 8;
+        final int transactions = 20;
+        final int rows = 10;
+        List<Thread> workers = new ArrayList<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            for (int j = 0; j < transactions * rows; j++) {
+                expected.add(row(thread, j));
+            }
+            Thread t = new Thread(() -> {
+                try {
+                    for (int j = 0; j < transactions; j++) {
+                        TransactionId tid = new TransactionId();
+                        for (int k = 0; k < rows; k++) {
+                            Database.getBufferPool().insertTuple(tid, table.getId(),
+                                    Utility.getHeapTuple(new int[]{thread, j * rows + k}));
+                        }
+                        Database.getBufferPool().transactionComplete(tid);
+                    }
+                } catch (Exception e) {
+                    error.set(e);
+                }
+            });
+            workers.add(t);
+            t.start();
+        }
+        for (Thread t : workers) {
+            t.join();
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        SystemTestUtil.matchTuples(table, expected);
+        assertEquals(0, Database.getBufferPool().getLockManager().getDeadlocks());
+    }
+
+    private static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+        List<List<Integer>> copy = new ArrayList<>(actual);
+        for (List<Integer> t : expected) {
+            assertTrue("missing tuple " + t, copy.remove(t));
+        }
+        assertTrue("unexpected tuples " + copy, copy.isEmpty());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RowLockingTest.class);
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.LockMode;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests read-only transactions that read a snapshot while others write.
+ */
+public class SnapshotTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 1000;
+    /** How long a read or write that must not block may take. */
+    private static final long WAIT_MS = 5000;
+
+    /** Scan a table in another thread, failing if the scan blocks. */
+    private static List<List<Integer>> scan(HeapFile table, TransactionId tid) throws Exception {
+        AtomicReference<List<List<Integer>>> result = new AtomicReference<>();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                List<List<Integer>> tuples = new ArrayList<>();
+                DbFileIterator it = table.iterator(tid);
+                it.open();
+                while (it.hasNext()) {
+                    tuples.add(SystemTestUtil.tupleToList(it.next()));
+                }
+                it.close();
+                result.set(tuples);
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        t.start();
+        t.join(WAIT_MS);
+        if (t.isAlive()) {
+            t.interrupt();
+            fail("the scan blocked");
+        }
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return result.get();
+    }
+
+    private static void assertSameTuples(List<List<Integer>> expected, List<List<Integer>> actual) {
+        List<List<Integer>> copy = new ArrayList<>(actual);
+        for (List<Integer> t : expected) {
+            assertTrue("missing tuple " + t, copy.remove(t));
+        }
+        assertTrue("unexpected tuples " + copy, copy.isEmpty());
+    }
+
+    /** Delete the first tuple of a table, leaving the writer's locks held. */
+    private static List<Integer> deleteFirst(HeapFile table, TransactionId writer)
+            throws DbException, TransactionAbortedException, IOException {
+        DbFileIterator it = table.iterator(writer);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(writer, t);
+        return SystemTestUtil.tupleToList(t);
+    }
+
+    @Test public void testReadUnderWriter() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        assertTrue(Database.getBufferPool().isSnapshot(reader.getId()));
+
+        TransactionId writer = new TransactionId();
+        List<Integer> deleted = deleteFirst(table, writer);
+        assertTrue(Database.getBufferPool().getLockManager()
+                .getLockMode(writer, new HeapPageId(table.getId(), 0)).covers(LockMode.IX));
+
+        // the writer holds a write lock, but the reader takes none
+        assertSameTuples(tuples, scan(table, reader.getId()));
+
+        // nor does the reader see the commit
+        Database.getBufferPool().transactionComplete(writer);
+        assertSameTuples(tuples, scan(table, reader.getId()));
+        assertTrue(Database.getBufferPool().getNumVersions() > 0);
+
+        // a later snapshot does
+        Transaction later = new Transaction(true);
+        later.start();
+        List<List<Integer>> after = new ArrayList<>(tuples);
+        after.remove(deleted);
+        assertSameTuples(after, scan(table, later.getId()));
+        later.commit();
+
+        reader.commit();
+        assertFalse(Database.getBufferPool().isSnapshot(reader.getId()));
+        assertEquals(0, Database.getBufferPool().getNumVersions());
+    }
+
+    @Test public void testWriterNotBlocked() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        // a reader in the middle of a scan
+        Transaction reader = new Transaction(true);
+        reader.start();
+        DbFileIterator it = table.iterator(reader.getId());
+        it.open();
+        it.next();
+
+        AtomicReference<Exception> error = new AtomicReference<>();
+        Thread t = new Thread(() -> {
+            try {
+                TransactionId writer = new TransactionId();
+                deleteFirst(table, writer);
+                Database.getBufferPool().transactionComplete(writer);
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        t.start();
+        t.join(WAIT_MS);
+        assertFalse("the writer blocked behind the reader", t.isAlive());
+        if (error.get() != null) {
+            throw error.get();
+        }
+
+        List<List<Integer>> seen = new ArrayList<>();
+        it.rewind();
+        while (it.hasNext()) {
+            seen.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        assertSameTuples(tuples, seen);
+        reader.commit();
+    }
+
+    @Test public void testReadOnly() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, null);
+        Transaction reader = new Transaction(true);
+        reader.start();
+        try {
+            Database.getBufferPool().getPage(reader.getId(),
+                    new HeapPageId(table.getId(), 0), Permissions.READ_WRITE);
+            fail("a read-only transaction wrote a page");
+        } catch (DbException expected) {
+        }
+        assertTrue(Database.getBufferPool().getLockManager().getLockedPages(reader.getId()).isEmpty());
+        reader.commit();
+    }
+
+    @Test public void testRingScan() throws Exception {
+        // a table larger than the pool, so that scans read into a ring
+        Database.resetBufferPool(BufferPool.SCAN_RING_PAGES * 2);
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, 20000, null, tuples);
+        assertTrue(table.numPages() > BufferPool.SCAN_RING_PAGES * 2);
+
+        Transaction reader = new Transaction(true);
+        reader.start();
+        TransactionId writer = new TransactionId();
+        deleteFirst(table, writer);
+        Database.getBufferPool().transactionComplete(writer);
+        assertSameTuples(tuples, scan(table, reader.getId()));
+        reader.commit();
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SnapshotTest.class);
+    }
+}
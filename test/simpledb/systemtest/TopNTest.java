@@ -0,0 +1,100 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Tests TopN, and LIMIT in queries.
+ */
+public class TopNTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 2;
+    private static final int ROWS = 3000;
+
+    private static List<List<Integer>> readAll(OpIterator op) throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        op.open();
+        while (op.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(op.next()));
+        }
+        op.close();
+        return result;
+    }
+
+    private void validateTopN(int limit) throws IOException, DbException, TransactionAbortedException {
+        // few distinct keys, so that the order of ties matters
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 20, null, tuples);
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(Comparator.comparing(t -> t.get(0), Comparator.reverseOrder()));
+        expected = expected.subList(0, Math.min(limit, expected.size()));
+
+        TransactionId tid = new TransactionId();
+        TopN op = new TopN(0, false, limit, new SeqScan(tid, table.getId(), ""));
+        assertEquals(expected, readAll(op));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testTopN() throws IOException, DbException, TransactionAbortedException {
+        validateTopN(50);
+    }
+
+    @Test public void testLimitBeyondInput() throws IOException, DbException, TransactionAbortedException {
+        validateTopN(ROWS * 2);
+    }
+
+    @Test public void testZero() throws IOException, DbException, TransactionAbortedException {
+        validateTopN(0);
+    }
+
+    @Test public void testLimitClause()
+            throws IOException, DbException, TransactionAbortedException, ParsingException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples, "c");
+        Database.getCatalog().addTable(table, "topn");
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid,
+                "SELECT * FROM topn t ORDER BY t.c1 DESC LIMIT 10;");
+        assertEquals(10, lp.getLimit());
+        OpIterator plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        assertTrue(((Project) plan).getChildren()[0] instanceof TopN);
+
+        List<List<Integer>> expected = new ArrayList<>(tuples);
+        expected.sort(Comparator.comparing(t -> t.get(1), Comparator.reverseOrder()));
+        assertEquals(expected.subList(0, 10), readAll(plan));
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM topn t limit 7;");
+        plan = lp.physicalPlan(tid, new HashMap<>(), false);
+        assertTrue(((Project) plan).getChildren()[0] instanceof Limit);
+        assertEquals(7, readAll(plan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(TopNTest.class);
+    }
+}